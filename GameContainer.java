@@ -1,52 +1,74 @@
 import gameobjects.Bomber;
+import util.MapFile;
+import util.MatchJournal;
+import util.PlayerSprites;
+import util.Scoring;
 
 import java.awt.*;
 import java.awt.image.BufferedImage;
 
 /**
  * Displays various game information on the screen such as each player's score.
+ * Every player has an info box. Boxes are laid out in rows across the width of the screen, and switch to a compact
+ * size when there are more than four players so that large arenas do not fill the screen with the HUD.
  */
 public class GameHUD {
 
+    private static final int MIN_INFO_WIDTH = 56;           // Narrowest compact info box, boxes wrap to more rows below this
+    private static final int COMPACT_ROW_HEIGHT = 24;
+    private static final int COMPACT_PLAYERS = 4;           // Boxes are compact with more players than this
+
     private Bomber[] players;
-    private BufferedImage[] playerInfo;
+    private boolean[] alive;
+    private BufferedImage info;
     private int[] playerScore;
+    private int playerCount;
+    private int columns;
+    private int infoWidth;
+    private int infoHeight;
+    private Font font;
+    private int winner;
     boolean matchSet;
 
     GameHUD() {
-        this.players = new Bomber[4];
-        this.playerInfo = new BufferedImage[4];
-        this.playerScore = new int[4];
+        this.players = new Bomber[MapFile.MAX_PLAYERS];
+        this.alive = new boolean[MapFile.MAX_PLAYERS];
+        this.playerScore = new int[MapFile.MAX_PLAYERS];
+        this.winner = -1;
         this.matchSet = false;
     }
 
-    void init() {
-        // Height of the HUD
-        int height = GameWindow.HUD_HEIGHT;
-        // Width of each player's information in the HUD, 4 players, 4 info boxes
-        int infoWidth = GamePanel.panelWidth / 4;
-
-        this.playerInfo[0] = new BufferedImage(infoWidth, height, BufferedImage.TYPE_INT_RGB);
-        this.playerInfo[1] = new BufferedImage(infoWidth, height, BufferedImage.TYPE_INT_RGB);
-        this.playerInfo[2] = new BufferedImage(infoWidth, height, BufferedImage.TYPE_INT_RGB);
-        this.playerInfo[3] = new BufferedImage(infoWidth, height, BufferedImage.TYPE_INT_RGB);
+    /**
+     * Lay out an info box for each player. Called once the map is loaded, before any player is assigned.
+     * @param playerCount Number of players on the map
+     * @param width Width of the HUD, same as the viewport
+     */
+    void init(int playerCount, int width) {
+        this.playerCount = Math.max(1, playerCount);
+        boolean compact = this.playerCount > COMPACT_PLAYERS;
+        // Four boxes in one row for four players or less
+        this.columns = compact ? Math.max(1, Math.min(this.playerCount, width / MIN_INFO_WIDTH)) : COMPACT_PLAYERS;
+        int rows = (this.playerCount + this.columns - 1) / this.columns;
+
+        this.infoWidth = width / this.columns;
+        this.infoHeight = compact ? COMPACT_ROW_HEIGHT : GameWindow.HUD_HEIGHT;
+        this.font = new Font("Courier New", Font.BOLD, compact ? 14 : 24);
+        this.info = new BufferedImage(width, rows * this.infoHeight, BufferedImage.TYPE_INT_RGB);
     }
 
     /**
      * Used by game panel to draw player info to the screen
-     * @return Player info box
+     * @return Player info boxes of every player
      */
-    BufferedImage getP1info() {
-        return this.playerInfo[0];
-    }
-    BufferedImage getP2info() {
-        return this.playerInfo[1];
-    }
-    BufferedImage getP3info() {
-        return this.playerInfo[2];
+    BufferedImage getInfo() {
+        return this.info;
     }
-    BufferedImage getP4info() {
-        return this.playerInfo[3];
+
+    /**
+     * @return Height of the HUD in pixels
+     */
+    int getHeight() {
+        return this.info.getHeight();
     }
 
     /**
@@ -65,75 +87,87 @@ public class GameHUD {
      * affecting their score since the score was already updated.
      */
     public void updateScore() {
-        // Count dead players
-        int deadPlayers = 0;
-        for (int i = 0; i < this.players.length; i++) {
-            if (this.players[i].isDead()) {
-                deadPlayers++;
-            }
+        // Players still alive, maps may skip player numbers
+        for (int i = 0; i < this.playerCount; i++) {
+            this.alive[i] = this.players[i] != null && !this.players[i].isDead();
         }
 
-        // Check for the last player standing and conclude the match
-        if (deadPlayers == this.players.length - 1) {
-            for (int i = 0; i < this.players.length; i++) {
-                if (!this.players[i].isDead()) {
-                    this.playerScore[i]++;
-                    this.matchSet = true;
-                }
+        // Check for the last player standing and conclude the match, nobody scores when the last players die together
+        int result = Scoring.winner(this.alive, this.playerCount);
+        if (result == Scoring.PLAYING) {
+            return;
+        }
+        if (result != Scoring.DRAW) {
+            this.playerScore[result]++;
+        }
+        this.winner = result;
+        this.matchSet = true;
+    }
+
+    /**
+     * Append the result of the round that was just set to the match journal.
+     * @param durationTicks Length of the round in ticks
+     * @param durationMillis Length of the round in millis
+     */
+    void recordRound(int durationTicks, long durationMillis) {
+        int[] kills = new int[this.playerCount];
+        int[] powerups = new int[this.playerCount];
+        for (int i = 0; i < this.playerCount; i++) {
+            if (this.players[i] != null) {
+                kills[i] = this.players[i].getKills();
+                powerups[i] = this.players[i].getPowerupsCollected();
             }
-        } else if (deadPlayers >= this.players.length) {
-            // This should only be reached two or more of the last players die at the same time
-            this.matchSet = true;
         }
+        MatchJournal.append(System.currentTimeMillis(), durationTicks, (int) durationMillis, this.winner, kills, powerups);
     }
 
     /**
      * Continuously redraw player information such as score.
      */
     void drawHUD() {
-        Graphics[] playerGraphics = {
-                this.playerInfo[0].createGraphics(),
-                this.playerInfo[1].createGraphics(),
-                this.playerInfo[2].createGraphics(),
-                this.playerInfo[3].createGraphics()};
+        Graphics2D g2 = this.info.createGraphics();
 
         // Clean info boxes
-        playerGraphics[0].clearRect(0, 0, playerInfo[0].getWidth(), playerInfo[0].getHeight());
-        playerGraphics[1].clearRect(0, 0, playerInfo[1].getWidth(), playerInfo[1].getHeight());
-        playerGraphics[2].clearRect(0, 0, playerInfo[1].getWidth(), playerInfo[1].getHeight());
-        playerGraphics[3].clearRect(0, 0, playerInfo[1].getWidth(), playerInfo[1].getHeight());
-
-        // Set border color per player
-        playerGraphics[0].setColor(Color.WHITE);    // Player 1 info box border color
-        playerGraphics[1].setColor(Color.GRAY);     // Player 2 info box border color
-        playerGraphics[2].setColor(Color.RED);      // Player 3 info box border color
-        playerGraphics[3].setColor(Color.BLUE);     // Player 4 info box border color
+        g2.clearRect(0, 0, this.info.getWidth(), this.info.getHeight());
+        g2.setFont(this.font);
 
         // Iterate loop for each player
-        for (int i = 0; i < playerGraphics.length; i++) {
-            Font font = new Font("Courier New", Font.BOLD, 24);
-            // Draw border and sprite
-            playerGraphics[i].drawRect(1, 1, this.playerInfo[i].getWidth() - 2, this.playerInfo[i].getHeight() - 2);
-            playerGraphics[i].drawImage(this.players[i].getBaseSprite(), 0, 0, null);
+        for (int i = 0; i < this.playerCount; i++) {
+            if (this.players[i] == null) {
+                continue;
+            }
+            int x = (i % this.columns) * this.infoWidth;
+            int y = (i / this.columns) * this.infoHeight;
 
-            // Draw score
-            playerGraphics[i].setFont(font);
-            playerGraphics[i].setColor(Color.WHITE);
-            playerGraphics[i].drawString("" + this.playerScore[i], this.playerInfo[i].getWidth() / 2, 32);
+            // Draw border in the player's color and sprite, scaled down to fit compact boxes
+            g2.setColor(PlayerSprites.getColor(i));
+            g2.drawRect(x + 1, y + 1, this.infoWidth - 2, this.infoHeight - 2);
+            BufferedImage sprite = this.players[i].getBaseSprite();
+            int spriteHeight = Math.min(sprite.getHeight(), this.infoHeight);
+            int spriteWidth = sprite.getWidth() * spriteHeight / sprite.getHeight();
+            g2.drawImage(sprite, x, y, spriteWidth, spriteHeight, null);
 
-            // Dispose
-            playerGraphics[i].dispose();
+            // Draw score
+            g2.setColor(Color.WHITE);
+            int baseline = y + (this.infoHeight + g2.getFontMetrics().getAscent()) / 2 - 2;
+            g2.drawString("" + this.playerScore[i], x + Math.max(spriteWidth + 4, this.infoWidth / 2), baseline);
         }
+
+        // Dispose
+        g2.dispose();
     }
 
 }
 =============================================================================================================
+import util.Log;
+import util.MatchJournal;
 import util.ResourceCollection;
+import util.SpriteCache;
+import util.TickMetrics;
 
 import javax.swing.*;
 import java.awt.*;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.io.IOException;
 
 /**
  * Contains the main method to launch the game.
@@ -143,24 +177,57 @@ public class GameLauncher {
     // The one and only window for the game to run
     static GameWindow window;
 
+    // Used to report time to first frame
+    static long launchTime;
+    static boolean spriteCacheHit;
+
     public static void main(String[] args) {
-        ResourceCollection.readFiles();
-        ResourceCollection.init();
+        launchTime = System.nanoTime();
+
+        // Sprites come from the preprocessed cache, the resource files are only read when there is no cache
+        spriteCacheHit = SpriteCache.load(SpriteCache.DEFAULT_PATH);
+        if (!spriteCacheHit) {
+            SpriteCache.readResources();
+            Thread cacheBuilder = new Thread(() -> {
+                try {
+                    SpriteCache.build(SpriteCache.DEFAULT_PATH);
+                } catch (IOException e) {
+                    Log.warn("Cannot build sprite cache").field("error", e).publish();
+                }
+            }, "Sprite cache builder");
+            cacheBuilder.setDaemon(true);
+            cacheBuilder.start();
+        }
 
         GamePanel game;
         try {
             game = new GamePanel(args[0]);
         } catch (ArrayIndexOutOfBoundsException e) {
-            System.err.println(e + ": Program args not given");
+            Log.warn("Program args not given").field("error", e).publish();
             game = new GamePanel(null);
         }
 
         game.init();
+        TickMetrics.register();
+        String journal = System.getProperty(MatchJournal.PATH_PROPERTY, MatchJournal.DEFAULT_PATH);
+        try {
+            MatchJournal.open(journal);
+        } catch (IOException e) {
+            Log.warn("Cannot open match journal, rounds are not recorded").field("file", journal).field("error", e).publish();
+        }
         window = new GameWindow(game);
 
         System.gc();
     }
 
+    /**
+     * Called once when the first frame is drawn. Prints how long startup took and where sprites came from.
+     */
+    static void reportFirstFrame() {
+        long millis = (System.nanoTime() - launchTime) / 1000000;
+        Log.info("First frame").field("ms", millis).field("spriteCache", spriteCacheHit ? "hit" : "miss").publish();
+    }
+
 }
 
 /**
@@ -171,10 +238,10 @@ class GameWindow extends JFrame {
     /**
      * Screen width and height is determined by the map size. Map size is set when loading the map in
      * the GamePanel class. For best results, do not use a map that is smaller than the default map
-     * provided in resources.
+     * provided in resources. Maps larger than the screen are scrolled by the camera.
      */
 
-    static final int HUD_HEIGHT = 48;   // Size of the HUD. The HUD displays score.
+    static final int HUD_HEIGHT = 48;   // Size of a row of the HUD. The HUD displays score.
     static final String TITLE = "Bomberman by Brian Lai";
 
     /**
@@ -183,7 +250,7 @@ class GameWindow extends JFrame {
      */
     GameWindow(GamePanel game) {
         this.setTitle(TITLE);
-        this.setIconImage(ResourceCollection.Images.ICON.getImage());
+        this.setIconImage(SpriteCache.getImage(ResourceCollection.Images.ICON));
         this.setLayout(new BorderLayout());
         this.add(game, BorderLayout.CENTER);
         this.setResizable(false);
@@ -194,23 +261,31 @@ class GameWindow extends JFrame {
     }
 
     /**
-     * Called every second. Updates the FPS and Ticks counters and prints them to the console with the current time.
+     * Called every second. Updates the FPS and Ticks counters and logs them.
      * @param fps FPS counter
      * @param ticks Ticks counter
      */
     public void update(int fps, int ticks) {
-        DateTimeFormatter dtf = DateTimeFormatter.ofPattern("HH:mm:ss");
-        LocalDateTime time = LocalDateTime.now();
-        System.out.println("[" + dtf.format(time) + "]" + " FPS: " + fps + ", Ticks: " + ticks);
+        Log.info("Frame rate").field("fps", fps).field("ticks", ticks).publish();
         GameLauncher.window.setTitle(GameWindow.TITLE + " | " + "FPS: " + fps + ", Ticks: " + ticks);
     }
 
 }
 ======================================================================================================
 import gameobjects.*;
+import util.GameEvents;
 import util.GameObjectCollection;
+import util.InputLatency;
+import util.InputQueue;
 import util.Key;
+import util.KeyBindings;
+import util.Log;
+import util.MapFile;
+import util.PlayerSprites;
+import util.ReplayFile;
 import util.ResourceCollection;
+import util.SpriteCache;
+import util.TickMetrics;
 
 import javax.swing.*;
 import javax.swing.table.JTableHeader;
@@ -218,43 +293,63 @@ import java.awt.*;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.io.BufferedReader;
-import java.io.FileReader;
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * JPanel that contains the entire game and game loop logic.
  */
 public class GamePanel extends JPanel implements Runnable {
 
-    // Screen size is determined by the map size
+    // Screen size is determined by the map size, capped to fit on the screen
     static int panelWidth;
     static int panelHeight;
 
     private Thread thread;
     private boolean running;
     int resetDelay;
+    private int roundTicks;
+    private long roundStart;
+    private int tick;   // Ticks since the game was initialized, key events are recorded by tick
+
+    // Every round is seeded so that a match can be played again from its replay
+    private final Random seeds = new Random();
+    private ReplayFile.Recorder recorder;
+    private ReplayFile replay;
+    private int replayRound;
+    private int replayInput;
+    private boolean reference;  // Game loop without its optimizations, see setReference
 
     private BufferedImage world;
     private Graphics2D buffer;
+    private BandRenderer bandRenderer;
     private BufferedImage bg;
     private GameHUD gameHUD;
+    private Camera camera;
+    private ChunkStreamer streamer;
 
     private int mapWidth;
     private int mapHeight;
-    private ArrayList<ArrayList<String>> mapLayout;
-    private BufferedReader bufferedReader;
+    private MapFile mapFile;
+    private String mapName;
+    private boolean firstFrameDrawn;
 
-    private HashMap<Integer, Key> controls1;
-    private HashMap<Integer, Key> controls2;
-    private HashMap<Integer, Key> controls3;
-    private HashMap<Integer, Key> controls4;
+    private KeyBindings bindings;
+    private InputQueue input;
+    private final InputQueue gameInput = new InputQueue(INPUT_CAPACITY);    // Key events of bots and replays
+    private Player[] players;
+    private BotController[] bots = new BotController[0];
+    private final InputQueue.Handler inputHandler = this::applyInput;
 
     private static final double SOFTWALL_RATE = 0.825;
+    private static final int STREAMING_THRESHOLD = 256 * 256;  // Maps with more tiles are streamed in chunks
+    private static final int CHUNK_CAPACITY = 64;             // Chunks paged in at once when streaming
+    private static final int INPUT_CAPACITY = 1024;           // Key events that can wait for the next tick
+    private static final boolean VERIFY_RENDERER = Boolean.getBoolean(BandRenderer.VERIFY_PROPERTY);
 
     /**
      * Construct game panel and load in a map file.
@@ -264,7 +359,7 @@ public class GamePanel extends JPanel implements Runnable {
         this.setFocusable(true);
         this.requestFocus();
         this.setControls();
-        this.bg = ResourceCollection.Images.BACKGROUND.getImage();
+        this.bg = SpriteCache.getImage(ResourceCollection.Images.BACKGROUND);
         this.loadMapFile(filename);
         this.addKeyListener(new GameController(this));
     }
@@ -274,206 +369,252 @@ public class GamePanel extends JPanel implements Runnable {
      */
     void init() {
         this.resetDelay = 0;
+        this.startRecording();
+        this.tick = 0;
+        this.replayRound = 0;
+        this.replayInput = 0;
         GameObjectCollection.init();
         this.gameHUD = new GameHUD();
         this.generateMap();
-        this.gameHUD.init();
-        this.setPreferredSize(new Dimension(this.mapWidth * 32, (this.mapHeight * 32) + GameWindow.HUD_HEIGHT));
-        System.gc();
+        this.setPreferredSize(new Dimension(panelWidth, panelHeight + this.gameHUD.getHeight()));
+        if (this.replay == null) {
+            System.gc();
+        }
         this.running = true;
     }
 
     /**
-     * Loads the map file into buffered reader or load default map when no file is given.
+     * Loads the map file or load default map when no file is given.
      * The file should be a file with strings separated by commas ",". Preferred .csv file.
+     * Maps compiled with MapFile are also accepted and load without parsing.
      * @param mapFile Name of the map file
      */
     private void loadMapFile(String mapFile) {
+        GameEvents.MapLoad event = new GameEvents.MapLoad();
+        event.begin();
+        event.file = mapFile;
+
         // Loading map file
         try {
-            this.bufferedReader = new BufferedReader(new FileReader(mapFile));
+            this.mapFile = MapFile.load(mapFile);
+            this.mapName = mapFile;
         } catch (IOException | NullPointerException e) {
             // Load default map when map file could not be loaded
-            System.err.println(e + ": Cannot load map file, loading default map");
-            this.bufferedReader = new BufferedReader(ResourceCollection.Files.DEFAULT_MAP.getFile());
+            Log.warn("Cannot load map file, loading default map").field("file", mapFile).field("error", e).publish();
+            event.fallback = true;
+            this.mapName = null;
+            try {
+                SpriteCache.readResources();
+                this.mapFile = MapFile.read(ResourceCollection.Files.DEFAULT_MAP.getFile());
+            } catch (IOException | NullPointerException ex) {
+                Log.error("Error parsing map data").field("error", ex).publish();
+            }
         }
 
-        // Parsing map data from file
-        this.mapLayout = new ArrayList<>();
-        try {
-            String currentLine;
-            while ((currentLine = bufferedReader.readLine()) != null) {
-                if (currentLine.isEmpty()) {
-                    continue;
-                }
-                // Split row into array of strings and add to array list
-                mapLayout.add(new ArrayList<>(Arrays.asList(currentLine.split(","))));
-            }
-        } catch (IOException | NullPointerException e) {
-            System.out.println(e + ": Error parsing map data");
-            e.printStackTrace();
+        if (this.mapFile != null) {
+            event.width = this.mapFile.getWidth();
+            event.height = this.mapFile.getHeight();
         }
+        event.commit();
     }
 
     /**
      * Generate the map given the map file. The map is grid based and each tile is 32x32.
-     * Create game objects depending on the string.
+     * Create game objects depending on the tile code.
      */
     private void generateMap() {
         // Map dimensions
-        this.mapWidth = mapLayout.get(0).size();
-        this.mapHeight = mapLayout.size();
-        panelWidth = this.mapWidth * 32;
-        panelHeight = this.mapHeight * 32;
+        this.mapWidth = this.mapFile.getWidth();
+        this.mapHeight = this.mapFile.getHeight();
+        TileIndex.init(this.mapWidth, this.mapHeight);
+        TimerWheel.clear();
+        this.seedRound();
+        this.roundTicks = 0;
+        this.roundStart = System.currentTimeMillis();
+
+        this.players = new Player[MapFile.MAX_PLAYERS];
+        this.setBots();
+
+        // The HUD grows in rows with the number of players, the viewport gets the rest of the screen
+        this.gameHUD.init(this.mapFile.getPlayers(), Camera.viewportWidth(this.mapWidth * 32));
+
+        // The world image only covers the viewport so memory does not grow with the map size
+        this.camera = new Camera(this.mapWidth * 32, this.mapHeight * 32, this.gameHUD.getHeight());
+        panelWidth = this.camera.getWidth();
+        panelHeight = this.camera.getHeight();
+        this.world = new BufferedImage(panelWidth, panelHeight, BufferedImage.TYPE_INT_RGB);
+        this.bandRenderer = null;
+        if (Boolean.getBoolean(BandRenderer.PROPERTY)) {
+            this.bandRenderer = new BandRenderer(this.world, ForkJoinPool.commonPool());
+        }
 
-        this.world = new BufferedImage(this.mapWidth * 32, this.mapHeight * 32, BufferedImage.TYPE_INT_RGB);
+        // Huge maps keep their walls and powerups on disk and only page in the chunks in use
+        this.streamer = null;
+        if (this.mapWidth * this.mapHeight > STREAMING_THRESHOLD) {
+            try {
+                this.streamer = new ChunkStreamer(this.mapFile, SOFTWALL_RATE, CHUNK_CAPACITY);
+            } catch (IOException e) {
+                Log.warn("Cannot create chunk file, loading entire map").field("error", e).publish();
+            }
+        }
 
         // Generate entire map
         for (int y = 0; y < this.mapHeight; y++) {
             for (int x = 0; x < this.mapWidth; x++) {
-                switch (mapLayout.get(y).get(x)) {
-                    case ("S"):     // Soft wall; breakable
-                        if (Math.random() < SOFTWALL_RATE) {
-                            BufferedImage sprSoftWall = ResourceCollection.Images.SOFT_WALL.getImage();
-                            Wall softWall = new Wall(new Point2D.Float(x * 32, y * 32), sprSoftWall, true);
-                            GameObjectCollection.spawn(softWall);
-                        }
-                        break;
-
-                    case ("H"):     // Hard wall; unbreakable
-                        // Code used to choose tile based on adjacent tiles
-                        int code = 0;
-                        if (y > 0 && mapLayout.get(y - 1).get(x).equals("H")) {
-                            code += 1;  // North
-                        }
-                        if (y < this.mapHeight - 1 && mapLayout.get(y + 1).get(x).equals("H")) {
-                            code += 4;  // South
-                        }
-                        if (x > 0 && mapLayout.get(y).get(x - 1).equals("H")) {
-                            code += 8;  // West
-                        }
-                        if (x < this.mapWidth - 1 && mapLayout.get(y).get(x + 1).equals("H")) {
-                            code += 2;  // East
+                byte tile = this.mapFile.getTile(x, y);
+                if (this.streamer != null && tile < MapFile.PLAYER) {
+                    continue;
+                }
+                switch (tile) {
+                    case (MapFile.SOFT):     // Soft wall; breakable
+                        if (MatchRandom.nextDouble() < SOFTWALL_RATE) {
+                            Terrain.addSoft(x, y);
                         }
-                        BufferedImage sprHardWall = ResourceCollection.getHardWallTile(code);
-                        Wall hardWall = new Wall(new Point2D.Float(x * 32, y * 32), sprHardWall, false);
-                        GameObjectCollection.spawn(hardWall);
-                        break;
-
-                    case ("1"):     // Player 1; Bomber
-                        BufferedImage[][] sprMapP1 = ResourceCollection.SpriteMaps.PLAYER_1.getSprites();
-                        Bomber player1 = new Bomber(new Point2D.Float(x * 32, y * 32 - 16), sprMapP1);
-                        PlayerController playerController1 = new PlayerController(player1, this.controls1);
-                        this.addKeyListener(playerController1);
-                        this.gameHUD.assignPlayer(player1, 0);
-                        GameObjectCollection.spawn(player1);
                         break;
 
-                    case ("2"):     // Player 2; Bomber
-                        BufferedImage[][] sprMapP2 = ResourceCollection.SpriteMaps.PLAYER_2.getSprites();
-                        Bomber player2 = new Bomber(new Point2D.Float(x * 32, y * 32 - 16), sprMapP2);
-                        PlayerController playerController2 = new PlayerController(player2, this.controls2);
-                        this.addKeyListener(playerController2);
-                        this.gameHUD.assignPlayer(player2, 1);
-                        GameObjectCollection.spawn(player2);
+                    case (MapFile.HARD):     // Hard wall; unbreakable
+                        Terrain.addHard(x, y);
                         break;
 
-                    case ("3"):     // Player 3; Bomber
-                        BufferedImage[][] sprMapP3 = ResourceCollection.SpriteMaps.PLAYER_3.getSprites();
-                        Bomber player3 = new Bomber(new Point2D.Float(x * 32, y * 32 - 16), sprMapP3);
-                        PlayerController playerController3 = new PlayerController(player3, this.controls3);
-                        this.addKeyListener(playerController3);
-                        this.gameHUD.assignPlayer(player3, 2);
-                        GameObjectCollection.spawn(player3);
-                        break;
-
-                    case ("4"):     // Player 4; Bomber
-                        BufferedImage[][] sprMapP4 = ResourceCollection.SpriteMaps.PLAYER_4.getSprites();
-                        Bomber player4 = new Bomber(new Point2D.Float(x * 32, y * 32 - 16), sprMapP4);
-                        PlayerController playerController4 = new PlayerController(player4, this.controls4);
-                        this.addKeyListener(playerController4);
-                        this.gameHUD.assignPlayer(player4, 3);
-                        GameObjectCollection.spawn(player4);
-                        break;
-
-                    case ("PB"):    // Powerup Bomb
+                    case (MapFile.POWER_BOMB):    // Powerup Bomb
                         Powerup powerBomb = new Powerup(new Point2D.Float(x * 32, y * 32), Powerup.Type.Bomb);
                         GameObjectCollection.spawn(powerBomb);
                         break;
 
-                    case ("PU"):    // Powerup Fireup
+                    case (MapFile.POWER_FIREUP):    // Powerup Fireup
                         Powerup powerFireup = new Powerup(new Point2D.Float(x * 32, y * 32), Powerup.Type.Fireup);
                         GameObjectCollection.spawn(powerFireup);
                         break;
 
-                    case ("PM"):    // Powerup Firemax
+                    case (MapFile.POWER_FIREMAX):    // Powerup Firemax
                         Powerup powerFiremax = new Powerup(new Point2D.Float(x * 32, y * 32), Powerup.Type.Firemax);
                         GameObjectCollection.spawn(powerFiremax);
                         break;
 
-                    case ("PS"):    // Powerup Speed
+                    case (MapFile.POWER_SPEED):    // Powerup Speed
                         Powerup powerSpeed = new Powerup(new Point2D.Float(x * 32, y * 32), Powerup.Type.Speed);
                         GameObjectCollection.spawn(powerSpeed);
                         break;
 
-                    case ("PP"):    // Powerup Pierce
+                    case (MapFile.POWER_PIERCE):    // Powerup Pierce
                         Powerup powerPierce = new Powerup(new Point2D.Float(x * 32, y * 32), Powerup.Type.Pierce);
                         GameObjectCollection.spawn(powerPierce);
                         break;
 
-                    case ("PK"):    // Powerup Kick
+                    case (MapFile.POWER_KICK):    // Powerup Kick
                         Powerup powerKick = new Powerup(new Point2D.Float(x * 32, y * 32), Powerup.Type.Kick);
                         GameObjectCollection.spawn(powerKick);
                         break;
 
-                    case ("PT"):    // Powerup Timer
+                    case (MapFile.POWER_TIMER):    // Powerup Timer
                         Powerup powerTimer = new Powerup(new Point2D.Float(x * 32, y * 32), Powerup.Type.Timer);
                         GameObjectCollection.spawn(powerTimer);
                         break;
 
                     default:
+                        // Bombers of every player, sprites of the fifth and later players are palette swaps
+                        if (tile >= MapFile.PLAYER && tile < MapFile.PLAYER + MapFile.MAX_PLAYERS) {
+                            int playerID = tile - MapFile.PLAYER;
+                            BufferedImage[][] sprMap = PlayerSprites.getSprites(playerID);
+                            Bomber bomber = new Bomber(new Point2D.Float(x * 32, y * 32 - 16), sprMap);
+                            this.players[playerID] = bomber;
+                            this.gameHUD.assignPlayer(bomber, playerID);
+                            GameObjectCollection.spawn(bomber);
+                        }
                         break;
                 }
             }
         }
+
+        // Register every tile object by tile for lookups, rendering, and pathfinding
+        for (int i = 0; i < GameObjectCollection.tileObjects.size(); i++) {
+            TileIndex.onSpawn(GameObjectCollection.tileObjects.get(i));
+        }
+
+        if (this.streamer != null) {
+            this.streamer.update(this.camera.getX(), this.camera.getY(), this.camera.getWidth(), this.camera.getHeight());
+        }
     }
 
     /**
-     * Initialize default key bindings for all players.
+     * Give the last players of the map to bots when bots are configured.
+     * Replays already hold the key events of the bots they recorded, so no bots play along with them.
+     */
+    private void setBots() {
+        int count = 0;
+        if (this.replay == null) {
+            count = Math.min(this.mapFile.getPlayers(), Math.max(0, Integer.getInteger(BotController.PROPERTY, 0)));
+        }
+        this.bots = new BotController[count];
+        for (int i = 0; i < count; i++) {
+            this.bots[i] = new BotController(this.mapFile.getPlayers() - count + i, this.gameInput);
+        }
+    }
+
+    /**
+     * Seed the random numbers of a new round, taking the seed from the replay when playing one back.
+     */
+    private void seedRound() {
+        long seed;
+        if (this.replay != null && this.replayRound < this.replay.getRounds()) {
+            seed = this.replay.getSeed(this.replayRound++);
+        } else {
+            seed = this.seeds.nextLong();
+        }
+        MatchRandom.seed(seed);
+        if (this.recorder != null) {
+            this.recorder.round(this.tick, seed);
+        }
+    }
+
+    /**
+     * Start a new replay file for the match when a replay directory is configured. Closes the replay of the previous
+     * match when the game is reset.
+     */
+    private void startRecording() {
+        if (this.recorder != null) {
+            this.recorder.close(this.tick);
+            this.recorder = null;
+        }
+        String directory = System.getProperty(ReplayFile.DIRECTORY_PROPERTY);
+        if (directory == null || this.replay != null) {
+            return;
+        }
+        File file = new File(directory, "match-" + System.currentTimeMillis() + ".replay");
+        try {
+            file.getParentFile().mkdirs();
+            this.recorder = new ReplayFile.Recorder(file.getPath(), this.mapName);
+        } catch (IOException e) {
+            Log.warn("Cannot create replay, match is not recorded").field("file", file).field("error", e).publish();
+        }
+    }
+
+    /**
+     * Load key bindings for all players and listen for their keys.
+     * Bindings come from the controls file when there is one, otherwise the defaults are used.
      */
     private void setControls() {
-        this.controls1 = new HashMap<>();
-        this.controls2 = new HashMap<>();
-        this.controls3 = new HashMap<>();
-        this.controls4 = new HashMap<>();
-
-        // Set Player 1 controls
-        this.controls1.put(KeyEvent.VK_UP, Key.up);
-        this.controls1.put(KeyEvent.VK_DOWN, Key.down);
-        this.controls1.put(KeyEvent.VK_LEFT, Key.left);
-        this.controls1.put(KeyEvent.VK_RIGHT, Key.right);
-        this.controls1.put(KeyEvent.VK_SLASH, Key.action);
-
-        // Set Player 2 controls
-        this.controls2.put(KeyEvent.VK_W, Key.up);
-        this.controls2.put(KeyEvent.VK_S, Key.down);
-        this.controls2.put(KeyEvent.VK_A, Key.left);
-        this.controls2.put(KeyEvent.VK_D, Key.right);
-        this.controls2.put(KeyEvent.VK_E, Key.action);
-
-        // Set Player 3 controls
-        this.controls3.put(KeyEvent.VK_T, Key.up);
-        this.controls3.put(KeyEvent.VK_G, Key.down);
-        this.controls3.put(KeyEvent.VK_F, Key.left);
-        this.controls3.put(KeyEvent.VK_H, Key.right);
-        this.controls3.put(KeyEvent.VK_Y, Key.action);
-
-        // Set Player 4 controls
-        this.controls4.put(KeyEvent.VK_I, Key.up);
-        this.controls4.put(KeyEvent.VK_K, Key.down);
-        this.controls4.put(KeyEvent.VK_J, Key.left);
-        this.controls4.put(KeyEvent.VK_L, Key.right);
-        this.controls4.put(KeyEvent.VK_O, Key.action);
+        this.bindings = KeyBindings.loadConfigured();
+        this.input = new InputQueue(INPUT_CAPACITY);
+        this.addKeyListener(new PlayerController(this.bindings, this.input));
+    }
+
+    /**
+     * Apply one queued key event to its player. Called on the game thread while draining the input queue.
+     */
+    private void applyInput(int player, Key key, boolean pressed, long time) {
+        TickMetrics.recordInputLatency(System.nanoTime() - time);
+        if (this.recorder != null) {
+            this.recorder.input(this.tick, player, key, pressed);
+        }
+        if (player >= this.players.length || this.players[player] == null) {
+            return;
+        }
+        if (pressed) {
+            this.players[player].press(key, time);
+        } else {
+            this.players[player].release(key, time);
+        }
     }
 
     /**
@@ -494,9 +635,16 @@ public class GamePanel extends JPanel implements Runnable {
      * Reset only the map, keeping the score
      */
     private void resetMap() {
+        GameEvents.RoundReset event = new GameEvents.RoundReset();
+        event.begin();
         GameObjectCollection.init();
         this.generateMap();
-        System.gc();
+        event.tileObjects = GameObjectCollection.tileObjects.size();
+        event.commit();
+        // Collect the old round's garbage while nobody is playing, replays have no one waiting
+        if (this.replay == null) {
+            System.gc();
+        }
     }
 
     public void addNotify() {
@@ -542,14 +690,74 @@ public class GamePanel extends JPanel implements Runnable {
             if (System.currentTimeMillis() - timer > 1000) {
                 timer = System.currentTimeMillis();
                 GameLauncher.window.update(fps, ticks);
+                TickMetrics.roll(fps, ticks);
                 fps = 0;
                 ticks = 0;
             }
         }
 
+        if (this.recorder != null) {
+            this.recorder.close(this.tick);
+        }
         System.exit(0);
     }
 
+    /**
+     * Play a recorded match back instead of listening to the keyboard. Called before init.
+     * @param replay Recorded match played on the map this panel loaded
+     */
+    void startReplay(ReplayFile replay) {
+        this.replay = replay;
+        this.firstFrameDrawn = true;
+    }
+
+    /**
+     * Advance a replay by one tick, handing the key events recorded for the tick to the game thread's input queue first.
+     * @return false once every recorded tick has been played
+     */
+    boolean stepReplay() {
+        if (this.tick >= this.replay.getTicks()) {
+            return false;
+        }
+        while (this.replayInput < this.replay.getInputs() && this.replay.getInputTick(this.replayInput) <= this.tick) {
+            int i = this.replayInput++;
+            this.gameInput.offer(this.replay.getPlayer(i), this.replay.getKey(i), this.replay.isPressed(i), System.nanoTime());
+        }
+        this.update();
+        return true;
+    }
+
+    /**
+     * Run the game without some of its optimizations, as the reference that optimized runs are compared to:
+     * every active object is checked against every tile object instead of the tiles around it, no objects are pooled,
+     * every object runs out its own timer instead of the timer wheel, walls and powerups stay active and look for their
+     * own collisions, bombs are only set off by the explosions they collide with, explosions walk the map instead
+     * of the blast range cache, and swept movement checks every tile object instead of the tiles in the way.
+     * The terrain bitsets have no reference and run the same either way.
+     * @param reference true for the reference engine
+     */
+    void setReference(boolean reference) {
+        this.reference = reference;
+        Pools.setEnabled(!reference);
+        TimerWheel.setEnabled(!reference);
+        TileObject.setSleeping(!reference);
+        DetonationResolver.setEnabled(!reference);
+        BlastRange.setEnabled(!reference);
+        Sweep.setIndexed(!reference);
+    }
+
+    int getTick() {
+        return this.tick;
+    }
+
+    int getPlayers() {
+        return this.mapFile.getPlayers();
+    }
+
+    int getHudHeight() {
+        return this.gameHUD.getHeight();
+    }
+
     /**
      * The update method that loops through every game object and calls update.
      * Checks collisions between every two game objects.
@@ -557,18 +765,68 @@ public class GamePanel extends JPanel implements Runnable {
      * Checks if a player is a winner and updates score, then reset the map.
      */
     private void update() {
+        GameEvents.Tick tickEvent = new GameEvents.Tick();
+        tickEvent.begin();
+
+        // Phase times are summed over every game object and recorded once per tick
+        long tickStart = System.nanoTime();
+        long allocatedStart = TickMetrics.threadAllocatedBytes();
+        long updateTime = 0;
+        long collisionTime = 0;
+        long removalTime = 0;
+        int entities = 0;
+        long collisionPairs = 0;
+
+        // Apply key events queued since the last tick. Each queue has one producer, so bots queue theirs on a queue of
+        // their own rather than the one the keyboard fills from the event dispatch thread
+        for (BotController bot : this.bots) {
+            bot.update(this.players);
+        }
+        this.input.drain(this.inputHandler);
+        this.gameInput.drain(this.inputHandler);
+        for (Player player : this.players) {
+            if (player != null) {
+                player.applyInput();
+            }
+        }
+
+        // Run out the timers of bombs, explosions, and dying bombers due this tick
+        TimerWheel.advance();
+        TileObject.burnOut();
+
         GameObjectCollection.sortBomberObjects();
         // Loop through every game object arraylist
+        long phaseStart = System.nanoTime();
         for (int list = 0; list < GameObjectCollection.gameObjects.size(); list++) {
             for (int objIndex = 0; objIndex < GameObjectCollection.gameObjects.get(list).size(); ) {
                 GameObject obj = GameObjectCollection.gameObjects.get(list).get(objIndex);
-                obj.update();
+                // Sleeping objects are only checked for removal, active objects handle their collisions with them
+                boolean active = obj.isActive();
+                if (active) {
+                    TimerWheel.runOut(obj);
+                    obj.update();
+                    entities++;
+                }
+                long updated = System.nanoTime();
+                updateTime += updated - phaseStart;
                 if (obj.isDestroyed()) {
                     // Destroy and remove game objects that were marked for deletion
                     obj.onDestroy();
                     GameObjectCollection.gameObjects.get(list).remove(obj);
+                    Pools.release(obj);
+                    phaseStart = System.nanoTime();
+                    removalTime += phaseStart - updated;
+                } else if (!active) {
+                    objIndex++;
+                    phaseStart = updated;
                 } else {
                     for (int list2 = 0; list2 < GameObjectCollection.gameObjects.size(); list2++) {
+                        // Tile objects are looked up around the object instead of checking every one on the map
+                        if (GameObjectCollection.gameObjects.get(list2) == GameObjectCollection.tileObjects && !this.reference) {
+                            collisionPairs += this.collideWithTiles(obj);
+                            continue;
+                        }
+                        collisionPairs += GameObjectCollection.gameObjects.get(list2).size();
                         for (int objIndex2 = 0; objIndex2 < GameObjectCollection.gameObjects.get(list2).size(); objIndex2++) {
                             GameObject collidingObj = GameObjectCollection.gameObjects.get(list2).get(objIndex2);
                             // Skip detecting collision on the same object as itself
@@ -585,15 +843,37 @@ public class GamePanel extends JPanel implements Runnable {
                         }
                     }
                     objIndex++;
+                    phaseStart = System.nanoTime();
+                    collisionTime += phaseStart - updated;
                 }
             }
         }
+        // Hand key events that players acted on this tick to the next frame
+        for (int i = 0; i < this.players.length; i++) {
+            if (this.players[i] != null) {
+                InputLatency.consumed(i, this.players[i].takeConsumedInput());
+            }
+        }
+
+        TickMetrics.record(TickMetrics.Phase.UPDATE, updateTime);
+        TickMetrics.record(TickMetrics.Phase.COLLISION, collisionTime);
+        TickMetrics.record(TickMetrics.Phase.REMOVAL, removalTime);
+
+        this.camera.follow();
+        if (this.streamer != null) {
+            this.streamer.update(this.camera.getX(), this.camera.getY(), this.camera.getWidth(), this.camera.getHeight());
+        }
 
         // Check for the last bomber to survive longer than the others and increase score
         // Score is added immediately so there is no harm of dying when you are the last one
         // Reset map when there are 1 or less bombers left
+        long scoringStart = System.nanoTime();
+        this.roundTicks++;
         if (!this.gameHUD.matchSet) {
             this.gameHUD.updateScore();
+            if (this.gameHUD.matchSet) {
+                this.gameHUD.recordRound(this.roundTicks, System.currentTimeMillis() - this.roundStart);
+            }
         } else {
             // Checking size of array list because when a bomber dies, they do not immediately get deleted
             // This makes it so that the next round doesn't start until the winner is the only bomber object on the map
@@ -605,50 +885,182 @@ public class GamePanel extends JPanel implements Runnable {
 
         // Used to prevent resetting the game really fast
         this.resetDelay++;
-
-        try {
-            Thread.sleep(1000 / 144);
-        } catch (InterruptedException ignored) {
+        this.tick++;
+
+        long tickEnd = System.nanoTime();
+        TickMetrics.record(TickMetrics.Phase.SCORING, tickEnd - scoringStart);
+        TickMetrics.record(TickMetrics.Phase.TICK, tickEnd - tickStart);
+        long allocated = allocatedStart < 0 ? -1 : TickMetrics.threadAllocatedBytes() - allocatedStart;
+        TickMetrics.recordCounts(entities, collisionPairs, allocated);
+
+        tickEvent.entities = entities;
+        tickEvent.collisionPairs = collisionPairs;
+        tickEvent.commit();
+
+        // Replays are played as fast as they can be drawn
+        if (this.replay == null) {
+            try {
+                Thread.sleep(1000 / 144);
+            } catch (InterruptedException ignored) {
+            }
         }
     }
 
     @Override
     public void paintComponent(Graphics g) {
+        GameEvents.Paint paintEvent = new GameEvents.Paint();
+        paintEvent.begin();
+        long renderStart = System.nanoTime();
+        InputLatency.frameBegin();
         Graphics2D g2 = (Graphics2D) g;
         this.buffer = this.world.createGraphics();
-        this.buffer.clearRect(0, 0, this.world.getWidth(), this.world.getHeight());
         super.paintComponent(g2);
 
         this.gameHUD.drawHUD();
 
-        // Draw background
-        for (int i = 0; i < this.world.getWidth(); i += this.bg.getWidth()) {
-            for (int j = 0; j < this.world.getHeight(); j += this.bg.getHeight()) {
+        // Software renderer draws straight into the world pixels, falling back to Graphics2D for what it cannot draw
+        int cameraX = this.camera.getX();
+        int cameraY = this.camera.getY();
+        if (this.bandRenderer == null || !this.bandRenderer.render(cameraX, cameraY, this.bg)) {
+            this.drawWorld(cameraX, cameraY);
+        } else if (VERIFY_RENDERER) {
+            int[] banded = this.bandRenderer.getPixels().clone();
+            this.drawWorld(cameraX, cameraY);
+            int mismatches = BandRenderer.countMismatches(banded, this.bandRenderer.getPixels());
+            if (mismatches > 0) {
+                Log.warn("Band renderer differs from Graphics2D").field("pixels", mismatches).publish();
+            }
+        }
+
+        // Draw HUD
+        g2.drawImage(this.gameHUD.getInfo(), 0, 0, null);
+
+        // Draw game world offset by the HUD
+        int hudHeight = this.gameHUD.getHeight();
+        g2.drawImage(this.world, 0, hudHeight, null);
+        InputLatency.drawOverlay(g2, 8, hudHeight + 8);
+        InputLatency.frameDrawn();
+
+        g2.dispose();
+        this.buffer.dispose();
+        TickMetrics.record(TickMetrics.Phase.RENDER, System.nanoTime() - renderStart);
+        paintEvent.commit();
+
+        if (!this.firstFrameDrawn) {
+            this.firstFrameDrawn = true;
+            GameLauncher.reportFirstFrame();
+        }
+    }
+
+    /**
+     * Draw the current frame into an image laid out like the panel, with the HUD above the world. The world is only
+     * collected into the band renderer to be drawn later on another thread, unless it has a sprite the band renderer
+     * cannot draw, in which case it is drawn now with Graphics2D.
+     * @param frame Image of the whole frame
+     * @param world Part of the frame below the HUD, the size of the viewport
+     * @param renderer Band renderer over the world part of the frame
+     * @return true if the band renderer still has to draw the world
+     */
+    boolean paintFrame(BufferedImage frame, BufferedImage world, BandRenderer renderer) {
+        this.gameHUD.drawHUD();
+        Graphics2D g2 = frame.createGraphics();
+        g2.drawImage(this.gameHUD.getInfo(), 0, 0, null);
+        g2.dispose();
+
+        int cameraX = this.camera.getX();
+        int cameraY = this.camera.getY();
+        if (renderer.collect(cameraX, cameraY, this.bg)) {
+            return true;
+        }
+        this.buffer = world.createGraphics();
+        this.drawWorld(cameraX, cameraY);
+        this.buffer.dispose();
+        return false;
+    }
+
+    /**
+     * Draw the background and the game objects in the viewport to the world image with Graphics2D.
+     * @param cameraX Left edge of the viewport in the game world
+     * @param cameraY Top edge of the viewport in the game world
+     */
+    private void drawWorld(int cameraX, int cameraY) {
+        this.buffer.clearRect(0, 0, this.world.getWidth(), this.world.getHeight());
+
+        // Draw in world coordinates offset by the camera
+        this.buffer.translate(-cameraX, -cameraY);
+
+        // Draw background over the visible part of the world
+        int bgStartX = cameraX - cameraX % this.bg.getWidth();
+        int bgStartY = cameraY - cameraY % this.bg.getHeight();
+        for (int i = bgStartX; i < cameraX + this.world.getWidth(); i += this.bg.getWidth()) {
+            for (int j = bgStartY; j < cameraY + this.world.getHeight(); j += this.bg.getHeight()) {
                 this.buffer.drawImage(this.bg, i, j, null);
             }
         }
 
-        // Draw game objects
+        // Draw game objects that overlap the viewport, with a margin for sprites taller than their collider
+        Rectangle view = new Rectangle(cameraX - 32, cameraY - 32, this.world.getWidth() + 64, this.world.getHeight() + 64);
         for (int i = 0; i < GameObjectCollection.gameObjects.size(); i++) {
+            if (GameObjectCollection.gameObjects.get(i) == GameObjectCollection.tileObjects) {
+                this.drawVisibleTiles(cameraX, cameraY);
+                continue;
+            }
             for (int j = 0; j < GameObjectCollection.gameObjects.get(i).size(); j++) {
                 GameObject obj = GameObjectCollection.gameObjects.get(i).get(j);
-                obj.drawImage(this.buffer);
-//                obj.drawCollider(this.buffer);
+                if (obj.getCollider().intersects(view)) {
+                    obj.drawImage(this.buffer);
+//                    obj.drawCollider(this.buffer);
+                }
             }
         }
+        this.buffer.translate(cameraX, cameraY);
+    }
 
-        // Draw HUD
-        int infoBoxWidth = panelWidth / 4;
-        g2.drawImage(this.gameHUD.getP1info(), infoBoxWidth * 0, 0, null);
-        g2.drawImage(this.gameHUD.getP2info(), infoBoxWidth * 1, 0, null);
-        g2.drawImage(this.gameHUD.getP3info(), infoBoxWidth * 2, 0, null);
-        g2.drawImage(this.gameHUD.getP4info(), infoBoxWidth * 3, 0, null);
-
-        // Draw game world offset by the HUD
-        g2.drawImage(this.world, 0, GameWindow.HUD_HEIGHT, null);
+    /**
+     * Check collisions of an active object with the tile objects on the tiles it covers. Tile objects are indexed by
+     * the tile of their center and are no bigger than a tile, so one tile of margin finds every one that can overlap.
+     * @param obj Active game object
+     * @return Number of tile objects checked
+     */
+    private int collideWithTiles(GameObject obj) {
+        Rectangle2D collider = obj.getCollider();
+        int firstX = (int) Math.floor(collider.getMinX() / 32) - 1;
+        int firstY = (int) Math.floor(collider.getMinY() / 32) - 1;
+        int lastX = (int) Math.floor(collider.getMaxX() / 32) + 1;
+        int lastY = (int) Math.floor(collider.getMaxY() / 32) + 1;
+        int checked = 0;
+        for (int y = firstY; y <= lastY; y++) {
+            for (int x = firstX; x <= lastX; x++) {
+                for (TileObject tileObj = TileIndex.get(x, y); tileObj != null; tileObj = tileObj.getNextInTile()) {
+                    checked++;
+                    if (tileObj != obj && collider.intersects(tileObj.getCollider())) {
+                        tileObj.onCollisionEnter(obj);
+                    }
+                }
+            }
+        }
+        return checked;
+    }
 
-        g2.dispose();
-        this.buffer.dispose();
+    /**
+     * Draw walls and tile objects on the tiles inside the viewport using the terrain and tile index instead of every
+     * tile object.
+     * @param cameraX Left edge of the viewport in the game world
+     * @param cameraY Top edge of the viewport in the game world
+     */
+    private void drawVisibleTiles(int cameraX, int cameraY) {
+        int firstX = cameraX / 32 - 1;
+        int firstY = cameraY / 32 - 1;
+        int lastX = (cameraX + this.world.getWidth()) / 32 + 1;
+        int lastY = (cameraY + this.world.getHeight()) / 32 + 1;
+        for (int y = firstY; y <= lastY; y++) {
+            for (int x = firstX; x <= lastX; x++) {
+                Terrain.draw(this.buffer, x, y);
+                for (TileObject obj = TileIndex.get(x, y); obj != null; obj = obj.getNextInTile()) {
+                    obj.drawImage(this.buffer);
+                }
+            }
+        }
     }
 
 }
@@ -680,13 +1092,13 @@ class GameController implements KeyListener {
     public void keyPressed(KeyEvent e) {
         // Close game
         if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
-            System.out.println("Escape key pressed: Closing game");
+            Log.info("Escape key pressed: Closing game").publish();
             this.gamePanel.exit();
         }
 
         // Display controls
         if (e.getKeyCode() == KeyEvent.VK_F1) {
-            System.out.println("F1 key pressed: Displaying help");
+            Log.info("F1 key pressed: Displaying help").publish();
 
             String[] columnHeaders = { "", "White", "Black", "Red", "Blue" };
             Object[][] controls = {
@@ -697,6 +1109,7 @@ class GameController implements KeyListener {
                     {"Bomb", "/", "E", "Y", "O"},
                     {"", "", "", "", ""},
                     {"Help", "F1", "", "", ""},
+                    {"Latency", "F3", "", "", ""},
                     {"Reset", "F5", "", "", ""},
                     {"Exit", "ESC", "", "", ""} };
 
@@ -712,11 +1125,16 @@ class GameController implements KeyListener {
             JOptionPane.showMessageDialog(this.gamePanel, panel, "Controls", JOptionPane.PLAIN_MESSAGE);
         }
 
+        // Toggle input latency overlay
+        if (e.getKeyCode() == KeyEvent.VK_F3) {
+            InputLatency.toggle();
+        }
+
         // Reset game
         // Delay prevents resetting too fast which causes the game to crash
         if (e.getKeyCode() == KeyEvent.VK_F5) {
             if (this.gamePanel.resetDelay >= 20) {
-                System.out.println("F5 key pressed: Resetting game");
+                Log.info("F5 key pressed: Resetting game").publish();
                 this.gamePanel.resetGame();
             }
         }
@@ -728,29 +1146,30 @@ class GameController implements KeyListener {
 
 }
 ======================================================================================================================
-import gameobjects.Player;
+import util.InputQueue;
 import util.Key;
+import util.KeyBindings;
 
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.util.HashMap;
 
 /**
- * This class controls a player object through user input by listening for key events.
+ * This class controls player objects through user input by listening for key events.
+ * Key events are timestamped and queued for the game thread instead of changing players from the event thread.
  */
 public class PlayerController implements KeyListener {
 
-    private Player player;
-    private HashMap<Integer, Key> controls;
+    private KeyBindings bindings;
+    private InputQueue input;
 
     /**
-     * Assigns controls to a player game object.
-     * @param obj The player game object to be controlled
-     * @param controls The controls that will control the player game object
+     * Assigns controls for every player.
+     * @param bindings The controls that will control the players
+     * @param input Queue read by the game thread at the start of each tick
      */
-    public PlayerController(Player obj, HashMap<Integer, Key> controls) {
-        this.player = obj;
-        this.controls = controls;
+    public PlayerController(KeyBindings bindings, InputQueue input) {
+        this.bindings = bindings;
+        this.input = input;
     }
 
     @Override
@@ -758,50 +1177,720 @@ public class PlayerController implements KeyListener {
     }
 
     /**
-     * Reads the keys pressed and performs certain actions based on the key.
+     * Reads the keys pressed and queues the action of the key.
      * @param e The key pressed
      */
     @Override
     public void keyPressed(KeyEvent e) {
-        if (this.controls.get(e.getKeyCode()) == Key.up) {
-            this.player.toggleUpPressed();
+        this.queue(e, true);
+    }
+
+    /**
+     * Reads the keys released and queues the action of the key.
+     * @param e The key released
+     */
+    @Override
+    public void keyReleased(KeyEvent e) {
+        this.queue(e, false);
+    }
+
+    private void queue(KeyEvent e, boolean pressed) {
+        Key key = this.bindings.getKey(e.getKeyCode());
+        if (key != null) {
+            this.input.offer(this.bindings.getPlayer(e.getKeyCode()), key, pressed, System.nanoTime());
+        }
+    }
+
+}
+=======================================================================================================================
+import gameobjects.Bomber;
+import gameobjects.FlowField;
+import gameobjects.ForwardModel;
+import gameobjects.MctsPlanner;
+import gameobjects.Player;
+import gameobjects.TileIndex;
+import util.InputQueue;
+import util.Key;
+
+import java.awt.geom.Point2D;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class controls a bomber without a keyboard. Each tick an easy bot walks to the nearest powerup it can reach,
+ * or chases the nearest bomber still alive when no powerup can be reached, or else walks up to the nearest soft wall,
+ * using the flow fields shared by every bot. Easy bots do not place bombs.
+ * A hard bot searches a forward model of the round with the planner and holds the key it picks for as many ticks as
+ * the planner holds each action, placing bombs as well.
+ * Key events of bots go through the input queue like those of players, so they are recorded in replays.
+ */
+class BotController {
+
+    // Number of players played by bots, counting back from the last player of the map
+    static final String PROPERTY = "bomberman.bots";
+    // Difficulty of every bot, "easy" or "hard"
+    static final String DIFFICULTY_PROPERTY = "bomberman.bots.difficulty";
+
+    private static final String HARD = "hard";
+    private static final long PLAN_BUDGET = 4;      // Milliseconds of search for each plan of a hard bot
+
+    private final int player;
+    private final InputQueue input;
+    private final MctsPlanner planner;  // Null for easy bots
+    private Key held;
+    private Key planned;
+    private int planTicks;              // Ticks left before a hard bot plans again
+
+    /**
+     * Assigns a bot to a player with the difficulty configured for bots.
+     * @param player Player index
+     * @param input Queue read by the game thread at the start of each tick
+     */
+    BotController(int player, InputQueue input) {
+        this.player = player;
+        this.input = input;
+        if (HARD.equals(System.getProperty(DIFFICULTY_PROPERTY))) {
+            this.planner = new MctsPlanner(ForkJoinPool.commonPool(), player, PLAN_BUDGET);
+        } else {
+            this.planner = null;
         }
-        if (this.controls.get(e.getKeyCode()) == Key.down) {
-            this.player.toggleDownPressed();
+    }
+
+    /**
+     * Choose the key to hold this tick and queue the key events that change it. Called before the input queue is
+     * drained.
+     * @param players Every player of the round by index
+     */
+    void update(Player[] players) {
+        if (!(players[this.player] instanceof Bomber)) {
+            return;
         }
-        if (this.controls.get(e.getKeyCode()) == Key.left) {
-            this.player.toggleLeftPressed();
+        Bomber bomber = (Bomber) players[this.player];
+        Key step = null;
+        if (!bomber.isDead()) {
+            step = this.planner != null ? this.plannedKey(players) : this.followedKey(players, bomber);
         }
-        if (this.controls.get(e.getKeyCode()) == Key.right) {
-            this.player.toggleRightPressed();
+
+        if (step != this.held) {
+            long time = System.nanoTime();
+            if (this.held != null) {
+                this.input.offer(this.player, this.held, false, time);
+            }
+            if (step != null) {
+                this.input.offer(this.player, step, true, time);
+            }
+            this.held = step;
         }
-        if (this.controls.get(e.getKeyCode()) == Key.action) {
-            this.player.toggleActionPressed();
+    }
+
+    private Key followedKey(Player[] players, Bomber bomber) {
+        Key step = FlowField.towardsPowerup(bomber);
+        if (step == null) {
+            Bomber target = this.nearestOpponent(players, bomber);
+            if (target != null) {
+                step = FlowField.towardsBomber(target, bomber);
+            }
         }
+        if (step == null) {
+            step = FlowField.towardsSoftWall(bomber);
+        }
+        return step;
     }
 
     /**
-     * Reads the keys released and performs certain actions based on the key.
-     * @param e The key released
+     * Plan again once the last planned key has been held for as long as the planner holds it. The bomb key is only
+     * pressed for one tick, the planner stands still for the rest of the ticks of a bomb action.
      */
-    @Override
-    public void keyReleased(KeyEvent e) {
-        if (this.controls.get(e.getKeyCode()) == Key.up) {
-            this.player.unToggleUpPressed();
+    private Key plannedKey(Player[] players) {
+        if (this.planTicks == 0) {
+            int count = 0;
+            while (count < players.length && players[count] instanceof Bomber) {
+                count++;
+            }
+            Bomber[] bombers = new Bomber[count];
+            for (int i = 0; i < count; i++) {
+                bombers[i] = (Bomber) players[i];
+            }
+            ForwardModel model = ForwardModel.capture(TileIndex.getMapWidth(), TileIndex.getMapHeight(), bombers);
+            this.planned = this.planner.plan(model);
+            this.planTicks = MctsPlanner.REPEAT;
+        }
+        this.planTicks--;
+
+        Key key = this.planned;
+        if (key == Key.action) {
+            this.planned = null;
+        }
+        return key;
+    }
+
+    private Bomber nearestOpponent(Player[] players, Bomber bomber) {
+        Point2D.Float position = bomber.getColliderCenter();
+        Bomber nearest = null;
+        double nearestDistance = Double.MAX_VALUE;
+        for (Player other : players) {
+            if (other == bomber || !(other instanceof Bomber) || ((Bomber) other).isDead()) {
+                continue;
+            }
+            Point2D.Float center = other.getColliderCenter();
+            double distance = Math.abs(center.x - position.x) + Math.abs(center.y - position.y);
+            if (distance < nearestDistance) {
+                nearestDistance = distance;
+                nearest = (Bomber) other;
+            }
+        }
+        return nearest;
+    }
+
+}
+=======================================================================================================================
+import gameobjects.Bomber;
+import util.GameObjectCollection;
+
+import java.awt.*;
+
+/**
+ * Viewport into the game world. The camera follows the action by centering on the bombers that are still alive
+ * and stays inside the map, so the world image and drawing only cover what fits on the screen no matter how
+ * large the map is.
+ */
+class Camera {
+
+    // Room left on the screen for window decorations and the taskbar
+    private static final int SCREEN_MARGIN = 96;
+    // Viewport used when there is no screen to fit in
+    private static final Dimension HEADLESS_VIEWPORT = new Dimension(40 * 32, 24 * 32);
+
+    private final int width;
+    private final int height;
+    private final int worldWidth;
+    private final int worldHeight;
+    private float x;
+    private float y;
+
+    /**
+     * Construct a camera for a world of the given size, starting at the center of the world.
+     * @param worldWidth Width of the map in pixels
+     * @param worldHeight Height of the map in pixels
+     * @param hudHeight Height of the HUD above the viewport
+     */
+    Camera(int worldWidth, int worldHeight, int hudHeight) {
+        Dimension screen = maxViewport();
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
+        this.width = viewportWidth(worldWidth);
+        this.height = Math.min(worldHeight, (screen.height - hudHeight) / 32 * 32);
+        this.x = (worldWidth - this.width) / 2f;
+        this.y = (worldHeight - this.height) / 2f;
+    }
+
+    /**
+     * Width of the viewport for a world, known before the camera is constructed so the HUD can be laid out first.
+     * @param worldWidth Width of the map in pixels
+     * @return Width of the viewport in pixels
+     */
+    static int viewportWidth(int worldWidth) {
+        return Math.min(worldWidth, maxViewport().width / 32 * 32);
+    }
+
+    private static Dimension maxViewport() {
+        if (GraphicsEnvironment.isHeadless()) {
+            return HEADLESS_VIEWPORT;
         }
-        if (this.controls.get(e.getKeyCode()) == Key.down) {
-            this.player.unToggleDownPressed();
+        Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+        return new Dimension(screen.width - SCREEN_MARGIN, screen.height - SCREEN_MARGIN);
+    }
+
+    /**
+     * Called every tick. Eases the camera towards the center of the bombers still alive.
+     */
+    void follow() {
+        float sumX = 0;
+        float sumY = 0;
+        int alive = 0;
+        for (int i = 0; i < GameObjectCollection.bomberObjects.size(); i++) {
+            Bomber bomber = GameObjectCollection.bomberObjects.get(i);
+            if (!bomber.isDead()) {
+                sumX += bomber.getCollider().getCenterX();
+                sumY += bomber.getCollider().getCenterY();
+                alive++;
+            }
         }
-        if (this.controls.get(e.getKeyCode()) == Key.left) {
-            this.player.unToggleLeftPressed();
+        if (alive == 0) {
+            return;
         }
-        if (this.controls.get(e.getKeyCode()) == Key.right) {
-            this.player.unToggleRightPressed();
+
+        float targetX = Math.max(0, Math.min(this.worldWidth - this.width, sumX / alive - this.width / 2f));
+        float targetY = Math.max(0, Math.min(this.worldHeight - this.height, sumY / alive - this.height / 2f));
+        this.x += (targetX - this.x) * 0.1f;
+        this.y += (targetY - this.y) * 0.1f;
+    }
+
+    int getX() {
+        return Math.round(this.x);
+    }
+
+    int getY() {
+        return Math.round(this.y);
+    }
+
+    int getWidth() {
+        return this.width;
+    }
+
+    int getHeight() {
+        return this.height;
+    }
+
+}
+===============================================================================================
+import gameobjects.BandRenderer;
+import util.Log;
+import util.ReplayFile;
+import util.SpriteCache;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Renders a recorded match to a numbered image sequence without a window, for cutting highlights. The match is played
+ * again from its replay by a headless game panel. The game world is shared by the whole program, so a single thread
+ * plays the match and, for every frame, draws the HUD and collects the draw list of the world. The draw lists are
+ * then rasterized by the band renderer and encoded on the pool, many frames at once, while the game thread goes on
+ * to the next frames. A fixed set of frames is reused, so the game thread waits when encoding falls behind.
+ *
+ * Usage: ReplayExporter replay directory [first tick] [last tick] [ticks per frame]
+ * Run with -Djava.awt.headless=true. The frames can be joined into a video with, for example:
+ *     ffmpeg -framerate 60 -i directory/frame-%06d.png highlight.mp4
+ */
+public class ReplayExporter {
+
+    private static final String FORMAT = "png";
+
+    /**
+     * Image of one frame in flight with the band renderer that draws its world.
+     */
+    private static class Frame {
+
+        private final BufferedImage image;
+        private final BufferedImage world;
+        private final BandRenderer renderer;
+        private int number;
+        private boolean collected;
+
+        Frame(int width, int height, int hudHeight, ForkJoinPool pool) {
+            this.image = new BufferedImage(width, hudHeight + height, BufferedImage.TYPE_INT_RGB);
+            this.world = this.image.getSubimage(0, hudHeight, width, height);
+            this.renderer = new BandRenderer(this.world, pool);
+        }
+
+    }
+
+    private final GamePanel game;
+    private final File directory;
+    private final ForkJoinPool pool;
+    private final BlockingQueue<Frame> frames;
+    private final int frameCount;
+    private final AtomicReference<IOException> error = new AtomicReference<>();
+
+    /**
+     * Load the map of a replay and prepare the frames.
+     * @param replay Recorded match
+     * @param directory Directory the images are written to
+     * @param pool Pool that draws and encodes the frames
+     */
+    ReplayExporter(ReplayFile replay, File directory, ForkJoinPool pool) {
+        this.game = new GamePanel(replay.getMap().isEmpty() ? null : replay.getMap());
+        this.game.startReplay(replay);
+        this.game.init();
+        this.directory = directory;
+        this.pool = pool;
+
+        Dimension size = this.game.getPreferredSize();
+        int hudHeight = this.game.getHudHeight();
+        this.frameCount = pool.getParallelism() * 2;
+        this.frames = new ArrayBlockingQueue<>(this.frameCount);
+        for (int i = 0; i < this.frameCount; i++) {
+            this.frames.add(new Frame(size.width, size.height - hudHeight, hudHeight, pool));
+        }
+    }
+
+    /**
+     * Play the match and write a frame every few ticks.
+     * @param firstTick First tick drawn
+     * @param lastTick Last tick drawn
+     * @param ticksPerFrame Ticks between two frames
+     * @return Number of frames written
+     * @throws IOException When a frame cannot be written
+     * @throws InterruptedException When interrupted while waiting for a frame
+     */
+    int export(int firstTick, int lastTick, int ticksPerFrame) throws IOException, InterruptedException {
+        this.directory.mkdirs();
+        int number = 0;
+        while (this.game.stepReplay()) {
+            int tick = this.game.getTick();
+            if (tick > lastTick) {
+                break;
+            }
+            if (tick < firstTick || (tick - firstTick) % ticksPerFrame != 0) {
+                continue;
+            }
+
+            Frame frame = this.frames.take();
+            if (this.error.get() != null) {
+                this.frames.add(frame);
+                break;
+            }
+            frame.number = number++;
+            frame.collected = this.game.paintFrame(frame.image, frame.world, frame.renderer);
+            this.pool.execute(() -> this.finish(frame));
         }
-        if (this.controls.get(e.getKeyCode()) == Key.action) {
-            this.player.unToggleActionPressed();
+
+        // Wait for the frames still being drawn and encoded
+        for (int i = 0; i < this.frameCount; i++) {
+            this.frames.take();
+        }
+        if (this.error.get() != null) {
+            throw this.error.get();
+        }
+        return number;
+    }
+
+    /**
+     * Draw the world of a frame and encode it, then hand the frame back to the game thread. Runs on the pool.
+     * @param frame Frame painted by the game thread
+     */
+    private void finish(Frame frame) {
+        try {
+            if (frame.collected) {
+                frame.renderer.draw();
+            }
+            File file = new File(this.directory, String.format("frame-%06d.%s", frame.number, FORMAT));
+            if (!ImageIO.write(frame.image, FORMAT, file)) {
+                throw new IOException("No image writer for " + FORMAT);
+            }
+        } catch (IOException e) {
+            this.error.compareAndSet(null, e);
+        } finally {
+            this.frames.add(frame);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: ReplayExporter replay directory [first tick] [last tick] [ticks per frame]");
+            return;
+        }
+        ReplayFile replay = ReplayFile.read(args[0]);
+        int firstTick = (args.length > 2) ? Integer.parseInt(args[2]) : 0;
+        int lastTick = (args.length > 3) ? Integer.parseInt(args[3]) : replay.getTicks();
+        int ticksPerFrame = (args.length > 4) ? Math.max(1, Integer.parseInt(args[4])) : 1;
+
+        if (!SpriteCache.load(SpriteCache.DEFAULT_PATH)) {
+            SpriteCache.readResources();
+        }
+
+        ReplayExporter exporter = new ReplayExporter(replay, new File(args[1]), ForkJoinPool.commonPool());
+        long start = System.nanoTime();
+        int written = exporter.export(firstTick, lastTick, ticksPerFrame);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        Log.info("Replay exported").field("frames", written).field("seconds", seconds)
+                .field("fps", written / seconds).field("directory", args[1]).publish();
+    }
+
+}
+===============================================================================================
+import gameobjects.DetonationResolver;
+import gameobjects.WorldHash;
+import util.Key;
+import util.Log;
+import util.ReplayFile;
+import util.SpriteCache;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Differential test of the game engine against a reference engine. Random matches are generated from seeds and
+ * played by both: the reference runs GamePanel.update() with the optimizations listed in GamePanel.setReference
+ * turned off, the candidate runs it the way the game does. The world is hashed after every tick and the first tick the
+ * hashes differ on is a divergence. A divergent match is shrunk to the fewest key events and ticks that still diverge
+ * and written as a replay, which can be played again or exported with ReplayExporter.
+ *
+ * Every match is played with the default chain delay of 1 tick and again with a delay of 0. Chains spreading through
+ * collisions take a tick per link, so with a delay of 0 the reference keeps the detonation resolver on and only the
+ * other optimizations are checked. The terrain bitsets run the same in both engines, so a bug in them goes unnoticed,
+ * and the output says so. Random key events rarely set off chain reactions, so the detonation resolver is only
+ * checked by long runs.
+ *
+ * The game world is shared by the whole program, so the two engines take turns playing each match.
+ *
+ * Usage: EngineDiff map matches [ticks per match] [first seed]
+ */
+public class EngineDiff {
+
+    private static final int ROUNDS = 64;           // Round seeds per match, more rounds than a match can play
+    private static final double INPUT_RATE = 0.2;   // Chance of a key event for each player on each tick
+    private static final Key[] KEYS = Key.values();
+    private static final int[] CHAIN_DELAYS = { 1, 0 };
+
+    private final GamePanel game;
+    private final String map;
+    private final int players;
+
+    // Hashes of the world after every tick
+    private long[] referenceHashes = new long[0];
+    private long[] candidateHashes = new long[0];
+
+    /**
+     * Load the map the matches are played on.
+     * @param map Map file, null for the default map
+     */
+    EngineDiff(String map) {
+        this.game = new GamePanel(map);
+        this.map = map == null ? "" : map;
+        this.players = this.game.getPlayers();
+    }
+
+    /**
+     * Generate a match of random key events. Keys are pressed and released in turn like on a keyboard.
+     * @param seed Seed of the match
+     * @param ticks Length of the match
+     * @return Replay of the match
+     */
+    ReplayFile generate(long seed, int ticks) {
+        SplittableRandom random = new SplittableRandom(seed);
+        ReplayFile replay = new ReplayFile(this.map);
+        for (int i = 0; i < ROUNDS; i++) {
+            replay.addRound(0, random.nextLong());
+        }
+        boolean[][] held = new boolean[this.players][KEYS.length];
+        for (int tick = 0; tick < ticks; tick++) {
+            for (int player = 0; player < this.players; player++) {
+                if (random.nextDouble() < INPUT_RATE) {
+                    int key = random.nextInt(KEYS.length);
+                    held[player][key] = !held[player][key];
+                    replay.addInput(tick, player, KEYS[key], held[player][key]);
+                }
+            }
+        }
+        replay.setTicks(ticks);
+        return replay;
+    }
+
+    /**
+     * Play a match with one of the engines, hashing the world after every tick.
+     * @param replay Match to play
+     * @param reference true for the reference engine, false for the candidate
+     * @param hashes Receives the hash of every tick
+     */
+    private void play(ReplayFile replay, boolean reference, long[] hashes) {
+        this.game.setReference(reference);
+        if (DetonationResolver.getChainDelay() == 0) {
+            // Only the resolver sets off a whole chain reaction in one tick
+            DetonationResolver.setEnabled(true);
+        }
+        this.game.startReplay(replay);
+        this.game.init();
+        for (int tick = 0; this.game.stepReplay(); tick++) {
+            hashes[tick] = WorldHash.hash();
+        }
+    }
+
+    /**
+     * Play a match with both engines.
+     * @param replay Match to play
+     * @return First tick the engines disagree on, -1 if they agree on every tick
+     */
+    int findDivergence(ReplayFile replay) {
+        if (this.referenceHashes.length < replay.getTicks()) {
+            this.referenceHashes = new long[replay.getTicks()];
+            this.candidateHashes = new long[replay.getTicks()];
+        }
+        this.play(replay, true, this.referenceHashes);
+        this.play(replay, false, this.candidateHashes);
+        for (int tick = 0; tick < replay.getTicks(); tick++) {
+            if (this.referenceHashes[tick] != this.candidateHashes[tick]) {
+                return tick;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Check that the candidate engine plays a match the same way twice, without which divergences cannot be shrunk.
+     * @param replay Match to play
+     * @return true if both runs hash the same on every tick
+     */
+    boolean isRepeatable(ReplayFile replay) {
+        if (this.referenceHashes.length < replay.getTicks()) {
+            this.referenceHashes = new long[replay.getTicks()];
+            this.candidateHashes = new long[replay.getTicks()];
+        }
+        this.play(replay, false, this.referenceHashes);
+        this.play(replay, false, this.candidateHashes);
+        for (int tick = 0; tick < replay.getTicks(); tick++) {
+            if (this.referenceHashes[tick] != this.candidateHashes[tick]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Shrink a divergent match with delta debugging: drop ever smaller groups of key events for as long as the
+     * engines still diverge, and cut the match off at the divergence.
+     * @param replay Divergent match
+     * @param divergence First tick the engines disagree on
+     * @return Smallest divergent match found
+     */
+    ReplayFile shrink(ReplayFile replay, int divergence) {
+        int ticks = divergence + 1;
+        List<Integer> kept = new ArrayList<>();
+        for (int i = 0; i < replay.getInputs() && replay.getInputTick(i) < ticks; i++) {
+            kept.add(i);
+        }
+
+        int groups = 2;
+        while (!kept.isEmpty()) {
+            int size = (kept.size() + groups - 1) / groups;
+            boolean reduced = false;
+            for (int start = 0; start < kept.size(); start += size) {
+                List<Integer> rest = new ArrayList<>(kept.subList(0, start));
+                rest.addAll(kept.subList(Math.min(kept.size(), start + size), kept.size()));
+                int found = this.findDivergence(this.subset(replay, rest, ticks));
+                if (found >= 0) {
+                    ticks = found + 1;
+                    kept = rest;
+                    while (!kept.isEmpty() && replay.getInputTick(kept.get(kept.size() - 1)) >= ticks) {
+                        kept.remove(kept.size() - 1);
+                    }
+                    groups = Math.max(groups - 1, 2);
+                    reduced = true;
+                    break;
+                }
+            }
+            if (!reduced) {
+                if (size == 1) {
+                    break;
+                }
+                groups = Math.min(groups * 2, kept.size());
+            }
+        }
+        return this.subset(replay, kept, ticks);
+    }
+
+    /**
+     * Copy a match keeping only some of its key events.
+     * @param replay Match to copy
+     * @param inputs Indices of the key events to keep, in order
+     * @param ticks Length of the copy
+     * @return Copy of the match
+     */
+    private ReplayFile subset(ReplayFile replay, List<Integer> inputs, int ticks) {
+        ReplayFile copy = new ReplayFile(replay.getMap());
+        for (int i = 0; i < replay.getRounds(); i++) {
+            copy.addRound(replay.getRoundTick(i), replay.getSeed(i));
+        }
+        for (int i : inputs) {
+            copy.addInput(replay.getInputTick(i), replay.getPlayer(i), replay.getKey(i), replay.isPressed(i));
+        }
+        copy.setTicks(ticks);
+        return copy;
+    }
+
+    /**
+     * Describe the game objects the engines disagree on at the end of a match.
+     * @param replay Match that ends on the divergence
+     * @return Lines of the reference world starting with "-" and of the candidate world starting with "+"
+     */
+    List<String> describeDivergence(ReplayFile replay) {
+        long[] hashes = new long[replay.getTicks()];
+        this.play(replay, true, hashes);
+        List<String> reference = WorldHash.describe();
+        this.play(replay, false, hashes);
+        List<String> candidate = WorldHash.describe();
+
+        List<String> lines = new ArrayList<>();
+        for (String line : reference) {
+            if (!candidate.contains(line)) {
+                lines.add("- " + line);
+            }
+        }
+        for (String line : candidate) {
+            if (!reference.contains(line)) {
+                lines.add("+ " + line);
+            }
+        }
+        return lines;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: EngineDiff map matches [ticks per match] [first seed]");
+            return;
+        }
+        // Stat changes of every bomber would flood the output
+        if (System.getProperty(Log.LEVEL_PROPERTY) == null) {
+            System.setProperty(Log.LEVEL_PROPERTY, Log.Level.WARN.name());
+        }
+        String map = args[0].isEmpty() ? null : args[0];
+        int matches = Integer.parseInt(args[1]);
+        int ticks = (args.length > 2) ? Integer.parseInt(args[2]) : 3600;
+        long firstSeed = (args.length > 3) ? Long.parseLong(args[3]) : 1;
+
+        if (!SpriteCache.load(SpriteCache.DEFAULT_PATH)) {
+            SpriteCache.readResources();
+        }
+        EngineDiff diff = new EngineDiff(map);
+        int divergent = 0;
+        for (int delay : CHAIN_DELAYS) {
+            DetonationResolver.setChainDelay(delay);
+            if (!diff.isRepeatable(diff.generate(firstSeed, ticks))) {
+                System.out.printf("Candidate engine does not repeat itself with a chain delay of %d, matches cannot be compared%n", delay);
+                System.exit(2);
+            }
+
+            long start = System.nanoTime();
+            long inputs = 0;
+            int delayDivergent = 0;
+            for (long seed = firstSeed; seed < firstSeed + matches; seed++) {
+                ReplayFile replay = diff.generate(seed, ticks);
+                inputs += replay.getInputs();
+                int divergence = diff.findDivergence(replay);
+                if (divergence < 0) {
+                    continue;
+                }
+
+                delayDivergent++;
+                ReplayFile minimal = diff.shrink(replay, divergence);
+                // Replays do not record the chain delay, it has to be set again to play one back
+                String file = "divergence-" + seed + "-delay" + delay + ".replay";
+                minimal.write(file);
+                System.out.printf("Seed %d diverges on tick %d with a chain delay of %d, shrunk to %d key events over %d ticks: %s%n",
+                        seed, divergence, delay, minimal.getInputs(), minimal.getTicks(), file);
+                for (String line : diff.describeDivergence(minimal)) {
+                    System.out.println("    " + line);
+                }
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Chain delay %d%s: %d matches, %d key events, %d ticks per engine, %d divergent, %.1f s%n",
+                    delay, delay == 0 ? " (reference keeps the detonation resolver)" : "",
+                    matches, inputs, (long) matches * ticks, delayDivergent, seconds);
+            divergent += delayDivergent;
         }
+        System.out.println("Not covered: terrain bitsets (Terrain), both engines read the same walls");
+        System.exit(divergent == 0 ? 0 : 1);
     }
 
 }
-=======================================================================================================================
\ No newline at end of file
+===============================================================================================
\ No newline at end of file
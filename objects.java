@@ -1,7 +1,10 @@
 package gameobjects;
 
+import util.GameEvents;
 import util.GameObjectCollection;
+import util.Log;
 import util.ResourceCollection;
+import util.SpriteCache;
 
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
@@ -18,13 +21,14 @@ public class Bomb extends TileObject {
     // Animation
     private BufferedImage[][] sprites;
     private int spriteIndex;
-    private int spriteTimer;
+    private long litTick;   // Tick the fuse was lit on
 
     // Stats
     private int firepower;
     private boolean pierce;
     private int timeToDetonate;
-    private int timeElapsed;
+    private int chainDepth;     // Number of bombs that set this one off in a chain reaction
+    private boolean exploded;
 
     // Kicking bomb
     private boolean kicked;
@@ -39,20 +43,34 @@ public class Bomb extends TileObject {
      * @param bomber Original bomber that placed this bomb
      */
     public Bomb(Point2D.Float position, int firepower, boolean pierce, int timer, Bomber bomber) {
-        super(position, pierce ? ResourceCollection.SpriteMaps.BOMB_PIERCE.getSprites()[0][0] : ResourceCollection.SpriteMaps.BOMB.getSprites()[0][0]);
+        super(position, pierce ? SpriteCache.getSprites(ResourceCollection.SpriteMaps.BOMB_PIERCE)[0][0] : SpriteCache.getSprites(ResourceCollection.SpriteMaps.BOMB)[0][0]);
+        this.reset(firepower, pierce, timer, bomber);
+    }
+
+    /**
+     * Reuse a pooled bomb as if it was constructed with these values.
+     */
+    void reuse(Point2D.Float position, int firepower, boolean pierce, int timer, Bomber bomber) {
+        this.reuse(position);
+        this.reset(firepower, pierce, timer, bomber);
+    }
+
+    private void reset(int firepower, boolean pierce, int timer, Bomber bomber) {
         this.collider.setRect(this.position.x, this.position.y, this.width, this.height);
 
         // Animation
-        this.sprites = pierce ? ResourceCollection.SpriteMaps.BOMB_PIERCE.getSprites() : ResourceCollection.SpriteMaps.BOMB.getSprites();
+        this.sprites = pierce ? SpriteCache.getSprites(ResourceCollection.SpriteMaps.BOMB_PIERCE) : SpriteCache.getSprites(ResourceCollection.SpriteMaps.BOMB);
+        this.sprite = this.sprites[0][0];
         this.spriteIndex = 0;
-        this.spriteTimer = 0;
+        this.litTick = 0;
 
         // Stats
         this.firepower = firepower;
         this.pierce = pierce;
         this.timeToDetonate = timer;
         this.bomber = bomber;
-        this.timeElapsed = 0;
+        this.chainDepth = 0;
+        this.exploded = false;
         this.breakable = true;
 
         // Kicking bomb
@@ -60,15 +78,55 @@ public class Bomb extends TileObject {
         this.kickDirection = KickDirection.Nothing;
     }
 
+    /**
+     * Light the fuse once the bomb is spawned. The bomb detonates timeToDetonate + 1 ticks later, on the tick after
+     * its first timeToDetonate updates like when it counted its own ticks.
+     */
+    void light() {
+        this.litTick = TimerWheel.now();
+        TimerWheel.schedule(this, this.timeToDetonate + 1);
+    }
+
+    /**
+     * Fuse ran out.
+     */
+    @Override
+    void onTimer() {
+        this.destroy();
+    }
+
     /**
      * Bomb detonates upon destroy and creates explosions. Also replenishes ammo for original bomber.
      */
     private void explode() {
+        if (this.exploded) {
+            return;
+        }
+        this.exploded = true;
+        GameEvents.BombDetonation event = new GameEvents.BombDetonation();
+        event.begin();
+
         // Snap bombs to the grid on the map before exploding
         this.snapToGrid();
-        GameObjectCollection.spawn(new Explosion.Horizontal(this.position, this.firepower, this.pierce));
-        GameObjectCollection.spawn(new Explosion.Vertical(this.position, this.firepower, this.pierce));
+        Explosion horizontal = Pools.horizontal(this.position, this.firepower, this.pierce);
+        Explosion vertical = Pools.vertical(this.position, this.firepower, this.pierce);
+        horizontal.chainDepth = this.chainDepth;
+        vertical.chainDepth = this.chainDepth;
+        horizontal.owner = this.bomber;
+        vertical.owner = this.bomber;
+        GameObjectCollection.spawn(horizontal);
+        GameObjectCollection.spawn(vertical);
+        horizontal.start();
+        vertical.start();
         this.bomber.restoreAmmo();
+
+        // Set off other bombs caught in the explosions
+        DetonationResolver.detonated(this, horizontal, vertical);
+
+        event.firepower = this.firepower;
+        event.pierce = this.pierce;
+        event.chainDepth = this.chainDepth;
+        event.commit();
     }
 
     public void setKicked(boolean kicked, KickDirection kickDirection) {
@@ -80,6 +138,55 @@ public class Bomb extends TileObject {
         return this.kicked;
     }
 
+    int getChainDepth() {
+        return this.chainDepth;
+    }
+
+    void setChainDepth(int chainDepth) {
+        this.chainDepth = chainDepth;
+    }
+
+    /**
+     * Explode right away as part of a chain reaction. The bomb is removed from the game and the tile index by the
+     * update loop, so until then it still stops other explosions like any destroyed object.
+     */
+    void detonate() {
+        this.destroy();
+        this.explode();
+    }
+
+    /**
+     * Detonate within a number of ticks as part of a chain reaction.
+     * @param chainDepth Number of bombs that set this one off
+     * @param ticks Ticks until this bomb detonates at the latest
+     */
+    void shortenFuse(int chainDepth, int ticks) {
+        if (TimerWheel.remaining(this) > ticks) {
+            TimerWheel.schedule(this, ticks);
+            this.chainDepth = chainDepth;
+        }
+    }
+
+    Bomber getBomber() {
+        return this.bomber;
+    }
+
+    int getFirepower() {
+        return this.firepower;
+    }
+
+    boolean isPierce() {
+        return this.pierce;
+    }
+
+    /**
+     * Ticks left before this bomb detonates.
+     * @return Remaining fuse in ticks
+     */
+    int getTimeLeft() {
+        return (int) TimerWheel.remaining(this);
+    }
+
     public void stopKick() {
         this.kicked = false;
         this.kickDirection = KickDirection.Nothing;
@@ -87,37 +194,44 @@ public class Bomb extends TileObject {
     }
 
     /**
-     * Controls animation and detonation timer.
+     * Controls animation and kicked movement. Detonation is scheduled on the timer wheel.
      */
     @Override
     public void update() {
+        // Already exploded in a chain reaction, waiting to be removed
+        if (this.exploded) {
+            return;
+        }
         this.collider.setRect(this.position.x, this.position.y, this.width, this.height);
 
-        // Animate sprite
-        if (this.spriteTimer++ >= 4) {
-            this.spriteIndex++;
-            this.spriteTimer = 0;
-        }
-        if (this.spriteIndex >= this.sprites[0].length) {
-            this.spriteIndex = 0;
-        }
+        // Animate sprite, one frame every 5 ticks
+        this.spriteIndex = (int) ((TimerWheel.now() - this.litTick) / 5 % this.sprites[0].length);
         this.sprite = this.sprites[0][this.spriteIndex];
 
-        // Detonate after timeToDetonate
-        if (this.timeElapsed++ >= this.timeToDetonate) {
-            this.destroy();
-        }
-
-        // Continue traveling when kicked
+        // Continue traveling when kicked, stopping at the first wall, bomb, or bomber in the way
         if (this.kicked) {
-            this.position.setLocation(this.position.x + this.kickDirection.getVelocity().x,
-                    this.position.y + this.kickDirection.getVelocity().y);
+            Point2D.Float velocity = this.kickDirection.getVelocity();
+            float distance = Sweep.distance(this.collider, velocity.x, velocity.y, Sweep.BOMBS_ALWAYS_SOLID, this);
+            distance = Sweep.distanceToBombers(this.collider, velocity.x, velocity.y, distance);
+            float dx = Math.signum(velocity.x) * distance;
+            float dy = Math.signum(velocity.y) * distance;
+            this.position.setLocation(this.position.x + dx, this.position.y + dy);
+            this.collider.x += dx;
+            this.collider.y += dy;
+            if (Sweep.getLastHitBox() != null) {
+                this.stopKick();
+            }
+
+            // Keep the tile index in sync with the tile the bomb is traveling through
+            TileIndex.onMove(this, TileIndex.tileAt(this.getColliderCenter()));
         }
     }
 
     @Override
     public void onDestroy() {
+        TimerWheel.cancel(this);
         this.explode();
+        TileIndex.onDestroy(this);
     }
 
     @Override
@@ -135,7 +249,7 @@ public class Bomb extends TileObject {
         Point2D.Float temp = new Point2D.Float((float) this.collider.getCenterX() + this.kickDirection.getVelocity().x, (float) this.collider.getCenterY() + this.kickDirection.getVelocity().y);
         Rectangle2D intersection = this.collider.createIntersection(collidingObj.collider);
         if (this.kicked && intersection.contains(temp)) {
-            System.out.println("Stop kick called");
+            Log.debug("Stop kick").publish();
             this.stopKick();
             this.solidCollision(collidingObj);
             this.snapToGrid();
@@ -154,13 +268,32 @@ public class Bomb extends TileObject {
         this.stopKick();
     }
 
+    /**
+     * Kicked bombs destroy powerups in their way. Powerups sleep so the bomb handles the collision for them.
+     * @param collidingObj Powerup in the way
+     */
+    @Override
+    public void handleCollision(Powerup collidingObj) {
+        collidingObj.destroy();
+    }
+
     /**
      * Bombs are immediately destroyed when colliding with explosionContact.
      * This is a different behavior than powerups and walls since they are not destroyed until the explosionContact animation finishes.
+     * With a chain delay the bomb detonates that many ticks later instead, like the bombs the resolver sets off.
      * @param collidingObj Explosion that will detonate this bomb
      */
     @Override
     public void handleCollision(Explosion collidingObj) {
+        if (DetonationResolver.getChainDelay() > 0) {
+            if (!this.isDestroyed()) {
+                this.shortenFuse(collidingObj.chainDepth + 1, DetonationResolver.getChainDelay());
+            }
+            return;
+        }
+        if (!this.isDestroyed()) {
+            this.chainDepth = collidingObj.chainDepth + 1;
+        }
         this.destroy();
     }
 
@@ -169,11 +302,25 @@ public class Bomb extends TileObject {
         return this.breakable;
     }
 
+    @Override
+    long stateHash(long h) {
+        h = super.stateHash(h);
+        h = WorldHash.mix(h, this.spriteIndex);
+        h = WorldHash.mix(h, this.litTick);
+        h = WorldHash.mix(h, this.firepower);
+        h = WorldHash.mix(h, this.pierce ? 1 : 0);
+        h = WorldHash.mix(h, this.timeToDetonate);
+        h = WorldHash.mix(h, this.chainDepth);
+        h = WorldHash.mix(h, this.exploded ? 1 : 0);
+        h = WorldHash.mix(h, this.kicked ? 1 : 0);
+        return WorldHash.mix(h, this.kickDirection == null ? -1 : this.kickDirection.ordinal());
+    }
+
 }
 
 /**
- * Provides the speed for bomb moving from kick. Speed should be 6 to ensure the kicking logic is as smooth
- * as possible. Changing the value is dangerous and can introduce bugs to the kicking logic.
+ * Provides the speed for bomb moving from kick. Kicked bombs are swept against everything in their way, so the speed
+ * can be changed without bombs passing through walls or bombers.
  */
 enum KickDirection {
 
@@ -198,6 +345,7 @@ enum KickDirection {
 package gameobjects;
 
 import util.GameObjectCollection;
+import util.Log;
 
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
@@ -208,8 +356,16 @@ import java.awt.image.BufferedImage;
  */
 public class Bomber extends Player {
 
-    private Bomb bomb;
+    // Dying animation frames and how long the last frame stays before the bomber is removed
+    private static final int DYING_FRAME_TICKS = 31;
+    private static final int DEAD_TICKS = 250;
+
     private boolean dead;
+    private long deathTick;
+
+    // Round results
+    private int kills;
+    private int powerupsCollected;
 
     // Animation
     private BufferedImage[][] sprites;
@@ -254,19 +410,59 @@ public class Bomber extends Player {
     // --- MOVEMENT ---
     private void moveUp() {
         this.direction = 0;     // Using sprites that face up
-        this.position.setLocation(this.position.x, this.position.y - this.moveSpeed);
+        this.move(0, -this.moveSpeed, KickDirection.FromBottom);
     }
     private void moveDown() {
         this.direction = 1;     // Using sprites that face down
-        this.position.setLocation(this.position.x, this.position.y + this.moveSpeed);
+        this.move(0, this.moveSpeed, KickDirection.FromTop);
     }
     private void moveLeft() {
         this.direction = 2;     // Using sprites that face left
-        this.position.setLocation(this.position.x - this.moveSpeed, this.position.y);
+        this.move(-this.moveSpeed, 0, KickDirection.FromRight);
     }
     private void moveRight() {
         this.direction = 3;     // Using sprites that face right
-        this.position.setLocation(this.position.x + this.moveSpeed, this.position.y);
+        this.move(this.moveSpeed, 0, KickDirection.FromLeft);
+    }
+
+    /**
+     * Move along one axis up to the first wall or bomb in the way. Bombs only block when the bomber is lined up with
+     * them within 8 pixels, and are kicked instead if the bomber can kick. When only a corner is in the way the bomber
+     * slides around it like in solidCollision.
+     * @param dx Horizontal move, 0 when moving vertically
+     * @param dy Vertical move, 0 when moving horizontally
+     * @param kickDirection Direction a bomb in the way is kicked in
+     */
+    private void move(float dx, float dy, KickDirection kickDirection) {
+        float distance = Sweep.distance(this.collider, dx, dy, 8, this);
+        GameObject hit = Sweep.getLastHit();
+        Rectangle2D.Float hitBox = Sweep.getLastHitBox();
+        this.translate(Math.signum(dx) * distance, Math.signum(dy) * distance);
+        if (hitBox == null) {
+            return;
+        }
+
+        if (hit instanceof Bomb && this.kick && !((Bomb) hit).isKicked()) {
+            ((Bomb) hit).setKicked(true, kickDirection);
+        }
+
+        // Smoothing around corners
+        float overlap = dx != 0
+                ? Math.min(this.collider.y + this.collider.height, hitBox.y + hitBox.height) - Math.max(this.collider.y, hitBox.y)
+                : Math.min(this.collider.x + this.collider.width, hitBox.x + hitBox.width) - Math.max(this.collider.x, hitBox.x);
+        if (overlap < 16) {
+            float nudge = (dx != 0 ? this.collider.getCenterY() < hitBox.getCenterY() : this.collider.getCenterX() < hitBox.getCenterX()) ? -0.5f : 0.5f;
+            float nx = dx != 0 ? 0 : nudge;
+            float ny = dx != 0 ? nudge : 0;
+            float slide = Sweep.distance(this.collider, nx, ny, 8, this);
+            this.translate(Math.signum(nx) * slide, Math.signum(ny) * slide);
+        }
+    }
+
+    private void translate(float dx, float dy) {
+        this.position.setLocation(this.position.x + dx, this.position.y + dy);
+        this.collider.x += dx;
+        this.collider.y += dy;
     }
 
     // --- ACTION ---
@@ -276,17 +472,28 @@ public class Bomber extends Player {
         float y = Math.round((this.position.getY() + 16) / 32) * 32;
         Point2D.Float spawnLocation = new Point2D.Float(x, y);
 
-        // Only one tile object allowed per tile; Cannot place a bomb on another object
-        for (int i = 0; i < GameObjectCollection.tileObjects.size(); i++) {
-            GameObject obj = GameObjectCollection.tileObjects.get(i);
-            if (obj.collider.contains(spawnLocation)) {
-                return;
+        // Only one tile object allowed per tile; Cannot place a bomb on a wall or another object
+        int tileX = (int) x / 32;
+        int tileY = (int) y / 32;
+        if (Terrain.isWall(tileX, tileY)) {
+            return;
+        }
+        // Objects are indexed by their center, a kicked bomb passing by may be registered on a neighbouring tile
+        for (int ty = tileY - 1; ty <= tileY + 1; ty++) {
+            for (int tx = tileX - 1; tx <= tileX + 1; tx++) {
+                for (TileObject obj = TileIndex.get(tx, ty); obj != null; obj = obj.getNextInTile()) {
+                    if (obj.collider.contains(spawnLocation)) {
+                        return;
+                    }
+                }
             }
         }
 
         // Spawn the bomb
-        this.bomb = new Bomb(spawnLocation, this.firepower, this.pierce, this.bombTimer, this);
+        Bomb bomb = Pools.bomb(spawnLocation, this.firepower, this.pierce, this.bombTimer, this);
         GameObjectCollection.spawn(bomb);
+        TileIndex.onSpawn(bomb);
+        bomb.light();
         this.bombAmmo--;
     }
 
@@ -296,35 +503,35 @@ public class Bomber extends Player {
 
     // --- POWERUPS ---
     public void addAmmo(int value) {
-        System.out.print("Bombs set from " + this.maxBombs);
+        int previous = this.maxBombs;
         this.maxBombs = Math.min(6, this.maxBombs + value);
         this.restoreAmmo();
-        System.out.println(" to " + this.maxBombs);
+        Log.info("Bomber stat changed").field("stat", "bombs").field("from", previous).field("to", this.maxBombs).publish();
     }
     public void addFirepower(int value) {
-        System.out.print("Firepower set from " + this.firepower);
+        int previous = this.firepower;
         this.firepower = Math.min(6, this.firepower + value);
-        System.out.println(" to " + this.firepower);
+        Log.info("Bomber stat changed").field("stat", "firepower").field("from", previous).field("to", this.firepower).publish();
     }
     public void addSpeed(float value) {
-        System.out.print("Move Speed set from " + this.moveSpeed);
+        float previous = this.moveSpeed;
         this.moveSpeed = Math.min(4, this.moveSpeed + value);
-        System.out.println(" to " + this.moveSpeed);
+        Log.info("Bomber stat changed").field("stat", "moveSpeed").field("from", previous).field("to", this.moveSpeed).publish();
     }
     public void setPierce(boolean value) {
-        System.out.print("Pierce set from " + this.pierce);
+        boolean previous = this.pierce;
         this.pierce = value;
-        System.out.println(" to " + this.pierce);
+        Log.info("Bomber stat changed").field("stat", "pierce").field("from", previous).field("to", this.pierce).publish();
     }
     public void setKick(boolean value) {
-        System.out.print("Kick set from " + this.kick);
+        boolean previous = this.kick;
         this.kick = value;
-        System.out.println(" to " + this.kick);
+        Log.info("Bomber stat changed").field("stat", "kick").field("from", previous).field("to", this.kick).publish();
     }
     public void reduceTimer(int value) {
-        System.out.print("Bomb Timer set from " + this.bombTimer);
+        int previous = this.bombTimer;
         this.bombTimer = Math.max(160, this.bombTimer - value);
-        System.out.println(" to " + this.bombTimer);
+        Log.info("Bomber stat changed").field("stat", "bombTimer").field("from", previous).field("to", this.bombTimer).publish();
     }
 
     /**
@@ -335,6 +542,29 @@ public class Bomber extends Player {
         return this.sprites[1][0];
     }
 
+    // --- STATS ---
+    float getMoveSpeed() {
+        return this.moveSpeed;
+    }
+    int getFirepower() {
+        return this.firepower;
+    }
+    int getMaxBombs() {
+        return this.maxBombs;
+    }
+    int getBombAmmo() {
+        return this.bombAmmo;
+    }
+    int getBombTimer() {
+        return this.bombTimer;
+    }
+    boolean hasPierce() {
+        return this.pierce;
+    }
+    boolean hasKick() {
+        return this.kick;
+    }
+
     /**
      * Checks if this bomber is dead.
      * @return true = dead, false = not dead
@@ -343,6 +573,20 @@ public class Bomber extends Player {
         return this.dead;
     }
 
+    /**
+     * @return Number of other bombers killed by this bomber's explosions this round
+     */
+    public int getKills() {
+        return this.kills;
+    }
+
+    /**
+     * @return Number of powerups picked up by this bomber this round
+     */
+    public int getPowerupsCollected() {
+        return this.powerupsCollected;
+    }
+
     /**
      * Controls movement, action, and animation.
      */
@@ -361,6 +605,9 @@ public class Bomber extends Player {
             }
             this.sprite = this.sprites[this.direction][this.spriteIndex];
 
+            // Key events applied this tick take effect here
+            this.consumeInput();
+
             // Movement
             if (this.UpPressed) {
                 this.moveUp();
@@ -380,19 +627,23 @@ public class Bomber extends Player {
                 this.plantBomb();
             }
         } else {
-            // Animate dying animation
-            if (this.spriteTimer++ >= 30) {
-                this.spriteIndex++;
-                if (this.spriteIndex < this.sprites[4].length) {
-                    this.sprite = this.sprites[4][this.spriteIndex];
-                    this.spriteTimer = 0;
-                } else if (this.spriteTimer >= 250) {
-                    this.destroy();
-                }
+            // Animate dying animation, removal is scheduled on the timer wheel
+            int frame = (int) ((TimerWheel.now() - this.deathTick) / DYING_FRAME_TICKS);
+            if (frame > this.spriteIndex && frame < this.sprites[4].length) {
+                this.spriteIndex = frame;
+                this.sprite = this.sprites[4][this.spriteIndex];
             }
         }
     }
 
+    /**
+     * Dying animation finished.
+     */
+    @Override
+    void onTimer() {
+        this.destroy();
+    }
+
     @Override
     public void onCollisionEnter(GameObject collidingObj) {
         collidingObj.handleCollision(this);
@@ -404,14 +655,20 @@ public class Bomber extends Player {
     }
 
     /**
-     * Die immediately if not dead. This bomber is also killed.
+     * Die immediately if not dead. This bomber is also killed. The bomber that planted the bomb is credited with the
+     * kill unless it is this bomber.
      * @param collidingObj The explosion that kills this bomber
      */
     @Override
     public void handleCollision(Explosion collidingObj) {
         if (!this.dead) {
             this.dead = true;
+            if (collidingObj.owner != null && collidingObj.owner != this) {
+                collidingObj.owner.kills++;
+            }
             this.spriteIndex = 0;
+            this.deathTick = TimerWheel.now();
+            TimerWheel.schedule(this, DYING_FRAME_TICKS * (this.sprites[4].length - 1) + DEAD_TICKS);
         }
     }
 
@@ -463,20 +720,42 @@ public class Bomber extends Player {
     public void handleCollision(Powerup collidingObj) {
         collidingObj.grantBonus(this);
         collidingObj.destroy();
+        this.powerupsCollected++;
+    }
+
+    @Override
+    long stateHash(long h) {
+        h = super.stateHash(h);
+        h = WorldHash.mix(h, this.dead ? 1 : 0);
+        h = WorldHash.mix(h, this.deathTick);
+        h = WorldHash.mix(h, this.kills);
+        h = WorldHash.mix(h, this.powerupsCollected);
+        h = WorldHash.mix(h, this.direction);
+        h = WorldHash.mix(h, this.spriteIndex);
+        h = WorldHash.mix(h, this.spriteTimer);
+        h = WorldHash.mix(h, this.moveSpeed);
+        h = WorldHash.mix(h, this.firepower);
+        h = WorldHash.mix(h, this.maxBombs);
+        h = WorldHash.mix(h, this.bombAmmo);
+        h = WorldHash.mix(h, this.bombTimer);
+        h = WorldHash.mix(h, this.pierce ? 1 : 0);
+        return WorldHash.mix(h, this.kick ? 1 : 0);
     }
 
 }
 ======================================================================================================================
 package gameobjects;
 
-import util.GameObjectCollection;
+import util.GameEvents;
 import util.ResourceCollection;
+import util.SpriteCache;
 
 import java.awt.*;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 
 /**
  * Base class for two types of explosions: horizontal and vertical.
@@ -496,51 +775,47 @@ public abstract class Explosion extends GameObject {
          */
         Horizontal(Point2D.Float position, int firepower, boolean pierce) {
             super(position);
+            this.reset(firepower, pierce);
+        }
+
+        /**
+         * Reuse a pooled explosion as if it was constructed with these values.
+         */
+        void reuse(Point2D.Float position, int firepower, boolean pierce) {
+            this.reuse(position);
+            this.reset(firepower, pierce);
+        }
+
+        private void reset(int firepower, boolean pierce) {
+            GameEvents.ExplosionConstruction event = new GameEvents.ExplosionConstruction();
+            event.begin();
 
             float leftX = this.checkHorizontal(this.position, firepower, pierce, -32);
             float rightX = this.checkHorizontal(this.position, firepower, pierce, 32);
-            this.centerOffset = position.x - leftX; // The offset is used to draw the center explosionContact sprite
+            this.centerOffset = this.position.x - leftX; // The offset is used to draw the center explosionContact sprite
 
-            Rectangle2D.Float recH = new Rectangle2D.Float(leftX, this.position.y, rightX - leftX + 32, 32);
-            this.init(recH);
+            this.init(leftX, this.position.y, rightX - leftX + 32, 32);
 
             this.animation = this.drawSprite((int) this.width, (int) this.height);
 
             this.sprite = this.animation[0];
+
+            event.horizontal = true;
+            event.tiles = (int) ((rightX - leftX) / 32) + 1;
+            event.commit();
         }
 
         /**
-         * Check for walls to determine explosionContact range. Used for left and right.
+         * Check for walls to determine explosionContact range using the blast range cache. Used for left and right.
          * @param position Original position of bomb prior to explosionContact
          * @param firepower Maximum range of explosionContact
          * @param blockWidth Size of each game object tile, negative for left, positive for right
          * @return Position of the explosionContact's maximum range in horizontal direction
          */
         private float checkHorizontal(Point2D.Float position, int firepower, boolean pierce, int blockWidth) {
-            float value = position.x;   // Start at the origin tile
-
-            outer: for (int i = 1; i <= firepower; i++) {
-                // Expand one tile at a time
-                value += blockWidth;
-
-                // Check this tile for wall collision
-                for (int index = 0; index < GameObjectCollection.tileObjects.size(); index++) {
-                    TileObject obj = GameObjectCollection.tileObjects.get(index);
-                    if (obj.collider.contains(value, position.y)) {
-                        if (!obj.isBreakable()) {
-                            // Hard wall found, move value back to the tile before
-                            value -= blockWidth;
-                        }
-
-                        // Stop checking for tile objects after the first breakable is found
-                        if (!pierce) {
-                            break outer;
-                        }
-                    }
-                }
-            }
-
-            return value;
+            int direction = blockWidth < 0 ? BlastRange.LEFT : BlastRange.RIGHT;
+            int reach = BlastRange.reach(TileIndex.tileAt(position), direction, firepower, pierce);
+            return position.x + reach * blockWidth;
         }
 
         /**
@@ -551,10 +826,7 @@ public abstract class Explosion extends GameObject {
          */
         private BufferedImage[] drawSprite(int width, int height) {
             // Initialize each image in the array to be drawn to
-            BufferedImage[] spriteAnimation = new BufferedImage[ResourceCollection.SpriteMaps.EXPLOSION_SPRITEMAP.getImage().getWidth() / 32];
-            for (int i = 0; i < spriteAnimation.length; i++) {
-                spriteAnimation[i] = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-            }
+            BufferedImage[] spriteAnimation = this.animationImages(width, height);
 
             // Draw to each image in the array
             for (int i = 0; i < spriteAnimation.length; i++) {
@@ -599,51 +871,47 @@ public abstract class Explosion extends GameObject {
          */
         Vertical(Point2D.Float position, int firepower, boolean pierce) {
             super(position);
+            this.reset(firepower, pierce);
+        }
+
+        /**
+         * Reuse a pooled explosion as if it was constructed with these values.
+         */
+        void reuse(Point2D.Float position, int firepower, boolean pierce) {
+            this.reuse(position);
+            this.reset(firepower, pierce);
+        }
+
+        private void reset(int firepower, boolean pierce) {
+            GameEvents.ExplosionConstruction event = new GameEvents.ExplosionConstruction();
+            event.begin();
 
             float topY = this.checkVertical(this.position, firepower, pierce, -32);
             float bottomY = this.checkVertical(this.position, firepower, pierce, 32);
-            this.centerOffset = position.y - topY;  // The offset is used to draw the center explosionContact sprite
+            this.centerOffset = this.position.y - topY;  // The offset is used to draw the center explosionContact sprite
 
-            Rectangle2D.Float recV = new Rectangle2D.Float(this.position.x, topY, 32, bottomY - topY + 32);
-            this.init(recV);
+            this.init(this.position.x, topY, 32, bottomY - topY + 32);
 
             this.animation = this.drawSprite((int) this.width, (int) this.height);
 
             this.sprite = this.animation[0];
+
+            event.horizontal = false;
+            event.tiles = (int) ((bottomY - topY) / 32) + 1;
+            event.commit();
         }
 
         /**
-         * Check for walls to determine explosionContact range. Used for top and bottom.
+         * Check for walls to determine explosionContact range using the blast range cache. Used for top and bottom.
          * @param position Original position of bomb prior to explosionContact
          * @param firepower Maximum range of explosionContact
          * @param blockHeight Size of each game object tile, negative for top, positive for bottom
          * @return Position of the explosionContact's maximum range in vertical direction
          */
         private float checkVertical(Point2D.Float position, int firepower, boolean pierce, int blockHeight) {
-            float value = position.y;   // Start at the origin tile
-
-            outer: for (int i = 1; i <= firepower; i++) {
-                // Expand one tile at a time
-                value += blockHeight;
-
-                // Check this tile for wall collision
-                for (int index = 0; index < GameObjectCollection.tileObjects.size(); index++) {
-                    TileObject obj = GameObjectCollection.tileObjects.get(index);
-                    if (obj.collider.contains(position.x, value)) {
-                        if (!obj.isBreakable()) {
-                            // Hard wall found, move value back to the tile before
-                            value -= blockHeight;
-                        }
-
-                        // Stop checking for tile objects after the first breakable is found
-                        if (!pierce) {
-                            break outer;
-                        }
-                    }
-                }
-            }
-
-            return value;
+            int direction = blockHeight < 0 ? BlastRange.UP : BlastRange.DOWN;
+            int reach = BlastRange.reach(TileIndex.tileAt(position), direction, firepower, pierce);
+            return position.y + reach * blockHeight;
         }
 
         /**
@@ -654,10 +922,7 @@ public abstract class Explosion extends GameObject {
          */
         private BufferedImage[] drawSprite(int width, int height) {
             // Initialize each image in the array to be drawn to
-            BufferedImage[] spriteAnimation = new BufferedImage[ResourceCollection.SpriteMaps.EXPLOSION_SPRITEMAP.getImage().getWidth() / 32];
-            for (int i = 0; i < spriteAnimation.length; i++) {
-                spriteAnimation[i] = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
-            }
+            BufferedImage[] spriteAnimation = this.animationImages(width, height);
 
             // Draw to each image in the array
             for (int i = 0; i < spriteAnimation.length; i++) {
@@ -692,11 +957,15 @@ public abstract class Explosion extends GameObject {
 
     // --- BASE CLASS ---
 
+    private static final int FRAME_TICKS = 5;
+
     protected BufferedImage[][] sprites;
     protected BufferedImage[] animation;
     protected float centerOffset;
-    private int spriteIndex;
-    private int spriteTimer;
+    int chainDepth;     // Chain depth of the bomb that created this explosion
+    Bomber owner;       // Bomber that planted the bomb, credited with kills
+    private ArrayList<TileObject> contacts = new ArrayList<>();     // Sleeping tile objects this explosion destroys
+    private long startTick;
 
     /**
      * Constructor called in horizontal and vertical constructors.
@@ -704,38 +973,140 @@ public abstract class Explosion extends GameObject {
      */
     Explosion(Point2D.Float position) {
         super(position);
-        this.sprites = ResourceCollection.SpriteMaps.EXPLOSION_SPRITEMAP.getSprites();
+        this.sprites = SpriteCache.getSprites(ResourceCollection.SpriteMaps.EXPLOSION_SPRITEMAP);
 
         this.centerOffset = 0;
-        this.spriteIndex = 0;
-        this.spriteTimer = 0;
+        this.startTick = 0;
+    }
+
+    @Override
+    void reuse(Point2D.Float position) {
+        super.reuse(position);
+        this.contacts.clear();
+        this.centerOffset = 0;
+        this.chainDepth = 0;
+        this.owner = null;
+        this.startTick = 0;
+    }
+
+    /**
+     * Start the animation once this explosion is spawned. It lasts 5 ticks per frame, counting the tick it starts on,
+     * and the end of its life is scheduled on the timer wheel. Soft walls it covers start burning.
+     */
+    void start() {
+        Terrain.burn(this.collider);
+        this.startTick = TimerWheel.now();
+        TimerWheel.schedule(this, FRAME_TICKS * this.animation.length - 1);
+    }
+
+    /**
+     * Animation finished.
+     */
+    @Override
+    void onTimer() {
+        this.destroy();
     }
 
     /**
-     * Called later in the constructor to set collider.
-     * @param collider Collider for this to be set to
+     * Called later in the constructor to set collider. The sprite is set once the animation is drawn.
+     * @param x Left of the collider
+     * @param y Top of the collider
+     * @param width Width of the collider
+     * @param height Height of the collider
      */
-    protected void init(Rectangle2D.Float collider) {
-        this.collider = collider;
-        this.width = this.collider.width;
-        this.height = this.collider.height;
-        this.sprite = new BufferedImage((int) this.width, (int) this.height, BufferedImage.TYPE_INT_ARGB);
+    protected void init(float x, float y, float width, float height) {
+        if (this.collider == null) {
+            this.collider = new Rectangle2D.Float();
+        }
+        this.collider.setRect(x, y, width, height);
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Get images to draw the animation to. A reused explosion of the same size clears and draws over its old images.
+     * @param width Explosion width
+     * @param height Explosion height
+     * @return Array of transparent images, one for each animation frame
+     */
+    protected BufferedImage[] animationImages(int width, int height) {
+        if (this.animation != null && this.animation[0].getWidth() == width && this.animation[0].getHeight() == height) {
+            for (BufferedImage image : this.animation) {
+                Graphics2D g2 = image.createGraphics();
+                g2.setComposite(AlphaComposite.Clear);
+                g2.fillRect(0, 0, width, height);
+                g2.dispose();
+            }
+            return this.animation;
+        }
+
+        BufferedImage[] images = new BufferedImage[this.sprites[0].length];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        }
+        return images;
     }
 
     /**
-     * Controls animation and destroy when it finishes
+     * Controls animation. Destroy when it finishes is scheduled on the timer wheel.
      */
     @Override
     public void update() {
-        // Animate sprite
-        if (this.spriteTimer++ >= 4) {
-            this.spriteIndex++;
-            this.spriteTimer = 0;
+        int frame = (int) ((TimerWheel.now() - this.startTick + 1) / FRAME_TICKS);
+        if (frame < this.animation.length) {
+            this.sprite = this.animation[frame];
         }
-        if (this.spriteIndex >= this.animation.length) {
-            this.destroy();
-        } else {
-            this.sprite = this.animation[this.spriteIndex];
+    }
+
+    /**
+     * Notify the tile objects caught in this explosion that the animation finished.
+     */
+    @Override
+    public void onDestroy() {
+        TimerWheel.cancel(this);
+        for (int i = 0; i < this.contacts.size(); i++) {
+            this.contacts.get(i).onExplosionFinished(this);
+        }
+        this.contacts.clear();
+    }
+
+    /**
+     * With the detonation resolver off and a chain delay, a bomb in this explosion detonates that many ticks later.
+     * The bomb also handles the explosion itself, but this sets it off on the tick the explosion starts whichever of
+     * the two is updated first, like the resolver does.
+     * @param collidingObj Bomb in this explosion
+     */
+    @Override
+    public void handleCollision(Bomb collidingObj) {
+        if (DetonationResolver.isEnabled() || DetonationResolver.getChainDelay() == 0) {
+            return;
+        }
+        if (!collidingObj.isDestroyed()) {
+            collidingObj.shortenFuse(this.chainDepth + 1, DetonationResolver.getChainDelay());
+        }
+    }
+
+    @Override
+    public void handleCollision(Wall collidingObj) {
+        this.wake(collidingObj);
+    }
+
+    @Override
+    public void handleCollision(Powerup collidingObj) {
+        this.wake(collidingObj);
+    }
+
+    /**
+     * Sleeping tile objects do not look for their own collisions, so the explosion hands itself to them and
+     * remembers them to notify once it finishes. Tile objects that are kept active check when it finishes themselves.
+     * @param obj Tile object in contact with this explosion
+     */
+    private void wake(TileObject obj) {
+        if (obj.explosionContact == null) {
+            obj.handleCollision(this);
+            if (obj.explosionContact == this && !obj.isActive()) {
+                this.contacts.add(obj);
+            }
         }
     }
 
@@ -756,6 +1127,24 @@ public abstract class Explosion extends GameObject {
         g2d.drawImage(this.sprite, rotation, null);
     }
 
+    @Override
+    boolean rasterize(BandRenderer renderer) {
+        if (this.rotation != 0) {
+            return false;
+        }
+        renderer.addRepainted(this.sprite, this.collider.x, this.collider.y);
+        return true;
+    }
+
+    @Override
+    long stateHash(long h) {
+        h = super.stateHash(h);
+        h = WorldHash.mix(h, this.centerOffset);
+        h = WorldHash.mix(h, this.chainDepth);
+        h = WorldHash.mix(h, this.startTick);
+        return WorldHash.mix(h, this.animation.length);
+    }
+
 }
 ======================================================================================================================
 package gameobjects;
@@ -783,6 +1172,12 @@ public abstract class GameObject implements Observable, Collidable, Comparable<G
     // Marked for deletion
     private boolean destroyed;
 
+    // Timer wheel entry, see TimerWheel
+    long timerDeadline;
+    int timerSlot = -1;
+    GameObject timerNext;
+    GameObject timerPrevious;
+
     /**
      * Creates a new position for this game object at position. Used for objects with no predefined sprite such as explosionContact.
      * @param position Position of this game object
@@ -814,6 +1209,24 @@ public abstract class GameObject implements Observable, Collidable, Comparable<G
         this.height = this.sprite.getHeight();
     }
 
+    /**
+     * Clear the state of a pooled game object before it is used again. Subclasses reset their own state on top of this.
+     * @param position New position of this game object
+     */
+    void reuse(Point2D.Float position) {
+        TimerWheel.cancel(this);
+        this.position.setLocation(position.x, position.y);
+        this.rotation = 0;
+        this.destroyed = false;
+    }
+
+    /**
+     * Called by the timer wheel on the tick the timer scheduled for this game object runs out.
+     */
+    void onTimer() {
+
+    }
+
     /**
      * Mark this game object for deletion.
      */
@@ -821,6 +1234,15 @@ public abstract class GameObject implements Observable, Collidable, Comparable<G
         this.destroyed = true;
     }
 
+    /**
+     * Check if this game object needs to be updated and look for its own collisions every tick. Sleeping objects are
+     * skipped by the game loop until they are destroyed, and other objects handle collisions with them.
+     * @return true = active, false = sleeping
+     */
+    public boolean isActive() {
+        return true;
+    }
+
     /**
      * Check if this game object is destroyed.
      * @return If this game object is destroyed or not
@@ -916,6 +1338,37 @@ public abstract class GameObject implements Observable, Collidable, Comparable<G
         g2d.drawImage(this.sprite, rotation, null);
     }
 
+    /**
+     * Add the game object to the draw list of the band renderer where drawImage would draw it.
+     * @param renderer Band renderer building its draw list
+     * @return false if the sprite is rotated, which the band renderer cannot draw
+     */
+    boolean rasterize(BandRenderer renderer) {
+        if (this.rotation != 0) {
+            return false;
+        }
+        renderer.add(this.sprite, this.position.x, this.position.y);
+        return true;
+    }
+
+    /**
+     * Add the state of this game object to a hash of the game world. Subclasses add their own state on top of this.
+     * @param h Hash so far
+     * @return Hash including this game object
+     */
+    long stateHash(long h) {
+        h = WorldHash.mix(h, this.getClass().getName().hashCode());
+        h = WorldHash.mix(h, this.position.x);
+        h = WorldHash.mix(h, this.position.y);
+        h = WorldHash.mix(h, this.collider.x);
+        h = WorldHash.mix(h, this.collider.y);
+        h = WorldHash.mix(h, this.collider.width);
+        h = WorldHash.mix(h, this.collider.height);
+        h = WorldHash.mix(h, this.rotation);
+        h = WorldHash.mix(h, this.destroyed ? 1 : 0);
+        return WorldHash.mix(h, TimerWheel.isScheduled(this) ? this.timerDeadline : -1);
+    }
+
     /**
      * Draw the game object's collider to the game world for debugging.
      * @param g Graphics object that is passed in for the game object to draw to
@@ -997,11 +1450,15 @@ interface Collidable {
 ===============================================================================================
 package gameobjects;
 
+import util.Key;
+
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
 
 /**
  * Player class for game objects that will be controlled by the user.
+ * Key events are applied on the game thread at the start of each tick. A key tapped and released within one tick
+ * still counts as pressed for that tick.
  */
 public abstract class Player extends GameObject {
 
@@ -1011,6 +1468,15 @@ public abstract class Player extends GameObject {
     protected boolean RightPressed = false;
     protected boolean ActionPressed = false;
 
+    // One bit for each key
+    private int heldKeys = 0;
+    private int tappedKeys = 0;
+
+    // Time of the earliest key event not yet acted on, and of the earliest one acted on but not yet drawn
+    private static final long NO_INPUT = Long.MIN_VALUE;
+    private long pendingInputTime = NO_INPUT;
+    private long consumedInputTime = NO_INPUT;
+
     /**
      * Passing parameters to GameObject constructor.
      * @param position
@@ -1020,48 +1486,79 @@ public abstract class Player extends GameObject {
         super(position, sprite);
     }
 
-    public void toggleUpPressed() {
-        this.UpPressed = true;
-    }
-    public void toggleDownPressed() {
-        this.DownPressed = true;
-    }
-    public void toggleLeftPressed() {
-        this.LeftPressed = true;
-    }
-    public void toggleRightPressed() {
-        this.RightPressed = true;
-    }
-    public void toggleActionPressed() {
-        this.ActionPressed = true;
+    /**
+     * Key pressed since the last tick.
+     * @param key Action of the key
+     * @param time System.nanoTime when the key event was received
+     */
+    public void press(Key key, long time) {
+        this.heldKeys |= 1 << key.ordinal();
+        this.tappedKeys |= 1 << key.ordinal();
+        this.stampInput(time);
     }
 
-    public void unToggleUpPressed() {
-        this.UpPressed = false;
-    }
-    public void unToggleDownPressed() {
-        this.DownPressed = false;
-    }
-    public void unToggleLeftPressed() {
-        this.LeftPressed = false;
-    }
-    public void unToggleRightPressed() {
-        this.RightPressed = false;
+    /**
+     * Key released since the last tick.
+     * @param key Action of the key
+     * @param time System.nanoTime when the key event was received
+     */
+    public void release(Key key, long time) {
+        this.heldKeys &= ~(1 << key.ordinal());
+        this.stampInput(time);
     }
-    public void unToggleActionPressed() {
-        this.ActionPressed = false;
+
+    private void stampInput(long time) {
+        if (this.pendingInputTime == NO_INPUT) {
+            this.pendingInputTime = time;
+        }
     }
 
-}
+    /**
+     * Called by subclasses in update when the pressed keys are acted on, carrying the key event time forward to the
+     * frame that shows the result.
+     */
+    protected void consumeInput() {
+        if (this.pendingInputTime != NO_INPUT) {
+            if (this.consumedInputTime == NO_INPUT) {
+                this.consumedInputTime = this.pendingInputTime;
+            }
+            this.pendingInputTime = NO_INPUT;
+        }
+    }
+
+    /**
+     * Take the time of the earliest key event acted on since the last call.
+     * @return System.nanoTime of the key event, or Long.MIN_VALUE when no input was acted on
+     */
+    public long takeConsumedInput() {
+        long time = this.consumedInputTime;
+        this.consumedInputTime = NO_INPUT;
+        return time;
+    }
+
+    /**
+     * Update the pressed keys for this tick from the keys held and tapped since the last tick.
+     */
+    public void applyInput() {
+        int keys = this.heldKeys | this.tappedKeys;
+        this.tappedKeys = 0;
+        this.UpPressed = (keys & 1 << Key.up.ordinal()) != 0;
+        this.DownPressed = (keys & 1 << Key.down.ordinal()) != 0;
+        this.LeftPressed = (keys & 1 << Key.left.ordinal()) != 0;
+        this.RightPressed = (keys & 1 << Key.right.ordinal()) != 0;
+        this.ActionPressed = (keys & 1 << Key.action.ordinal()) != 0;
+    }
+
+}
 =============================================================================================================
 package gameobjects;
 
 import util.ResourceCollection;
+import util.SpriteCache;
 
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 import java.awt.image.BufferedImage;
-import java.util.Random;
 
 /**
  * Powerups with predefined types that spawn from breakable walls at random.
@@ -1071,7 +1568,7 @@ public class Powerup extends TileObject {
 
     public enum Type {
         // Additional bomb ammo
-        Bomb(ResourceCollection.Images.POWER_BOMB.getImage()) {
+        Bomb(ResourceCollection.Images.POWER_BOMB) {
             @Override
             protected void grantBonus(Bomber bomber) {
                 bomber.addAmmo(1);
@@ -1079,7 +1576,7 @@ public class Powerup extends TileObject {
         },
 
         // Increases firepower
-        Fireup(ResourceCollection.Images.POWER_FIREUP.getImage()) {
+        Fireup(ResourceCollection.Images.POWER_FIREUP) {
             @Override
             protected void grantBonus(Bomber bomber) {
                 bomber.addFirepower(1);
@@ -1087,7 +1584,7 @@ public class Powerup extends TileObject {
         },
 
         // Increases firepower to max
-        Firemax(ResourceCollection.Images.POWER_FIREMAX.getImage()) {
+        Firemax(ResourceCollection.Images.POWER_FIREMAX) {
             @Override
             protected void grantBonus(Bomber bomber) {
                 bomber.addFirepower(6);
@@ -1095,7 +1592,7 @@ public class Powerup extends TileObject {
         },
 
         // Increases speed
-        Speed(ResourceCollection.Images.POWER_SPEED.getImage()) {
+        Speed(ResourceCollection.Images.POWER_SPEED) {
             @Override
             protected void grantBonus(Bomber bomber) {
                 bomber.addSpeed(0.5f);
@@ -1103,7 +1600,7 @@ public class Powerup extends TileObject {
         },
 
         // Adds ability for explosions to pierce soft walls
-        Pierce(ResourceCollection.Images.POWER_PIERCE.getImage()) {
+        Pierce(ResourceCollection.Images.POWER_PIERCE) {
             @Override
             protected void grantBonus(Bomber bomber) {
                 bomber.setPierce(true);
@@ -1111,7 +1608,7 @@ public class Powerup extends TileObject {
         },
 
         // Adds ability to kick bombs
-        Kick(ResourceCollection.Images.POWER_KICK.getImage()) {
+        Kick(ResourceCollection.Images.POWER_KICK) {
             @Override
             protected void grantBonus(Bomber bomber) {
                 bomber.setKick(true);
@@ -1119,21 +1616,29 @@ public class Powerup extends TileObject {
         },
 
         // Reduces time for bomb to detonate
-        Timer(ResourceCollection.Images.POWER_TIMER.getImage()) {
+        Timer(ResourceCollection.Images.POWER_TIMER) {
             @Override
             protected void grantBonus(Bomber bomber) {
                 bomber.reduceTimer(15);
             }
         };
 
+        private ResourceCollection.Images image;
         private BufferedImage sprite;
 
         /**
-         * Sets the sprite of the powerup type.
-         * @param sprite Powerup sprite
+         * Sets the image of the powerup type. The sprite is loaded when the first powerup of this type spawns.
+         * @param image Powerup image
          */
-        Type(BufferedImage sprite) {
-            this.sprite = sprite;
+        Type(ResourceCollection.Images image) {
+            this.image = image;
+        }
+
+        private BufferedImage getSprite() {
+            if (this.sprite == null) {
+                this.sprite = SpriteCache.getImage(this.image);
+            }
+            return this.sprite;
         }
 
         /**
@@ -1152,17 +1657,28 @@ public class Powerup extends TileObject {
      * @param type Type of powerup
      */
     public Powerup(Point2D.Float position, Type type) {
-        super(position, type.sprite);
+        super(position, type.getSprite());
         this.collider = new Rectangle2D.Float(position.x + 8, position.y + 8, this.width - 16, this.height - 16);
         this.type = type;
         this.breakable = true;
     }
 
+    /**
+     * Reuse a pooled powerup as if it was constructed with these values.
+     */
+    void reuse(Point2D.Float position, Type type) {
+        this.reuse(position);
+        this.sprite = type.getSprite();
+        this.width = this.sprite.getWidth();
+        this.height = this.sprite.getHeight();
+        this.collider.setRect(position.x + 8, position.y + 8, this.width - 16, this.height - 16);
+        this.type = type;
+    }
+
     // Random powerups
     private static Powerup.Type[] powerups = Powerup.Type.values();
-    private static Random random = new Random();
     static final Powerup.Type randomPower() {
-        return powerups[random.nextInt(powerups.length)];
+        return powerups[MatchRandom.nextInt(powerups.length)];
     }
 
     /**
@@ -1173,14 +1689,25 @@ public class Powerup extends TileObject {
         this.type.grantBonus(bomber);
     }
 
+    Type getType() {
+        return this.type;
+    }
+
     /**
-     * Destroy powerup when explosion animation finishes.
+     * Powerups sleep until they are collected or caught in an explosion.
+     * @return false unless tile objects are kept active
      */
     @Override
-    public void update() {
-        if (this.checkExplosion()) {
-            this.destroy();
-        }
+    public boolean isActive() {
+        return !TileObject.isSleeping();
+    }
+
+    /**
+     * Remove this powerup from the tile index once it is collected or destroyed.
+     */
+    @Override
+    public void onDestroy() {
+        TileIndex.onDestroy(this);
     }
 
     @Override
@@ -1189,13 +1716,13 @@ public class Powerup extends TileObject {
     }
 
     @Override
-    public void handleCollision(Bomb collidingObj) {
-        this.destroy();
+    public boolean isBreakable() {
+        return this.breakable;
     }
 
     @Override
-    public boolean isBreakable() {
-        return this.breakable;
+    long stateHash(long h) {
+        return WorldHash.mix(super.stateHash(h), this.type.ordinal());
     }
 
 }
@@ -1204,6 +1731,7 @@ package gameobjects;
 
 import java.awt.geom.Point2D;
 import java.awt.image.BufferedImage;
+import java.util.ArrayList;
 
 /**
  * Bombs, walls, powerups; stationary objects that take up a tile on the map and may be destructible by explosions.
@@ -1215,6 +1743,16 @@ public abstract class TileObject extends GameObject {
     protected Explosion explosionContact;
     protected boolean breakable;
 
+    // Tile this object is registered on in the tile index, and the next object registered on the same tile
+    int tile = -1;
+    TileObject nextInTile;
+
+    // Whether walls and powerups sleep until an explosion wakes them
+    private static boolean sleeping = true;
+
+    // Sleeping tile objects whose explosion finished, destroyed at the start of the next tick
+    private static final ArrayList<TileObject> burnedOut = new ArrayList<>();
+
     /**
      * Construct a tile-based object that is aligned with the grid-based map.
      * @param position Coordinates of this object in the game world
@@ -1225,6 +1763,66 @@ public abstract class TileObject extends GameObject {
         this.snapToGrid();
     }
 
+    @Override
+    void reuse(Point2D.Float position) {
+        super.reuse(position);
+        this.explosionContact = null;
+        this.tile = -1;
+        this.nextInTile = null;
+        this.snapToGrid();
+    }
+
+    /**
+     * Let walls and powerups sleep, or keep them active so they look for their own collisions and check every tick
+     * whether the explosion in contact with them finished. Active tile objects are the reference that sleeping is
+     * checked against.
+     * @param on true to let walls and powerups sleep
+     */
+    public static void setSleeping(boolean on) {
+        sleeping = on;
+    }
+
+    static boolean isSleeping() {
+        return sleeping;
+    }
+
+    /**
+     * Destroy the sleeping tile objects whose explosion finished on the last tick. Called by the game loop at the start
+     * of every tick, which is when an active tile object updated after the explosion would find it finished.
+     */
+    public static void burnOut() {
+        for (int i = 0; i < burnedOut.size(); i++) {
+            burnedOut.get(i).destroy();
+        }
+        burnedOut.clear();
+    }
+
+    /**
+     * Forget the tile objects waiting to burn out. Called by the tile index when a new map is generated.
+     */
+    static void clearBurnedOut() {
+        burnedOut.clear();
+    }
+
+    /**
+     * Only called when this object is kept active. Destroys this object once the explosion in contact with it
+     * finished, instead of being notified by the explosion.
+     */
+    @Override
+    public void update() {
+        if (this.isBreakable() && this.explosionContact != null && this.explosionContact.isDestroyed()) {
+            this.destroy();
+        }
+    }
+
+    /**
+     * Get the next object registered on the same tile in the tile index.
+     * @return Next tile object on this tile, null if this is the last one
+     */
+    public TileObject getNextInTile() {
+        return this.nextInTile;
+    }
+
     /**
      * Check if this object is allowed to be destroyed by other objects.
      * @return true = breakable, false = unbreakable
@@ -1232,12 +1830,14 @@ public abstract class TileObject extends GameObject {
     public abstract boolean isBreakable();
 
     /**
-     * Checks if the explosion that is in contact with this object has been destroyed.
-     * Used to destroy this object the moment the explosion animation finishes.
-     * @return true = explosion animation finished, false = explosion is still animating
+     * Called by the explosion in contact with this object when its animation finishes.
+     * Used to destroy this object at the start of the next tick.
+     * @param explosion Explosion that finished
      */
-    protected boolean checkExplosion() {
-        return this.isBreakable() && this.explosionContact != null && this.explosionContact.isDestroyed();
+    void onExplosionFinished(Explosion explosion) {
+        if (this.isBreakable() && this.explosionContact == explosion) {
+            burnedOut.add(this);
+        }
     }
 
     /**
@@ -1263,6 +1863,14 @@ public abstract class TileObject extends GameObject {
         }
     }
 
+    @Override
+    long stateHash(long h) {
+        h = super.stateHash(h);
+        h = WorldHash.mix(h, this.explosionContact != null ? 1 : 0);
+        h = WorldHash.mix(h, this.breakable ? 1 : 0);
+        return WorldHash.mix(h, this.tile);
+    }
+
 }
 ===============================================================================================
 package gameobjects;
@@ -1274,6 +1882,7 @@ import java.awt.image.BufferedImage;
 
 /**
  * The base class for various types of walls. Namely hard wall and soft wall.
+ * Standing walls are stored in Terrain, a soft wall only becomes a wall object while it burns.
  */
 public class Wall extends TileObject {
 
@@ -1289,13 +1898,12 @@ public class Wall extends TileObject {
     }
 
     /**
-     * Destroy wall when explosionContact animation finishes.
+     * Walls sleep until they are caught in an explosion, which destroys them when its animation finishes.
+     * @return false unless tile objects are kept active
      */
     @Override
-    public void update() {
-        if (this.checkExplosion()) {
-            this.destroy();
-        }
+    public boolean isActive() {
+        return !TileObject.isSleeping();
     }
 
     /**
@@ -1303,10 +1911,13 @@ public class Wall extends TileObject {
      */
     @Override
     public void onDestroy() {
-        double random = Math.random();
+        TileIndex.onDestroy(this);
+
+        double random = MatchRandom.nextDouble();
         if (random < 0.5) {
-            Powerup powerup = new Powerup(this.position, Powerup.randomPower());
+            Powerup powerup = Pools.powerup(this.position, Powerup.randomPower());
             GameObjectCollection.spawn(powerup);
+            TileIndex.onSpawn(powerup);
         }
     }
 
@@ -1325,4 +1936,3954 @@ public class Wall extends TileObject {
     }
 
 }
-=======================================================================================================
\ No newline at end of file
+=======================================================================================================
+package gameobjects;
+
+import util.Key;
+
+import java.util.HashMap;
+
+/**
+ * Shared distance fields over the tile grid used for pathfinding by bots.
+ * One field is kept per target class (nearest powerup, nearest soft wall, each bomber) so that any number of bots
+ * can look up their next step in constant time instead of running their own search every tick.
+ * Fields are updated incrementally when a tile becomes walkable and rebuilt lazily when a tile becomes solid.
+ */
+public class FlowField {
+
+    private static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    // Walkability shared by every field
+    private static int mapWidth;
+    private static int mapHeight;
+    private static boolean[] solid;
+
+    // One field per target class
+    private static FlowField nearestPowerup;
+    private static FlowField nearestSoftWall;
+    private static HashMap<Bomber, FlowField> bomberFields;
+
+    private int[] distance;
+    private int[] sources;      // Number of targets occupying each tile
+    private int[] queue;
+    private boolean dirty;
+    private int bomberTile;     // Only used by bomber fields
+
+    private FlowField() {
+        this.distance = new int[mapWidth * mapHeight];
+        this.sources = new int[mapWidth * mapHeight];
+        this.queue = new int[mapWidth * mapHeight];
+        this.dirty = true;
+        this.bomberTile = -1;
+    }
+
+    /**
+     * Reset every field for a newly generated map. Called by the tile index before any tile objects are spawned.
+     * @param width Map width in tiles
+     * @param height Map height in tiles
+     */
+    static void init(int width, int height) {
+        mapWidth = width;
+        mapHeight = height;
+        solid = new boolean[width * height];
+        nearestPowerup = new FlowField();
+        nearestSoftWall = new FlowField();
+        bomberFields = new HashMap<>();
+    }
+
+    /**
+     * Register a tile object that was just spawned and update walkability and targets.
+     * @param obj Wall, bomb, or powerup that was spawned
+     * @param tile Tile index the object was spawned on
+     */
+    static void onSpawn(TileObject obj, int tile) {
+        addTile(tile, obj instanceof Powerup, obj instanceof Wall && obj.isBreakable());
+    }
+
+    /**
+     * Register terrain on a tile without a live game object, such as standing walls and tiles of chunks that are not
+     * paged in.
+     * @param tile Tile index
+     * @param powerup Whether the tile holds a powerup, otherwise it is solid
+     * @param softWall Whether the tile holds a soft wall
+     */
+    static void addTile(int tile, boolean powerup, boolean softWall) {
+        if (solid == null) {
+            return;
+        }
+
+        if (powerup) {
+            nearestPowerup.addSource(tile);
+        } else {
+            if (softWall) {
+                nearestSoftWall.addSource(tile);
+            }
+            setSolid(tile, true);
+        }
+    }
+
+    /**
+     * Unregister a tile object that was destroyed and update walkability and targets.
+     * @param obj Wall, bomb, or powerup that was destroyed
+     * @param tile Tile index the object was registered on
+     */
+    static void onDestroy(TileObject obj, int tile) {
+        if (solid == null) {
+            return;
+        }
+
+        if (obj instanceof Powerup) {
+            nearestPowerup.removeSource(tile);
+        } else {
+            if (obj instanceof Wall && obj.isBreakable()) {
+                nearestSoftWall.removeSource(tile);
+            }
+            setSolid(tile, false);
+        }
+    }
+
+    /**
+     * Move a solid object such as a kicked bomb from one tile to another.
+     * @param from Previous tile index
+     * @param to Current tile index
+     */
+    static void onMove(int from, int to) {
+        if (solid == null || from == to) {
+            return;
+        }
+        if (from >= 0) {
+            setSolid(from, false);
+        }
+        if (to >= 0) {
+            setSolid(to, true);
+        }
+    }
+
+    /**
+     * Next step towards the nearest powerup.
+     * @param obj Game object looking for a path
+     * @return Direction to move in, null if already there or unreachable
+     */
+    public static Key towardsPowerup(GameObject obj) {
+        return nearestPowerup == null ? null : nearestPowerup.nextStep(obj);
+    }
+
+    /**
+     * Next step towards the nearest soft wall. Soft walls are solid, so the path ends on the tile next to the wall.
+     * @param obj Game object looking for a path
+     * @return Direction to move in, null if next to a soft wall already or none can be reached
+     */
+    public static Key towardsSoftWall(GameObject obj) {
+        return nearestSoftWall == null ? null : nearestSoftWall.nextStep(obj);
+    }
+
+    /**
+     * Next step towards a bomber. The field for each bomber is shared by every bot chasing it and only rebuilt
+     * when that bomber moves to a different tile.
+     * @param target Bomber being chased
+     * @param obj Game object looking for a path
+     * @return Direction to move in, null if already there or unreachable
+     */
+    public static Key towardsBomber(Bomber target, GameObject obj) {
+        if (bomberFields == null) {
+            return null;
+        }
+        FlowField field = bomberFields.computeIfAbsent(target, k -> new FlowField());
+        int tile = TileIndex.tileAt(target.getColliderCenter());
+        if (tile != field.bomberTile) {
+            if (field.bomberTile >= 0) {
+                field.sources[field.bomberTile] = 0;
+            }
+            if (tile >= 0) {
+                field.sources[tile] = 1;
+            }
+            field.bomberTile = tile;
+            field.dirty = true;
+        }
+        return field.nextStep(obj);
+    }
+
+    private static void setSolid(int tile, boolean value) {
+        if (solid[tile] == value) {
+            return;
+        }
+        solid[tile] = value;
+
+        if (value) {
+            // Distances can only grow, rebuild lazily the next time a field is queried
+            nearestPowerup.dirty = true;
+            nearestSoftWall.dirty = true;
+            for (FlowField field : bomberFields.values()) {
+                field.dirty = true;
+            }
+        } else {
+            // Distances can only shrink, relax outwards from the opened tile
+            nearestPowerup.open(tile);
+            nearestSoftWall.open(tile);
+            for (FlowField field : bomberFields.values()) {
+                field.open(tile);
+            }
+        }
+    }
+
+    private void addSource(int tile) {
+        if (this.sources[tile]++ == 0 && !this.dirty) {
+            this.distance[tile] = 0;
+            this.relax(tile);
+        }
+    }
+
+    private void removeSource(int tile) {
+        if (this.sources[tile] > 0 && --this.sources[tile] == 0) {
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * A tile that was solid has become walkable. Pull its distance from its neighbors and push it outwards.
+     * @param tile Tile index that was opened
+     */
+    private void open(int tile) {
+        if (this.dirty) {
+            return;
+        }
+        if (this.sources[tile] > 0) {
+            this.distance[tile] = 0;
+        } else {
+            int best = this.minNeighbor(tile);
+            if (best != UNREACHABLE && best + 1 < this.distance[tile]) {
+                this.distance[tile] = best + 1;
+            }
+        }
+        if (this.distance[tile] != UNREACHABLE) {
+            this.relax(tile);
+        }
+    }
+
+    /**
+     * Breadth first relaxation from a single tile whose distance just decreased.
+     * @param start Tile index to expand from
+     */
+    private void relax(int start) {
+        int head = 0;
+        int tail = 0;
+        this.queue[tail++] = start;
+        while (head < tail) {
+            int tile = this.queue[head++];
+            int next = this.distance[tile] + 1;
+            int x = tile % mapWidth;
+            int y = tile / mapWidth;
+            if (y > 0) {
+                tail = this.visit(tile - mapWidth, next, tail);
+            }
+            if (y < mapHeight - 1) {
+                tail = this.visit(tile + mapWidth, next, tail);
+            }
+            if (x > 0) {
+                tail = this.visit(tile - 1, next, tail);
+            }
+            if (x < mapWidth - 1) {
+                tail = this.visit(tile + 1, next, tail);
+            }
+        }
+    }
+
+    private int visit(int tile, int value, int tail) {
+        if (!solid[tile] && value < this.distance[tile]) {
+            this.distance[tile] = value;
+            this.queue[tail++] = tile;
+        }
+        return tail;
+    }
+
+    /**
+     * Recompute the whole field from its sources. Only needed after a tile became solid or a target was removed.
+     */
+    private void rebuild() {
+        int tail = 0;
+        for (int tile = 0; tile < this.distance.length; tile++) {
+            if (this.sources[tile] > 0) {
+                this.distance[tile] = 0;
+                this.queue[tail++] = tile;
+            } else {
+                this.distance[tile] = UNREACHABLE;
+            }
+        }
+
+        int head = 0;
+        while (head < tail) {
+            int tile = this.queue[head++];
+            int next = this.distance[tile] + 1;
+            int x = tile % mapWidth;
+            int y = tile / mapWidth;
+            if (y > 0) {
+                tail = this.visit(tile - mapWidth, next, tail);
+            }
+            if (y < mapHeight - 1) {
+                tail = this.visit(tile + mapWidth, next, tail);
+            }
+            if (x > 0) {
+                tail = this.visit(tile - 1, next, tail);
+            }
+            if (x < mapWidth - 1) {
+                tail = this.visit(tile + 1, next, tail);
+            }
+        }
+        this.dirty = false;
+    }
+
+    private int minNeighbor(int tile) {
+        int x = tile % mapWidth;
+        int y = tile / mapWidth;
+        int best = UNREACHABLE;
+        if (y > 0) {
+            best = Math.min(best, this.distance[tile - mapWidth]);
+        }
+        if (y < mapHeight - 1) {
+            best = Math.min(best, this.distance[tile + mapWidth]);
+        }
+        if (x > 0) {
+            best = Math.min(best, this.distance[tile - 1]);
+        }
+        if (x < mapWidth - 1) {
+            best = Math.min(best, this.distance[tile + 1]);
+        }
+        return best;
+    }
+
+    /**
+     * Look up the walkable neighboring tile with the smallest distance to the target. A target on a solid tile, such
+     * as a bomber standing on its bomb, is reached from the tile next to it.
+     * @param obj Game object looking for a path
+     * @return Direction to move in, null if already there or unreachable
+     */
+    private Key nextStep(GameObject obj) {
+        if (this.dirty) {
+            this.rebuild();
+        }
+        int tile = TileIndex.tileAt(obj.getColliderCenter());
+        if (tile < 0 || this.distance[tile] == 0) {
+            return null;
+        }
+
+        int x = tile % mapWidth;
+        int y = tile / mapWidth;
+        int best = this.distance[tile];
+        Key step = null;
+        if (y > 0 && !solid[tile - mapWidth] && this.distance[tile - mapWidth] < best) {
+            best = this.distance[tile - mapWidth];
+            step = Key.up;
+        }
+        if (y < mapHeight - 1 && !solid[tile + mapWidth] && this.distance[tile + mapWidth] < best) {
+            best = this.distance[tile + mapWidth];
+            step = Key.down;
+        }
+        if (x > 0 && !solid[tile - 1] && this.distance[tile - 1] < best) {
+            best = this.distance[tile - 1];
+            step = Key.left;
+        }
+        if (x < mapWidth - 1 && !solid[tile + 1] && this.distance[tile + 1] < best) {
+            step = Key.right;
+        }
+        return step;
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import util.GameObjectCollection;
+import util.Key;
+import util.MapFile;
+
+/**
+ * Compact, cloneable simulation of the game rules used by planners to look ahead.
+ * The whole world is stored in flat primitive arrays so that copying a model is a handful of array copies and
+ * stepping it allocates nothing. It is an approximation of GamePanel.update() rather than a replica: bombers are
+ * blocked by whole tiles instead of the colliders of other objects and cannot kick bombs, and chain reactions resolve
+ * in the same tick instead of one tick per link as DetonationResolver does by default.
+ */
+public class ForwardModel {
+
+    // Actions, one per bomber per tick
+    public static final int NONE = 0;
+    public static final int UP = 1;
+    public static final int DOWN = 2;
+    public static final int LEFT = 3;
+    public static final int RIGHT = 4;
+    public static final int BOMB = 5;
+    public static final int ACTIONS = 6;
+
+    // Tile codes
+    static final byte EMPTY = 0;
+    static final byte HARD = 1;
+    static final byte SOFT = 2;
+    static final byte POWERUP = 3;
+
+    static final int SIZE = 26;             // Size of a bomber's collider
+    static final int FLAME_TICKS = 35;      // Five ticks for every frame of the explosion animation
+    private static final double SOFTWALL_RATE = 0.825;
+
+    final int width;
+    final int height;
+    final int players;
+
+    // Tiles
+    final byte[] tiles;
+    final byte[] powerups;      // Powerup type ordinal on POWERUP tiles
+    final short[] flames;       // Ticks left of explosion covering each tile
+    final int[] bombAt;         // Bomb index + 1 on each tile, 0 for none
+
+    // Bombers, position is the top left of the collider
+    final float[] x;
+    final float[] y;
+    final boolean[] alive;
+    final float[] speed;
+    final int[] firepower;
+    final int[] maxBombs;
+    final int[] ammo;
+    final int[] timer;
+    final boolean[] pierce;
+    final boolean[] kick;
+
+    // Bombs
+    int bombCount;
+    final int[] bombTile;
+    final int[] bombFuse;
+    final int[] bombPower;
+    final int[] bombOwner;
+    final boolean[] bombPierce;
+
+    // Scratch space of searches, never copied
+    private final int[] queue;
+    private final int[] reached;    // Number of the last search that reached each tile
+    private final int[] firstStep;  // Action that starts the walk to each tile reached
+    private int searches;
+    private int safeDistance;
+    private int safeAction;
+
+    long seed;
+    int tick;
+
+    /**
+     * Allocate an empty model. All arrays are sized up front so stepping and copying never allocate.
+     * @param width Map width in tiles
+     * @param height Map height in tiles
+     * @param players Number of bombers
+     */
+    public ForwardModel(int width, int height, int players) {
+        this.width = width;
+        this.height = height;
+        this.players = players;
+
+        int tileCount = width * height;
+        this.tiles = new byte[tileCount];
+        this.powerups = new byte[tileCount];
+        this.flames = new short[tileCount];
+        this.bombAt = new int[tileCount];
+
+        this.x = new float[players];
+        this.y = new float[players];
+        this.alive = new boolean[players];
+        this.speed = new float[players];
+        this.firepower = new int[players];
+        this.maxBombs = new int[players];
+        this.ammo = new int[players];
+        this.timer = new int[players];
+        this.pierce = new boolean[players];
+        this.kick = new boolean[players];
+
+        this.bombTile = new int[tileCount];
+        this.bombFuse = new int[tileCount];
+        this.bombPower = new int[tileCount];
+        this.bombOwner = new int[tileCount];
+        this.bombPierce = new boolean[tileCount];
+
+        this.queue = new int[tileCount];
+        this.reached = new int[tileCount];
+        this.firstStep = new int[tileCount];
+
+        this.seed = 1;
+    }
+
+    /**
+     * Build a model from a parsed map file the same way GamePanel.generateMap does.
+     * @param mapFile Parsed map
+     * @param seed Seed for soft wall placement and powerup drops
+     * @return New model at tick 0
+     */
+    public static ForwardModel fromMap(MapFile mapFile, long seed) {
+        int width = mapFile.getWidth();
+        int height = mapFile.getHeight();
+
+        ForwardModel model = new ForwardModel(width, height, mapFile.getPlayers());
+        model.seed = seed == 0 ? 1 : seed;
+        for (int ty = 0; ty < height; ty++) {
+            for (int tx = 0; tx < width; tx++) {
+                byte code = mapFile.getTile(tx, ty);
+                int tile = ty * width + tx;
+                if (code == MapFile.SOFT) {
+                    if (model.nextDouble() < SOFTWALL_RATE) {
+                        model.tiles[tile] = SOFT;
+                    }
+                } else if (code == MapFile.HARD) {
+                    model.tiles[tile] = HARD;
+                } else if (code >= MapFile.POWER_BOMB && code <= MapFile.POWER_TIMER) {
+                    model.tiles[tile] = POWERUP;
+                    model.powerups[tile] = (byte) (code - MapFile.POWER_BOMB);
+                } else if (code >= MapFile.PLAYER) {
+                    model.spawnBomber(code - MapFile.PLAYER, tx * 32 + 3, ty * 32 + 3);
+                }
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Take a snapshot of the live game world.
+     * @param width Map width in tiles
+     * @param height Map height in tiles
+     * @param bombers Bombers in player order, dead bombers included
+     * @return New model of the current state
+     */
+    public static ForwardModel capture(int width, int height, Bomber[] bombers) {
+        ForwardModel model = new ForwardModel(width, height, bombers.length);
+        for (int i = 0; i < bombers.length; i++) {
+            Bomber bomber = bombers[i];
+            model.x[i] = bomber.collider.x;
+            model.y[i] = bomber.collider.y;
+            model.alive[i] = !bomber.isDead();
+            model.speed[i] = bomber.getMoveSpeed();
+            model.firepower[i] = bomber.getFirepower();
+            model.maxBombs[i] = bomber.getMaxBombs();
+            model.ammo[i] = bomber.getBombAmmo();
+            model.timer[i] = bomber.getBombTimer();
+            model.pierce[i] = bomber.hasPierce();
+            model.kick[i] = bomber.hasKick();
+        }
+
+        for (int ty = 0; ty < height; ty++) {
+            for (int tx = 0; tx < width; tx++) {
+                if (Terrain.isHard(tx, ty)) {
+                    model.tiles[ty * width + tx] = HARD;
+                } else if (Terrain.isSoft(tx, ty)) {
+                    model.tiles[ty * width + tx] = SOFT;
+                }
+            }
+        }
+        for (int i = 0; i < GameObjectCollection.tileObjects.size(); i++) {
+            TileObject obj = GameObjectCollection.tileObjects.get(i);
+            int tile = model.tileAt(obj.position.x + 16, obj.position.y + 16);
+            if (tile < 0) {
+                continue;
+            }
+            if (obj instanceof Wall) {
+                model.tiles[tile] = obj.isBreakable() ? SOFT : HARD;
+            } else if (obj instanceof Powerup) {
+                model.tiles[tile] = POWERUP;
+                model.powerups[tile] = (byte) ((Powerup) obj).getType().ordinal();
+            } else if (obj instanceof Bomb) {
+                Bomb bomb = (Bomb) obj;
+                int owner = 0;
+                for (int p = 0; p < bombers.length; p++) {
+                    if (bombers[p] == bomb.getBomber()) {
+                        owner = p;
+                    }
+                }
+                model.addBomb(tile, bomb.getTimeLeft(), bomb.getFirepower(), bomb.isPierce(), owner);
+            }
+            if (obj.explosionContact != null) {
+                model.flames[tile] = FLAME_TICKS;
+            }
+        }
+        return model;
+    }
+
+    /**
+     * Copy the entire state of another model of the same size into this one without allocating.
+     * @param other Model to copy from
+     */
+    public void copyFrom(ForwardModel other) {
+        System.arraycopy(other.tiles, 0, this.tiles, 0, this.tiles.length);
+        System.arraycopy(other.powerups, 0, this.powerups, 0, this.powerups.length);
+        System.arraycopy(other.flames, 0, this.flames, 0, this.flames.length);
+        System.arraycopy(other.bombAt, 0, this.bombAt, 0, this.bombAt.length);
+
+        System.arraycopy(other.x, 0, this.x, 0, this.players);
+        System.arraycopy(other.y, 0, this.y, 0, this.players);
+        System.arraycopy(other.alive, 0, this.alive, 0, this.players);
+        System.arraycopy(other.speed, 0, this.speed, 0, this.players);
+        System.arraycopy(other.firepower, 0, this.firepower, 0, this.players);
+        System.arraycopy(other.maxBombs, 0, this.maxBombs, 0, this.players);
+        System.arraycopy(other.ammo, 0, this.ammo, 0, this.players);
+        System.arraycopy(other.timer, 0, this.timer, 0, this.players);
+        System.arraycopy(other.pierce, 0, this.pierce, 0, this.players);
+        System.arraycopy(other.kick, 0, this.kick, 0, this.players);
+
+        this.bombCount = other.bombCount;
+        System.arraycopy(other.bombTile, 0, this.bombTile, 0, other.bombCount);
+        System.arraycopy(other.bombFuse, 0, this.bombFuse, 0, other.bombCount);
+        System.arraycopy(other.bombPower, 0, this.bombPower, 0, other.bombCount);
+        System.arraycopy(other.bombOwner, 0, this.bombOwner, 0, other.bombCount);
+        System.arraycopy(other.bombPierce, 0, this.bombPierce, 0, other.bombCount);
+
+        this.seed = other.seed;
+        this.tick = other.tick;
+    }
+
+    /**
+     * Create a new model with the same state.
+     * @return Copy of this model
+     */
+    public ForwardModel copy() {
+        ForwardModel model = new ForwardModel(this.width, this.height, this.players);
+        model.copyFrom(this);
+        return model;
+    }
+
+    /**
+     * Advance the world by one tick.
+     * @param actions One action per bomber
+     */
+    public void step(int[] actions) {
+        this.stepFrom(actions, 0);
+    }
+
+    /**
+     * Advance the world by one tick reading actions from part of a larger array.
+     * @param actions Array holding one action per bomber starting at offset
+     * @param offset Index of the first bomber's action
+     */
+    public void stepFrom(int[] actions, int offset) {
+        // Bombers act in player order
+        for (int p = 0; p < this.players; p++) {
+            if (!this.alive[p]) {
+                continue;
+            }
+            switch (actions[offset + p]) {
+                case UP:
+                    this.move(p, 0, -this.speed[p]);
+                    break;
+                case DOWN:
+                    this.move(p, 0, this.speed[p]);
+                    break;
+                case LEFT:
+                    this.move(p, -this.speed[p], 0);
+                    break;
+                case RIGHT:
+                    this.move(p, this.speed[p], 0);
+                    break;
+                case BOMB:
+                    this.plantBomb(p);
+                    break;
+                default:
+                    break;
+            }
+            this.collectPowerup(p);
+        }
+
+        // Burn out explosions, clearing whatever they were destroying
+        for (int tile = 0; tile < this.flames.length; tile++) {
+            if (this.flames[tile] > 0 && --this.flames[tile] == 0) {
+                if (this.tiles[tile] == SOFT && this.nextDouble() < 0.5) {
+                    this.tiles[tile] = POWERUP;
+                    this.powerups[tile] = (byte) (this.nextInt() % 7);
+                } else if (this.tiles[tile] != HARD) {
+                    this.tiles[tile] = EMPTY;
+                }
+            }
+        }
+
+        // Fuses burn down once per tick
+        for (int b = 0; b < this.bombCount; b++) {
+            this.bombFuse[b]--;
+        }
+
+        // Chain reactions
+        for (int b = 0; b < this.bombCount; ) {
+            if (this.bombFuse[b] <= 0 || this.flames[this.bombTile[b]] > 0) {
+                this.detonate(b);
+                b = 0;  // Detonating may remove other bombs, start over
+            } else {
+                b++;
+            }
+        }
+
+        // Bombers caught in explosions
+        for (int p = 0; p < this.players; p++) {
+            if (this.alive[p] && this.touchesFlame(p)) {
+                this.alive[p] = false;
+            }
+        }
+
+        this.tick++;
+    }
+
+    /**
+     * Check if the round is over.
+     * @return true when one or no bombers are left alive
+     */
+    public boolean isTerminal() {
+        return this.aliveCount() <= 1;
+    }
+
+    public int aliveCount() {
+        int count = 0;
+        for (int p = 0; p < this.players; p++) {
+            if (this.alive[p]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean isAlive(int player) {
+        return this.alive[player];
+    }
+
+    /**
+     * Check if a bomber overlaps a tile that the blast of a bomb still on the map will reach.
+     * @param player Index of the bomber
+     * @return true when the bomber has to move before a fuse runs out
+     */
+    public boolean inBlast(int player) {
+        int left = Math.max(0, (int) Math.floor(this.x[player] / 32));
+        int right = Math.min(this.width - 1, (int) Math.floor((this.x[player] + SIZE - 0.01f) / 32));
+        int top = Math.max(0, (int) Math.floor(this.y[player] / 32));
+        int bottom = Math.min(this.height - 1, (int) Math.floor((this.y[player] + SIZE - 0.01f) / 32));
+        for (int b = 0; b < this.bombCount; b++) {
+            for (int ty = top; ty <= bottom; ty++) {
+                for (int tx = left; tx <= right; tx++) {
+                    if (this.blastReaches(b, tx, ty)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find how far a bomber has to walk to a tile out of the blast of every bomb on the map, walking around walls and
+     * bombs the same way movement is blocked.
+     * @param player Index of the bomber
+     * @return Pixels from the center of the bomber to the center of the nearest safe tile, -1 when none can be reached
+     */
+    public int distanceToSafety(int player) {
+        this.searchSafety(player);
+        return this.safeDistance;
+    }
+
+    /**
+     * Find the first step of the walk to the nearest tile out of the blast of every bomb on the map.
+     * @param player Index of the bomber
+     * @return Action that starts the walk, NONE when the bomber is on a safe tile or none can be reached
+     */
+    public int actionToSafety(int player) {
+        this.searchSafety(player);
+        return this.safeAction;
+    }
+
+    /**
+     * Breadth first search from the tile under the center of a bomber. Stops at the end of the first layer of tiles
+     * with a safe tile in it and keeps the nearest one of that layer.
+     */
+    private void searchSafety(int player) {
+        this.safeDistance = -1;
+        this.safeAction = NONE;
+        float cx = this.x[player] + SIZE / 2f;
+        float cy = this.y[player] + SIZE / 2f;
+        int start = this.tileAt(cx, cy);
+        if (start < 0) {
+            return;
+        }
+
+        int search = ++this.searches;
+        int head = 0;
+        int tail = 0;
+        this.queue[tail++] = start;
+        this.reached[start] = search;
+        this.firstStep[start] = NONE;
+        int layerEnd = tail;
+        while (head < tail) {
+            int tile = this.queue[head++];
+            int tx = tile % this.width;
+            int ty = tile / this.width;
+            if (this.isSafe(tx, ty)) {
+                int distance = (int) (Math.abs(tx * 32 + 16 - cx) + Math.abs(ty * 32 + 16 - cy));
+                if (this.safeDistance < 0 || distance < this.safeDistance) {
+                    this.safeDistance = distance;
+                    this.safeAction = this.firstStep[tile];
+                }
+            } else {
+                tail = this.enqueueNext(tile, tx - 1, ty, LEFT, search, tail);
+                tail = this.enqueueNext(tile, tx + 1, ty, RIGHT, search, tail);
+                tail = this.enqueueNext(tile, tx, ty - 1, UP, search, tail);
+                tail = this.enqueueNext(tile, tx, ty + 1, DOWN, search, tail);
+            }
+            if (head == layerEnd) {
+                if (this.safeDistance >= 0) {
+                    return;
+                }
+                layerEnd = tail;
+            }
+        }
+    }
+
+    /**
+     * Count the soft walls left standing once every bomb still on the map has gone off, not counting chain reactions.
+     * @return Number of soft walls
+     */
+    public int softWallsLeft() {
+        int count = 0;
+        for (int tile = 0; tile < this.tiles.length; tile++) {
+            if (this.tiles[tile] == SOFT) {
+                count++;
+            }
+        }
+        for (int b = 0; b < this.bombCount; b++) {
+            int tx = this.bombTile[b] % this.width;
+            int ty = this.bombTile[b] / this.width;
+            count -= this.softWallsInFlame(b, tx, ty, -1, 0) + this.softWallsInFlame(b, tx, ty, 1, 0)
+                    + this.softWallsInFlame(b, tx, ty, 0, -1) + this.softWallsInFlame(b, tx, ty, 0, 1);
+        }
+        return Math.max(0, count);
+    }
+
+    public int getPlayers() {
+        return this.players;
+    }
+
+    public int getTick() {
+        return this.tick;
+    }
+
+    /**
+     * Convert a model action into the key that performs it.
+     * @param action Model action
+     * @return Key for the action, null for no action
+     */
+    public static Key toKey(int action) {
+        switch (action) {
+            case UP:
+                return Key.up;
+            case DOWN:
+                return Key.down;
+            case LEFT:
+                return Key.left;
+            case RIGHT:
+                return Key.right;
+            case BOMB:
+                return Key.action;
+            default:
+                return null;
+        }
+    }
+
+    // --- RULES ---
+
+    private void spawnBomber(int p, float px, float py) {
+        this.x[p] = px;
+        this.y[p] = py;
+        this.alive[p] = true;
+        this.speed[p] = 1;
+        this.firepower[p] = 1;
+        this.maxBombs[p] = 1;
+        this.ammo[p] = 1;
+        this.timer[p] = 250;
+    }
+
+    private void move(int p, float dx, float dy) {
+        float nx = this.x[p] + dx;
+        float ny = this.y[p] + dy;
+        if (!this.blocked(p, nx, ny)) {
+            this.x[p] = nx;
+            this.y[p] = ny;
+            return;
+        }
+
+        // Slide around corners when nearly lined up with a gap
+        if (dx != 0) {
+            float offset = Math.round((this.y[p] - 3) / 32) * 32 + 3 - this.y[p];
+            if (offset != 0 && Math.abs(offset) < 16) {
+                float nudge = Math.signum(offset) * Math.min(Math.abs(offset), Math.abs(dx));
+                if (!this.blocked(p, this.x[p], this.y[p] + nudge)) {
+                    this.y[p] += nudge;
+                }
+            }
+        } else {
+            float offset = Math.round((this.x[p] - 3) / 32) * 32 + 3 - this.x[p];
+            if (offset != 0 && Math.abs(offset) < 16) {
+                float nudge = Math.signum(offset) * Math.min(Math.abs(offset), Math.abs(dy));
+                if (!this.blocked(p, this.x[p] + nudge, this.y[p])) {
+                    this.x[p] += nudge;
+                }
+            }
+        }
+    }
+
+    /**
+     * Check if a bomber's collider would overlap a solid tile. Bombs the bomber is already standing on are ignored.
+     */
+    private boolean blocked(int p, float nx, float ny) {
+        int left = (int) Math.floor(nx / 32);
+        int right = (int) Math.floor((nx + SIZE - 0.01f) / 32);
+        int top = (int) Math.floor(ny / 32);
+        int bottom = (int) Math.floor((ny + SIZE - 0.01f) / 32);
+        if (left < 0 || top < 0 || right >= this.width || bottom >= this.height) {
+            return true;
+        }
+
+        for (int ty = top; ty <= bottom; ty++) {
+            for (int tx = left; tx <= right; tx++) {
+                int tile = ty * this.width + tx;
+                byte code = this.tiles[tile];
+                if (code == HARD || code == SOFT) {
+                    return true;
+                }
+                if (this.bombAt[tile] != 0 && !this.overlaps(p, tx, ty)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean overlaps(int p, int tx, int ty) {
+        return this.x[p] < tx * 32 + 32 && this.x[p] + SIZE > tx * 32
+                && this.y[p] < ty * 32 + 32 && this.y[p] + SIZE > ty * 32;
+    }
+
+    /**
+     * Check if the blast of a bomb reaches a tile, stopping where castFlame stops.
+     */
+    private boolean blastReaches(int b, int tx, int ty) {
+        int bx = this.bombTile[b] % this.width;
+        int by = this.bombTile[b] / this.width;
+        int distance = Math.abs(tx - bx) + Math.abs(ty - by);
+        if ((tx != bx && ty != by) || distance > this.bombPower[b]) {
+            return false;
+        }
+        int dx = Integer.signum(tx - bx);
+        int dy = Integer.signum(ty - by);
+        for (int i = 1; i < distance; i++) {
+            int tile = (by + dy * i) * this.width + bx + dx * i;
+            if (this.tiles[tile] == HARD
+                    || (!this.bombPierce[b] && (this.tiles[tile] != EMPTY || this.bombAt[tile] != 0))) {
+                return false;
+            }
+        }
+        return this.tiles[ty * this.width + tx] != HARD;
+    }
+
+    /**
+     * Check if a tile is out of every explosion and out of the blast of every bomb.
+     */
+    private boolean isSafe(int tx, int ty) {
+        if (this.flames[ty * this.width + tx] > 0) {
+            return false;
+        }
+        for (int b = 0; b < this.bombCount; b++) {
+            if (this.blastReaches(b, tx, ty)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a tile a bomber can walk onto to the queue of a search unless the search already reached it.
+     * @param from Tile the search steps from
+     * @param step Action that steps from the tile to the next one
+     * @return New end of the queue
+     */
+    private int enqueueNext(int from, int tx, int ty, int step, int search, int tail) {
+        if (tx < 0 || ty < 0 || tx >= this.width || ty >= this.height) {
+            return tail;
+        }
+        int tile = ty * this.width + tx;
+        byte code = this.tiles[tile];
+        if (this.reached[tile] == search || code == HARD || code == SOFT || this.bombAt[tile] != 0) {
+            return tail;
+        }
+        this.reached[tile] = search;
+        this.firstStep[tile] = this.firstStep[from] == NONE ? step : this.firstStep[from];
+        this.queue[tail] = tile;
+        return tail + 1;
+    }
+
+    /**
+     * Count the soft walls the blast of a bomb destroys in one direction, stopping where castFlame stops.
+     */
+    private int softWallsInFlame(int b, int tx, int ty, int dx, int dy) {
+        int count = 0;
+        for (int i = 1; i <= this.bombPower[b]; i++) {
+            int cx = tx + dx * i;
+            int cy = ty + dy * i;
+            if (cx < 0 || cy < 0 || cx >= this.width || cy >= this.height) {
+                break;
+            }
+            int tile = cy * this.width + cx;
+            if (this.tiles[tile] == HARD) {
+                break;
+            }
+            if (this.tiles[tile] == SOFT) {
+                count++;
+            }
+            if (!this.bombPierce[b] && (this.tiles[tile] != EMPTY || this.bombAt[tile] != 0)) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    private boolean touchesFlame(int p) {
+        int left = (int) Math.floor(this.x[p] / 32);
+        int right = (int) Math.floor((this.x[p] + SIZE - 0.01f) / 32);
+        int top = (int) Math.floor(this.y[p] / 32);
+        int bottom = (int) Math.floor((this.y[p] + SIZE - 0.01f) / 32);
+        for (int ty = Math.max(0, top); ty <= Math.min(this.height - 1, bottom); ty++) {
+            for (int tx = Math.max(0, left); tx <= Math.min(this.width - 1, right); tx++) {
+                if (this.flames[ty * this.width + tx] > 0) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void plantBomb(int p) {
+        if (this.ammo[p] <= 0) {
+            return;
+        }
+        int tile = this.tileAt(this.x[p] + SIZE / 2f, this.y[p] + SIZE / 2f);
+        if (tile < 0 || this.tiles[tile] != EMPTY || this.bombAt[tile] != 0) {
+            return;
+        }
+        this.addBomb(tile, this.timer[p] + 1, this.firepower[p], this.pierce[p], p);
+        this.ammo[p]--;
+    }
+
+    void addBomb(int tile, int fuse, int power, boolean pierce, int owner) {
+        int b = this.bombCount++;
+        this.bombTile[b] = tile;
+        this.bombFuse[b] = fuse;
+        this.bombPower[b] = power;
+        this.bombPierce[b] = pierce;
+        this.bombOwner[b] = owner;
+        this.bombAt[tile] = b + 1;
+    }
+
+    private void removeBomb(int b) {
+        this.bombAt[this.bombTile[b]] = 0;
+        int last = --this.bombCount;
+        if (b != last) {
+            this.bombTile[b] = this.bombTile[last];
+            this.bombFuse[b] = this.bombFuse[last];
+            this.bombPower[b] = this.bombPower[last];
+            this.bombPierce[b] = this.bombPierce[last];
+            this.bombOwner[b] = this.bombOwner[last];
+            this.bombAt[this.bombTile[b]] = b + 1;
+        }
+    }
+
+    private void detonate(int b) {
+        int tile = this.bombTile[b];
+        int power = this.bombPower[b];
+        boolean pierce = this.bombPierce[b];
+        int owner = this.bombOwner[b];
+        this.removeBomb(b);
+        this.ammo[owner] = Math.min(this.maxBombs[owner], this.ammo[owner] + 1);
+
+        this.flames[tile] = FLAME_TICKS;
+        int tx = tile % this.width;
+        int ty = tile / this.width;
+        this.castFlame(tx, ty, -1, 0, power, pierce);
+        this.castFlame(tx, ty, 1, 0, power, pierce);
+        this.castFlame(tx, ty, 0, -1, power, pierce);
+        this.castFlame(tx, ty, 0, 1, power, pierce);
+    }
+
+    /**
+     * Spread an explosion in one direction the same way Explosion.checkHorizontal and checkVertical do.
+     */
+    private void castFlame(int tx, int ty, int dx, int dy, int power, boolean pierce) {
+        for (int i = 1; i <= power; i++) {
+            int cx = tx + dx * i;
+            int cy = ty + dy * i;
+            if (cx < 0 || cy < 0 || cx >= this.width || cy >= this.height) {
+                return;
+            }
+            int tile = cy * this.width + cx;
+            if (this.tiles[tile] == HARD) {
+                return;
+            }
+            this.flames[tile] = FLAME_TICKS;
+            if (!pierce && (this.tiles[tile] != EMPTY || this.bombAt[tile] != 0)) {
+                return;
+            }
+        }
+    }
+
+    private void collectPowerup(int p) {
+        int tile = this.tileAt(this.x[p] + SIZE / 2f, this.y[p] + SIZE / 2f);
+        if (tile < 0 || this.tiles[tile] != POWERUP || this.flames[tile] > 0) {
+            return;
+        }
+        this.tiles[tile] = EMPTY;
+        switch (this.powerups[tile]) {
+            case 0:     // Bomb
+                this.maxBombs[p] = Math.min(6, this.maxBombs[p] + 1);
+                this.ammo[p] = Math.min(this.maxBombs[p], this.ammo[p] + 1);
+                break;
+            case 1:     // Fireup
+                this.firepower[p] = Math.min(6, this.firepower[p] + 1);
+                break;
+            case 2:     // Firemax
+                this.firepower[p] = 6;
+                break;
+            case 3:     // Speed
+                this.speed[p] = Math.min(4, this.speed[p] + 0.5f);
+                break;
+            case 4:     // Pierce
+                this.pierce[p] = true;
+                break;
+            case 5:     // Kick
+                this.kick[p] = true;
+                break;
+            case 6:     // Timer
+                this.timer[p] = Math.max(160, this.timer[p] - 15);
+                break;
+            default:
+                break;
+        }
+    }
+
+    int tileAt(float px, float py) {
+        int tx = (int) Math.floor(px / 32);
+        int ty = (int) Math.floor(py / 32);
+        if (tx < 0 || ty < 0 || tx >= this.width || ty >= this.height) {
+            return -1;
+        }
+        return ty * this.width + tx;
+    }
+
+    // --- RANDOM ---
+
+    int nextInt() {
+        // Xorshift so the random state is a single primitive that copies with the model
+        this.seed ^= this.seed << 13;
+        this.seed ^= this.seed >>> 7;
+        this.seed ^= this.seed << 17;
+        return (int) (this.seed >>> 33);
+    }
+
+    double nextDouble() {
+        return this.nextInt() / (double) (1L << 31);
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import util.Key;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks of the forward model rules that planners depend on, and of the planner itself. Each check builds a small
+ * world by hand, steps it, and compares the result with the real game rules. Exits with status 1 when a check fails.
+ *
+ * Usage: java gameobjects.ForwardModelTest
+ */
+public class ForwardModelTest {
+
+    public static void main(String[] args) {
+        int failures = 0;
+        failures += check("Fuse runs out after its ticks", fuseRunsOut());
+        failures += check("Chain reaction resolves in one tick", chainReactionResolves());
+        failures += check("Chain reaction leaves other fuses alone", chainReactionKeepsOtherFuses());
+        failures += check("Planner walks out of a blast", plannerEscapesBlast());
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static int check(String name, boolean passed) {
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+        return passed ? 0 : 1;
+    }
+
+    /**
+     * A bomb with a fuse of three ticks is still there after two steps and gone after the third.
+     */
+    static boolean fuseRunsOut() {
+        ForwardModel model = new ForwardModel(5, 1, 1);
+        model.addBomb(2, 3, 1, false, 0);
+        model.step(new int[] { ForwardModel.NONE });
+        model.step(new int[] { ForwardModel.NONE });
+        boolean waiting = model.bombCount == 1 && model.bombFuse[0] == 1;
+        model.step(new int[] { ForwardModel.NONE });
+        return waiting && model.bombCount == 0 && model.flames[2] > 0;
+    }
+
+    /**
+     * A bomb sets off a bomb in its blast, which sets off a third one, all on the tick the first fuse runs out.
+     */
+    static boolean chainReactionResolves() {
+        ForwardModel model = new ForwardModel(9, 1, 1);
+        model.addBomb(0, 1, 2, false, 0);
+        model.addBomb(2, 100, 2, false, 0);
+        model.addBomb(4, 100, 1, false, 0);
+        model.step(new int[] { ForwardModel.NONE });
+        return model.bombCount == 0 && model.flames[5] > 0 && model.flames[6] == 0;
+    }
+
+    /**
+     * A bomb out of reach of a chain reaction loses one tick of fuse on the tick of the chain, like every other tick,
+     * no matter how many bombs the chain sets off.
+     */
+    static boolean chainReactionKeepsOtherFuses() {
+        ForwardModel model = new ForwardModel(9, 1, 1);
+        model.addBomb(0, 1, 2, false, 0);
+        model.addBomb(2, 100, 2, false, 0);
+        model.addBomb(4, 100, 1, false, 0);
+        model.addBomb(8, 50, 1, false, 0);
+        model.step(new int[] { ForwardModel.NONE });
+        return model.bombCount == 1 && model.bombTile[0] == 8 && model.bombFuse[0] == 49;
+    }
+
+    /**
+     * A bomber standing on a bomb in a corridor survives when it follows the planner the way a hard bot does, holding
+     * each planned key for as many ticks as the planner holds its actions. Neither bomber has bombs of its own, and
+     * the opponent is walled off at the end of the corridor so the round goes on.
+     */
+    static boolean plannerEscapesBlast() {
+        ForwardModel model = new ForwardModel(11, 1, 2);
+        model.tiles[9] = ForwardModel.HARD;
+        for (int p = 0; p < 2; p++) {
+            model.x[p] = (p == 0 ? 3 : 10) * 32 + 3;
+            model.y[p] = 3;
+            model.alive[p] = true;
+            model.speed[p] = 1;
+            model.firepower[p] = 1;
+        }
+        model.addBomb(3, 100, 1, false, 0);
+
+        MctsPlanner planner = new MctsPlanner(new ForkJoinPool(1), 0, 50);
+        int[] actions = new int[2];
+        while (model.bombCount > 0 && model.isAlive(0)) {
+            actions[0] = action(planner.plan(model));
+            for (int t = 0; t < MctsPlanner.REPEAT; t++) {
+                model.step(actions);
+            }
+        }
+        return model.isAlive(0);
+    }
+
+    private static int action(Key key) {
+        if (key == null) {
+            return ForwardModel.NONE;
+        }
+        switch (key) {
+            case up:
+                return ForwardModel.UP;
+            case down:
+                return ForwardModel.DOWN;
+            case left:
+                return ForwardModel.LEFT;
+            case right:
+                return ForwardModel.RIGHT;
+            default:
+                return ForwardModel.BOMB;
+        }
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import util.Key;
+import util.MapFile;
+
+import java.io.IOException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Monte Carlo tree search planner for a "hard" bot. Every worker in the pool grows its own search tree over a
+ * copy of the forward model for a fixed time budget, then the visit counts at the root are merged to pick a key.
+ * Trees, models, and action buffers are allocated once per worker and reused for every plan.
+ */
+public class MctsPlanner {
+
+    public static final int REPEAT = 8;             // Ticks each action in the tree is held for
+    private static final int ROLLOUT_DEPTH = 12;    // Random actions played after leaving the tree
+    private static final int ROLLOUT_TURN = 8;      // One in this many rollout actions picks a new random action
+    private static final int MAX_DEPTH = 32;        // Deepest path stored while descending the tree
+    private static final int MAX_NODES = 1 << 15;   // Nodes per worker tree
+    private static final double EXPLORATION = 1.4;
+    private static final int CLEARED_WALLS = 4;     // Soft walls cleared for the most reward short of a kill
+    private static final double SAFE_DISTANCE = 32; // Pixels from safety at which a bomber in a blast scores a quarter
+
+    private final ForkJoinPool pool;
+    private final int player;
+    private final long budgetNanos;
+    private final Worker[] workers;
+
+    // Metrics from the last plan
+    private long lastRollouts;
+    private long lastElapsedNanos;
+
+    /**
+     * Construct a planner for one bomber.
+     * @param pool Pool the search runs in, one worker per level of parallelism
+     * @param player Index of the bomber being planned for
+     * @param budgetMillis Time allowed for each plan
+     */
+    public MctsPlanner(ForkJoinPool pool, int player, long budgetMillis) {
+        this.pool = pool;
+        this.player = player;
+        this.budgetNanos = budgetMillis * 1000000L;
+        this.workers = new Worker[pool.getParallelism()];
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i] = new Worker(0x9E3779B97F4A7C15L * (i + 1));
+        }
+    }
+
+    /**
+     * Search from the given state and return the best key to press this tick.
+     * @param root Current state of the world, not modified
+     * @return Key to press, null to stand still
+     */
+    public Key plan(ForwardModel root) {
+        long start = System.nanoTime();
+        long deadline = start + this.budgetNanos;
+
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[this.workers.length];
+        for (int i = 0; i < this.workers.length; i++) {
+            this.workers[i].prepare(root, deadline);
+            tasks[i] = this.pool.submit(this.workers[i]);
+        }
+
+        // Merge root statistics from every tree
+        long[] visits = new long[ForwardModel.ACTIONS];
+        long rollouts = 0;
+        for (int i = 0; i < this.workers.length; i++) {
+            tasks[i].join();
+            Worker worker = this.workers[i];
+            for (int a = 0; a < ForwardModel.ACTIONS; a++) {
+                int child = worker.children[a];
+                if (child != 0) {
+                    visits[a] += worker.visits[child];
+                }
+            }
+            rollouts += worker.rollouts;
+        }
+        this.lastRollouts = rollouts;
+        this.lastElapsedNanos = System.nanoTime() - start;
+
+        int best = ForwardModel.NONE;
+        for (int a = 0; a < ForwardModel.ACTIONS; a++) {
+            if (visits[a] > visits[best]) {
+                best = a;
+            }
+        }
+        return ForwardModel.toKey(best);
+    }
+
+    /**
+     * Rollouts completed per second by the last plan across all workers.
+     * @return Rollout throughput
+     */
+    public double getRolloutsPerSecond() {
+        return this.lastElapsedNanos == 0 ? 0 : this.lastRollouts * 1e9 / this.lastElapsedNanos;
+    }
+
+    /**
+     * Rollouts completed per second by the last plan for each core in the pool.
+     * @return Rollout throughput per core
+     */
+    public double getRolloutsPerSecondPerCore() {
+        return this.getRolloutsPerSecond() / this.workers.length;
+    }
+
+    public long getLastRollouts() {
+        return this.lastRollouts;
+    }
+
+    /**
+     * A single search tree. Nodes are stored in flat arrays indexed by node and action.
+     */
+    private class Worker implements Runnable {
+
+        private final int[] children = new int[MAX_NODES * ForwardModel.ACTIONS];
+        private final int[] visits = new int[MAX_NODES];
+        private final double[] value = new double[MAX_NODES];
+        private final int[] path = new int[MAX_DEPTH + 1];
+        private int nodeCount;
+
+        private ForwardModel root;
+        private ForwardModel scratch;
+        private int[] actions;
+        private long deadline;
+        private long seed;
+        private long rollouts;
+        private int rootSoftWalls;
+
+        Worker(long seed) {
+            this.seed = seed;
+        }
+
+        void prepare(ForwardModel root, long deadline) {
+            this.root = root;
+            this.deadline = deadline;
+            if (this.scratch == null || this.scratch.width != root.width || this.scratch.height != root.height
+                    || this.scratch.players != root.players) {
+                this.scratch = new ForwardModel(root.width, root.height, root.players);
+                this.actions = new int[root.players];
+            }
+            this.rootSoftWalls = root.softWallsLeft();
+        }
+
+        @Override
+        public void run() {
+            this.nodeCount = 1;
+            this.clearNode(0);
+            this.rollouts = 0;
+
+            do {
+                this.iterate();
+                this.rollouts++;
+            } while (System.nanoTime() < this.deadline);
+        }
+
+        /**
+         * One selection, expansion, rollout, and backpropagation pass.
+         */
+        private void iterate() {
+            ForwardModel model = this.scratch;
+            model.copyFrom(this.root);
+
+            int node = 0;
+            int depth = 0;
+            this.path[depth] = node;
+
+            // Selection and expansion
+            while (depth < MAX_DEPTH && !model.isTerminal() && model.isAlive(player)) {
+                int action = this.untriedAction(node);
+                if (action >= 0) {
+                    if (this.nodeCount >= MAX_NODES) {
+                        break;
+                    }
+                    int child = this.nodeCount++;
+                    this.clearNode(child);
+                    this.children[node * ForwardModel.ACTIONS + action] = child;
+                    this.advance(model, action);
+                    this.path[++depth] = child;
+                    break;
+                }
+                action = this.selectAction(node);
+                this.advance(model, action);
+                node = this.children[node * ForwardModel.ACTIONS + action];
+                this.path[++depth] = node;
+            }
+
+            // Rollout with random actions, each kept for a few steps, walking towards safety when in a blast
+            int rolloutAction = this.nextInt(ForwardModel.ACTIONS);
+            for (int i = 0; i < ROLLOUT_DEPTH && !model.isTerminal() && model.isAlive(player); i++) {
+                if (this.nextInt(ROLLOUT_TURN) == 0) {
+                    rolloutAction = this.nextInt(ForwardModel.ACTIONS);
+                }
+                int action = model.inBlast(player) ? model.actionToSafety(player) : ForwardModel.NONE;
+                this.advance(model, action != ForwardModel.NONE ? action : rolloutAction);
+            }
+
+            // Backpropagation
+            double reward = this.evaluate(model);
+            for (int i = 0; i <= depth; i++) {
+                this.visits[this.path[i]]++;
+                this.value[this.path[i]] += reward;
+            }
+        }
+
+        private void advance(ForwardModel model, int action) {
+            for (int p = 0; p < model.players; p++) {
+                this.actions[p] = p == player ? action : this.nextInt(ForwardModel.ACTIONS);
+            }
+            for (int t = 0; t < REPEAT && !model.isTerminal(); t++) {
+                model.step(this.actions);
+                // Only press the bomb key once
+                if (this.actions[player] == ForwardModel.BOMB) {
+                    this.actions[player] = ForwardModel.NONE;
+                }
+            }
+        }
+
+        private int untriedAction(int node) {
+            int base = node * ForwardModel.ACTIONS;
+            int offset = this.nextInt(ForwardModel.ACTIONS);
+            for (int i = 0; i < ForwardModel.ACTIONS; i++) {
+                int action = (offset + i) % ForwardModel.ACTIONS;
+                if (this.children[base + action] == 0) {
+                    return action;
+                }
+            }
+            return -1;
+        }
+
+        private int selectAction(int node) {
+            int base = node * ForwardModel.ACTIONS;
+            double logVisits = Math.log(this.visits[node]);
+            int best = 0;
+            double bestScore = Double.NEGATIVE_INFINITY;
+            for (int a = 0; a < ForwardModel.ACTIONS; a++) {
+                int child = this.children[base + a];
+                double score = this.value[child] / this.visits[child]
+                        + EXPLORATION * Math.sqrt(logVisits / this.visits[child]);
+                if (score > bestScore) {
+                    bestScore = score;
+                    best = a;
+                }
+            }
+            return best;
+        }
+
+        /**
+         * Score a state for the planning bomber. Dying is worst, outliving opponents is best. Rollouts end well before
+         * most fuses run out, so standing in the blast of a bomb scores less the farther the nearest safe tile is, and
+         * nothing when no safe tile can be reached. Soft walls that bombs will destroy count as cleared. Clearing soft
+         * walls breaks ties between states where everyone survives, otherwise standing still is as good as anything.
+         */
+        private double evaluate(ForwardModel model) {
+            if (!model.isAlive(player)) {
+                return 0;
+            }
+            int opponents = model.players - 1;
+            if (opponents == 0) {
+                return 1;
+            }
+            int deadOpponents = model.players - model.aliveCount();
+            int cleared = Math.max(0, Math.min(this.rootSoftWalls - model.softWallsLeft(), CLEARED_WALLS));
+            double score = 0.5 + 0.4 * deadOpponents / opponents + 0.1 * cleared / CLEARED_WALLS;
+            if (model.inBlast(player)) {
+                int distance = model.distanceToSafety(player);
+                return distance < 0 ? 0 : score / 2 * SAFE_DISTANCE / (SAFE_DISTANCE + distance);
+            }
+            return score;
+        }
+
+        private void clearNode(int node) {
+            int base = node * ForwardModel.ACTIONS;
+            for (int a = 0; a < ForwardModel.ACTIONS; a++) {
+                this.children[base + a] = 0;
+            }
+            this.visits[node] = 0;
+            this.value[node] = 0;
+        }
+
+        private int nextInt(int bound) {
+            this.seed ^= this.seed << 13;
+            this.seed ^= this.seed >>> 7;
+            this.seed ^= this.seed << 17;
+            return (int) ((this.seed >>> 33) % bound);
+        }
+
+    }
+
+}
+
+/**
+ * Measures rollout throughput of the planner on a standard arena.
+ * Usage: java gameobjects.PlannerBenchmark [cores] [budgetMillis] [plans]
+ */
+class PlannerBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int cores = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+        long budget = args.length > 1 ? Long.parseLong(args[1]) : 16;
+        int plans = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+
+        ForwardModel model = ForwardModel.fromMap(MapFile.arena(15, 13), 42);
+        ForkJoinPool pool = new ForkJoinPool(cores);
+        MctsPlanner planner = new MctsPlanner(pool, 0, budget);
+
+        // Warm up before measuring
+        for (int i = 0; i < plans / 4; i++) {
+            planner.plan(model);
+        }
+
+        long rollouts = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < plans; i++) {
+            planner.plan(model);
+            rollouts += planner.getLastRollouts();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        pool.shutdown();
+
+        System.out.printf("Cores: %d, Budget: %d ms, Plans: %d%n", cores, budget, plans);
+        System.out.printf("Rollouts/sec: %.0f, Rollouts/sec per core: %.0f%n", rollouts / seconds, rollouts / seconds / cores);
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import util.MapFile;
+import util.Scoring;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Gym style reinforcement learning environment that steps many headless worlds in lockstep.
+ * Every bomber in every world is controlled by the caller. Observations are written as per tile channel planes
+ * straight into a caller provided direct buffer, and worlds that finish are reset automatically.
+ * Nothing is allocated while stepping; the worker tasks are created once and reinitialized every step.
+ *
+ * Worlds move by the rules of ForwardModel, which approximates the game without kicking or corner smoothing.
+ * Rewards and dones are not approximated: a world is done when the game's Scoring rule sets the round, the winner
+ * is rewarded the point the game's HUD would give, and a bomber is penalized on the tick it dies.
+ */
+public class VectorEnv {
+
+    // Observation channels, followed by one plane per bomber
+    public static final int CHANNEL_HARD_WALL = 0;
+    public static final int CHANNEL_SOFT_WALL = 1;
+    public static final int CHANNEL_BOMB = 2;         // Fraction of the default fuse left
+    public static final int CHANNEL_BLAST = 3;        // Fraction of the explosion left
+    public static final int CHANNEL_POWERUP = 4;      // (type + 1) / 7
+    public static final int CHANNEL_BOMBERS = 5;
+
+    public static final int MAX_TICKS = 60 * 120;     // Rounds are cut off after two minutes
+
+    private final ForwardModel[] worlds;
+    private final ForwardModel[] templates;
+    private final boolean[] wasAlive;
+    private final int[] resets;
+    private final int players;
+    private final int channels;
+    private final int planeSize;
+    private final int observationSize;
+
+    private final ForkJoinPool pool;
+    private final StepAll stepAll;
+
+    // Arguments of the step in progress
+    private int[] actions;
+    private FloatBuffer observations;
+    private float[] rewards;
+    private boolean[] dones;
+    private boolean resetOnly;
+
+    /**
+     * Create a set of isolated worlds from the same map. Soft wall placement differs per world.
+     * @param mapFile Parsed map
+     * @param worldCount Number of worlds to step in lockstep, at least 1
+     * @param seed Base seed for soft walls and powerup drops
+     * @param pool Pool the worlds are stepped in
+     */
+    public VectorEnv(MapFile mapFile, int worldCount, long seed, ForkJoinPool pool) {
+        if (worldCount < 1) {
+            throw new IllegalArgumentException("At least one world is needed, got " + worldCount);
+        }
+        this.worlds = new ForwardModel[worldCount];
+        this.templates = new ForwardModel[worldCount];
+        for (int i = 0; i < worldCount; i++) {
+            this.templates[i] = ForwardModel.fromMap(mapFile, seed + i * 0x9E3779B97F4A7C15L);
+            this.worlds[i] = this.templates[i].copy();
+        }
+
+        ForwardModel first = this.worlds[0];
+        this.players = first.players;
+        this.wasAlive = new boolean[worldCount * this.players];
+        this.resets = new int[worldCount];
+        this.channels = CHANNEL_BOMBERS + this.players;
+        this.planeSize = first.width * first.height;
+        this.observationSize = this.channels * this.planeSize;
+
+        this.pool = pool;
+        this.stepAll = new StepAll(Math.min(worldCount, pool.getParallelism()));
+    }
+
+    public int getWorldCount() {
+        return this.worlds.length;
+    }
+
+    public int getPlayers() {
+        return this.players;
+    }
+
+    public int getChannels() {
+        return this.channels;
+    }
+
+    /**
+     * Number of floats written per world: channels * map height * map width.
+     * @return Observation size of a single world
+     */
+    public int getObservationSize() {
+        return this.observationSize;
+    }
+
+    /**
+     * Reset every world and write the first observations.
+     * @param observations Direct buffer with room for getWorldCount() * getObservationSize() floats
+     */
+    public void reset(FloatBuffer observations) {
+        this.checkBuffer(observations);
+        for (int w = 0; w < this.worlds.length; w++) {
+            this.resetWorld(w);
+        }
+        this.observations = observations;
+        this.resetOnly = true;
+        this.pool.invoke(this.stepAll.prepare());
+    }
+
+    /**
+     * Advance every world by one tick.
+     * @param actions One ForwardModel action per bomber per world, world major
+     * @param observations Direct buffer with room for getWorldCount() * getObservationSize() floats
+     * @param rewards One reward per bomber per world, world major
+     * @param dones One flag per world, true when the world finished this tick and was reset
+     */
+    public void step(int[] actions, FloatBuffer observations, float[] rewards, boolean[] dones) {
+        this.checkBuffer(observations);
+        this.actions = actions;
+        this.observations = observations;
+        this.rewards = rewards;
+        this.dones = dones;
+        this.resetOnly = false;
+        this.pool.invoke(this.stepAll.prepare());
+    }
+
+    /**
+     * Number of rounds started across all worlds, including the initial reset.
+     * @return Episode count
+     */
+    public long getEpisodes() {
+        long episodes = 0;
+        for (int count : this.resets) {
+            episodes += count;
+        }
+        return episodes;
+    }
+
+    private void checkBuffer(FloatBuffer observations) {
+        if (!observations.isDirect() || observations.capacity() < this.worlds.length * this.observationSize) {
+            throw new IllegalArgumentException("Observations must be a direct buffer of at least "
+                    + this.worlds.length * this.observationSize + " floats");
+        }
+    }
+
+    private void resetWorld(int w) {
+        // Same walls every round of a world, different powerup drops
+        ForwardModel world = this.worlds[w];
+        world.copyFrom(this.templates[w]);
+        world.seed ^= ++this.resets[w] * 0xBF58476D1CE4E5B9L;
+        if (world.seed == 0) {
+            world.seed = 1;
+        }
+        System.arraycopy(world.alive, 0, this.wasAlive, w * this.players, this.players);
+    }
+
+    /**
+     * Step a single world, score it, and write its observation.
+     * @param w World index
+     */
+    private void stepWorld(int w) {
+        ForwardModel world = this.worlds[w];
+        int base = w * this.players;
+
+        if (!this.resetOnly) {
+            // Actions are read straight from the caller's array at this world's offset
+            world.stepFrom(this.actions, base);
+
+            // Dying is penalized the tick it happens, same as Bomber.isDead turning true
+            for (int p = 0; p < this.players; p++) {
+                boolean alive = world.alive[p];
+                this.rewards[base + p] = this.wasAlive[base + p] && !alive ? -1 : 0;
+                this.wasAlive[base + p] = alive;
+            }
+
+            // Last bomber standing scores a point, the rule GameHUD.updateScore scores players by
+            int winner = Scoring.winner(world.alive, this.players);
+            if (winner >= 0) {
+                this.rewards[base + winner] += 1;
+            }
+            boolean done = winner != Scoring.PLAYING || world.tick >= MAX_TICKS;
+            this.dones[w] = done;
+            if (done) {
+                this.resetWorld(w);
+            }
+        }
+
+        this.writeObservation(world, w * this.observationSize);
+    }
+
+    private void writeObservation(ForwardModel world, int offset) {
+        FloatBuffer out = this.observations;
+        int plane = this.planeSize;
+
+        for (int tile = 0; tile < plane; tile++) {
+            byte code = world.tiles[tile];
+            out.put(offset + CHANNEL_HARD_WALL * plane + tile, code == ForwardModel.HARD ? 1 : 0);
+            out.put(offset + CHANNEL_SOFT_WALL * plane + tile, code == ForwardModel.SOFT ? 1 : 0);
+            out.put(offset + CHANNEL_BOMB * plane + tile, 0);
+            out.put(offset + CHANNEL_BLAST * plane + tile, world.flames[tile] / (float) ForwardModel.FLAME_TICKS);
+            out.put(offset + CHANNEL_POWERUP * plane + tile, code == ForwardModel.POWERUP ? (world.powerups[tile] + 1) / 7f : 0);
+            for (int p = 0; p < this.players; p++) {
+                out.put(offset + (CHANNEL_BOMBERS + p) * plane + tile, 0);
+            }
+        }
+
+        for (int b = 0; b < world.bombCount; b++) {
+            out.put(offset + CHANNEL_BOMB * plane + world.bombTile[b], Math.min(1, world.bombFuse[b] / 250f));
+        }
+
+        for (int p = 0; p < this.players; p++) {
+            if (world.alive[p]) {
+                int tile = world.tileAt(world.x[p] + ForwardModel.SIZE / 2f, world.y[p] + ForwardModel.SIZE / 2f);
+                if (tile >= 0) {
+                    out.put(offset + (CHANNEL_BOMBERS + p) * plane + tile, 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Root task that fans the worlds out to one chunk per worker.
+     */
+    private class StepAll extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Chunk[] chunks;
+
+        StepAll(int chunkCount) {
+            this.chunks = new Chunk[chunkCount];
+            int perChunk = (worlds.length + chunkCount - 1) / chunkCount;
+            for (int i = 0; i < chunkCount; i++) {
+                this.chunks[i] = new Chunk(i * perChunk, Math.min(worlds.length, (i + 1) * perChunk));
+            }
+        }
+
+        StepAll prepare() {
+            this.reinitialize();
+            return this;
+        }
+
+        @Override
+        protected void compute() {
+            for (Chunk chunk : this.chunks) {
+                chunk.reinitialize();
+            }
+            invokeAll(this.chunks);
+        }
+
+    }
+
+    private class Chunk extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+
+        Chunk(int from, int to) {
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            for (int w = this.from; w < this.to; w++) {
+                stepWorld(w);
+            }
+        }
+
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import util.MapFile;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Checks of the environment API that training code depends on: observations after a reset, rewards and dones taken
+ * from the game's scoring, and automatic reset of finished worlds. Exits with status 1 when a check fails.
+ *
+ * Usage: java gameobjects.VectorEnvTest
+ */
+public class VectorEnvTest {
+
+    // Two bombers in a corridor, too far apart for a bomb of firepower 1 to reach the other one
+    private static final String CORRIDOR = "H,H,H,H,H,H,H\nH,1,,,,2,H\nH,H,H,H,H,H,H\n";
+
+    public static void main(String[] args) throws IOException {
+        int failures = 0;
+        failures += check("No worlds is rejected", rejectsNoWorlds());
+        failures += check("Reset writes walls and bombers", resetWritesObservation());
+        failures += check("Dying and winning are rewarded once", roundIsScored());
+        failures += check("Finished world starts a new round", finishedWorldResets());
+        System.out.println(failures == 0 ? "All checks passed" : failures + " checks failed");
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    private static int check(String name, boolean passed) {
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+        return passed ? 0 : 1;
+    }
+
+    private static VectorEnv corridor(int worlds) throws IOException {
+        MapFile map = MapFile.parseCsv(ByteBuffer.wrap(CORRIDOR.getBytes()));
+        return new VectorEnv(map, worlds, 1, ForkJoinPool.commonPool());
+    }
+
+    private static FloatBuffer observations(VectorEnv env) {
+        int floats = env.getWorldCount() * env.getObservationSize();
+        return ByteBuffer.allocateDirect(floats * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    private static float plane(FloatBuffer observations, int channel, int tile) {
+        return observations.get(channel * 3 * 7 + tile);
+    }
+
+    static boolean rejectsNoWorlds() throws IOException {
+        try {
+            corridor(0);
+            return false;
+        } catch (IllegalArgumentException e) {
+            return true;
+        }
+    }
+
+    /**
+     * The first observation shows the hard walls of the map and each bomber on its spawn tile.
+     */
+    static boolean resetWritesObservation() throws IOException {
+        VectorEnv env = corridor(2);
+        FloatBuffer observations = observations(env);
+        env.reset(observations);
+        return env.getChannels() == VectorEnv.CHANNEL_BOMBERS + 2
+                && plane(observations, VectorEnv.CHANNEL_HARD_WALL, 0) == 1
+                && plane(observations, VectorEnv.CHANNEL_HARD_WALL, 8) == 0
+                && plane(observations, VectorEnv.CHANNEL_BOMBERS, 8) == 1
+                && plane(observations, VectorEnv.CHANNEL_BOMBERS + 1, 12) == 1
+                && env.getEpisodes() == 2;
+    }
+
+    /**
+     * The first bomber sits on its own bomb. Nothing is rewarded until the bomb goes off, then the first bomber is
+     * penalized for dying and the second scores the round, on the tick the world is done.
+     */
+    static boolean roundIsScored() throws IOException {
+        VectorEnv env = corridor(1);
+        FloatBuffer observations = observations(env);
+        float[] rewards = new float[2];
+        boolean[] dones = new boolean[1];
+        env.reset(observations);
+
+        int[] actions = { ForwardModel.BOMB, ForwardModel.NONE };
+        for (int tick = 0; tick < 1000; tick++) {
+            env.step(actions, observations, rewards, dones);
+            actions[0] = ForwardModel.NONE;
+            if (dones[0]) {
+                return tick > 200 && rewards[0] == -1 && rewards[1] == 1;
+            }
+            if (rewards[0] != 0 || rewards[1] != 0) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The observation handed back with a done is the first of the next round, with both bombers back on their spawns
+     * and no bomb left.
+     */
+    static boolean finishedWorldResets() throws IOException {
+        VectorEnv env = corridor(1);
+        FloatBuffer observations = observations(env);
+        float[] rewards = new float[2];
+        boolean[] dones = new boolean[1];
+        env.reset(observations);
+
+        int[] actions = { ForwardModel.BOMB, ForwardModel.NONE };
+        for (int tick = 0; tick < 1000 && !dones[0]; tick++) {
+            env.step(actions, observations, rewards, dones);
+            actions[0] = ForwardModel.NONE;
+        }
+        float bombs = 0;
+        for (int tile = 0; tile < 3 * 7; tile++) {
+            bombs += plane(observations, VectorEnv.CHANNEL_BOMB, tile);
+        }
+        return dones[0] && env.getEpisodes() == 2 && bombs == 0
+                && plane(observations, VectorEnv.CHANNEL_BOMBERS, 8) == 1
+                && plane(observations, VectorEnv.CHANNEL_BOMBERS + 1, 12) == 1;
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import java.awt.geom.Point2D;
+
+/**
+ * Tile-indexed lookup of every tile object on the map. Each tile holds a short chain of the objects registered on it,
+ * which is usually a single bomb, powerup, or burning wall. Standing walls are kept in Terrain instead. Changes in tile occupancy are reported here and passed on to
+ * the pathfinding fields so the rest of the game only has to report spawns, moves, and removals once.
+ */
+public class TileIndex {
+
+    private static int mapWidth;
+    private static int mapHeight;
+    private static TileObject[] tiles;
+
+    /**
+     * Clear the index for a newly generated map. Called before any tile objects are spawned.
+     * @param width Map width in tiles
+     * @param height Map height in tiles
+     */
+    public static void init(int width, int height) {
+        mapWidth = width;
+        mapHeight = height;
+        tiles = new TileObject[width * height];
+        FlowField.init(width, height);
+        BlastRange.init(width, height);
+        Terrain.init(width, height);
+        TileObject.clearBurnedOut();
+    }
+
+    public static int getMapWidth() {
+        return mapWidth;
+    }
+
+    public static int getMapHeight() {
+        return mapHeight;
+    }
+
+    /**
+     * Register a tile object that was just spawned on the tile it is aligned to.
+     * @param obj Wall, bomb, or powerup that was spawned
+     */
+    public static void onSpawn(TileObject obj) {
+        if (tiles == null) {
+            return;
+        }
+        int tile = tileAt(obj.position);
+        if (tile < 0) {
+            return;
+        }
+        add(obj, tile);
+        FlowField.onSpawn(obj, tile);
+    }
+
+    /**
+     * Unregister a tile object that was destroyed.
+     * @param obj Wall, bomb, or powerup that was destroyed
+     */
+    static void onDestroy(TileObject obj) {
+        int tile = obj.tile;
+        if (tiles == null || tile < 0) {
+            return;
+        }
+        remove(obj);
+        FlowField.onDestroy(obj, tile);
+    }
+
+    /**
+     * Register a tile object that is paged in from a chunk. Its terrain is already known to the pathfinding fields.
+     * @param obj Wall or powerup that was paged in
+     */
+    static void onPageIn(TileObject obj) {
+        int tile = tileAt(obj.position);
+        if (tiles != null && tile >= 0) {
+            add(obj, tile);
+        }
+    }
+
+    /**
+     * Unregister a tile object that is paged out with its chunk. Its terrain stays known to the pathfinding fields.
+     * @param obj Wall or powerup that was paged out
+     */
+    static void onPageOut(TileObject obj) {
+        if (tiles != null && obj.tile >= 0) {
+            remove(obj);
+        }
+    }
+
+    /**
+     * Move a tile object such as a kicked bomb to the tile it is now on.
+     * @param obj Tile object that moved
+     * @param tile Tile index it is now on, -1 when outside the map
+     */
+    static void onMove(TileObject obj, int tile) {
+        int from = obj.tile;
+        if (tiles == null || from == tile) {
+            return;
+        }
+        if (from >= 0) {
+            remove(obj);
+        }
+        if (tile >= 0) {
+            add(obj, tile);
+        }
+        FlowField.onMove(from, tile);
+    }
+
+    /**
+     * Get the first tile object on a tile. Use TileObject.nextInTile to walk the rest of the objects on the tile.
+     * @param x Column
+     * @param y Row
+     * @return First tile object, null if the tile is empty or outside the map
+     */
+    public static TileObject get(int x, int y) {
+        if (tiles == null || x < 0 || y < 0 || x >= mapWidth || y >= mapHeight) {
+            return null;
+        }
+        return tiles[y * mapWidth + x];
+    }
+
+    /**
+     * Get the tile index of a position in the game world.
+     * @param position Coordinates in the game world
+     * @return Index into the tile arrays, -1 if outside the map
+     */
+    static int tileAt(Point2D.Float position) {
+        int x = (int) Math.floor(position.x / 32);
+        int y = (int) Math.floor(position.y / 32);
+        if (x < 0 || y < 0 || x >= mapWidth || y >= mapHeight) {
+            return -1;
+        }
+        return y * mapWidth + x;
+    }
+
+    private static void add(TileObject obj, int tile) {
+        obj.tile = tile;
+        obj.nextInTile = tiles[tile];
+        tiles[tile] = obj;
+        BlastRange.invalidate(tile);
+    }
+
+    private static void remove(TileObject obj) {
+        TileObject previous = null;
+        for (TileObject current = tiles[obj.tile]; current != null; current = current.nextInTile) {
+            if (current == obj) {
+                if (previous == null) {
+                    tiles[obj.tile] = current.nextInTile;
+                } else {
+                    previous.nextInTile = current.nextInTile;
+                }
+                break;
+            }
+            previous = current;
+        }
+        BlastRange.invalidate(obj.tile);
+        obj.tile = -1;
+        obj.nextInTile = null;
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import util.GameObjectCollection;
+import util.Log;
+import util.MapFile;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Streams the powerups of huge maps in and out of the game in fixed size chunks.
+ * Walls of the whole arena go into Terrain up front, powerups are kept as one byte per tile in a memory mapped chunk
+ * file. Chunks near bombers, bombs, and the camera are paged in as live powerups, and chunks that have not been needed
+ * for a while are evicted in least recently used order after writing their current state back to the file. Only the
+ * paged in chunks hold game objects, so the number of tile objects stays bounded no matter the map size.
+ */
+public class ChunkStreamer {
+
+    public static final int CHUNK_SIZE = 32;         // Tiles per side of a chunk
+    private static final int CHUNK_BYTES = CHUNK_SIZE * CHUNK_SIZE;
+    private static final int ACTIVE_RADIUS = 1;      // Chunks around each bomber and bomb kept paged in
+    private static final int UPDATE_INTERVAL = 15;   // Ticks between streaming updates
+
+    private final int mapWidth;
+    private final int mapHeight;
+    private final int chunksX;
+    private final int chunksY;
+    private final int capacity;
+    private final MappedByteBuffer terrain;
+
+    // Paged in chunks in access order, the eldest is evicted first
+    private final LinkedHashMap<Integer, Chunk> chunks;
+    private int ticks;
+    private int updates;
+
+    // Chunk file kept from round to round while the map size stays the same
+    private static File chunkFile;
+    private static MappedByteBuffer chunkBuffer;
+
+    private static class Chunk {
+        final int index;
+        int activeUpdate;
+
+        Chunk(int index) {
+            this.index = index;
+        }
+    }
+
+    /**
+     * Place the walls of a map and write its powerups into the chunk file. Soft walls are placed at random the same
+     * way GamePanel.generateMap places them. Must be called after the tile index is initialized for the map.
+     * The chunk file is shared with the streamer of the previous round, which must no longer be used.
+     * @param mapFile Parsed map
+     * @param softWallRate Chance for each soft wall tile to contain a soft wall
+     * @param capacity Maximum number of chunks paged in at once, chunks in use are never evicted
+     * @throws IOException When the chunk file cannot be created
+     */
+    public ChunkStreamer(MapFile mapFile, double softWallRate, int capacity) throws IOException {
+        this.mapWidth = mapFile.getWidth();
+        this.mapHeight = mapFile.getHeight();
+        this.chunksX = (this.mapWidth + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        this.chunksY = (this.mapHeight + CHUNK_SIZE - 1) / CHUNK_SIZE;
+        this.capacity = capacity;
+        this.chunks = new LinkedHashMap<>(16, 0.75f, true);
+
+        this.terrain = mapChunkFile((long) this.chunksX * this.chunksY * CHUNK_BYTES);
+
+        for (int y = 0; y < this.mapHeight; y++) {
+            for (int x = 0; x < this.mapWidth; x++) {
+                byte code = mapFile.getTile(x, y);
+                if (code == MapFile.HARD) {
+                    Terrain.addHard(x, y);
+                } else if (code == MapFile.SOFT) {
+                    if (MatchRandom.nextDouble() < softWallRate) {
+                        Terrain.addSoft(x, y);
+                    }
+                } else if (code >= MapFile.POWER_BOMB && code <= MapFile.POWER_TIMER) {
+                    this.terrain.put(this.offset(x, y), code);
+                    // Pathfinding sees the whole arena even where no objects are paged in
+                    FlowField.addTile(y * this.mapWidth + x, true, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get an empty chunk file of the given size. The file of the previous round is erased and reused when it has the
+     * same size, otherwise it is deleted and a new one is created.
+     * @param size Size of the file in bytes
+     * @return Memory mapped contents of the file, all zero
+     * @throws IOException When the chunk file cannot be created
+     */
+    private static MappedByteBuffer mapChunkFile(long size) throws IOException {
+        if (chunkBuffer != null && chunkBuffer.capacity() == size) {
+            ByteBuffer erase = chunkBuffer.duplicate();
+            erase.clear();
+            byte[] zeros = new byte[CHUNK_BYTES];
+            while (erase.hasRemaining()) {
+                erase.put(zeros);
+            }
+            return chunkBuffer;
+        }
+
+        if (chunkFile != null) {
+            // The old mapping is released when it is collected, the file can go now
+            chunkBuffer = null;
+            if (!chunkFile.delete()) {
+                Log.warn("Cannot delete chunk file").field("file", chunkFile).publish();
+            }
+            chunkFile = null;
+        }
+
+        File file = File.createTempFile("arena", ".chunks");
+        file.deleteOnExit();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            chunkBuffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        chunkFile = file;
+        return chunkBuffer;
+    }
+
+    /**
+     * Called every tick. Every few ticks, pages in the chunks around bombers, bombs, and the viewport and
+     * evicts the least recently used chunks that are no longer needed.
+     * @param viewX Left edge of the viewport in the game world
+     * @param viewY Top edge of the viewport in the game world
+     * @param viewWidth Viewport width in pixels
+     * @param viewHeight Viewport height in pixels
+     */
+    public void update(int viewX, int viewY, int viewWidth, int viewHeight) {
+        if (this.ticks++ % UPDATE_INTERVAL != 0) {
+            return;
+        }
+        this.updates++;
+
+        // Chunks around every bomber still in play
+        for (int i = 0; i < GameObjectCollection.bomberObjects.size(); i++) {
+            Bomber bomber = GameObjectCollection.bomberObjects.get(i);
+            this.activateAround(bomber.getColliderCenter());
+        }
+
+        // Chunks around every bomb, kicked bombs can travel far
+        for (int i = 0; i < GameObjectCollection.tileObjects.size(); i++) {
+            TileObject obj = GameObjectCollection.tileObjects.get(i);
+            if (obj instanceof Bomb) {
+                this.activateAround(obj.getColliderCenter());
+            }
+        }
+
+        // Chunks in view
+        int firstX = Math.max(0, viewX / 32 / CHUNK_SIZE);
+        int firstY = Math.max(0, viewY / 32 / CHUNK_SIZE);
+        int lastX = Math.min(this.chunksX - 1, (viewX + viewWidth) / 32 / CHUNK_SIZE);
+        int lastY = Math.min(this.chunksY - 1, (viewY + viewHeight) / 32 / CHUNK_SIZE);
+        for (int cy = firstY; cy <= lastY; cy++) {
+            for (int cx = firstX; cx <= lastX; cx++) {
+                this.activate(cy * this.chunksX + cx);
+            }
+        }
+
+        this.evict();
+    }
+
+    /**
+     * Number of chunks currently paged in.
+     * @return Live chunk count
+     */
+    public int getLiveChunks() {
+        return this.chunks.size();
+    }
+
+    private void activateAround(Point2D.Float position) {
+        int cx = (int) (position.x / 32) / CHUNK_SIZE;
+        int cy = (int) (position.y / 32) / CHUNK_SIZE;
+        for (int y = Math.max(0, cy - ACTIVE_RADIUS); y <= Math.min(this.chunksY - 1, cy + ACTIVE_RADIUS); y++) {
+            for (int x = Math.max(0, cx - ACTIVE_RADIUS); x <= Math.min(this.chunksX - 1, cx + ACTIVE_RADIUS); x++) {
+                this.activate(y * this.chunksX + x);
+            }
+        }
+    }
+
+    private void activate(int index) {
+        Chunk chunk = this.chunks.get(index);
+        if (chunk == null) {
+            chunk = new Chunk(index);
+            this.chunks.put(index, chunk);
+            this.pageIn(chunk);
+        }
+        chunk.activeUpdate = this.updates;
+    }
+
+    /**
+     * Evict the least recently used chunks over capacity. Chunks that are needed this update or have bombs,
+     * burning walls, or burning powerups in them are skipped.
+     */
+    private void evict() {
+        if (this.chunks.size() <= this.capacity) {
+            return;
+        }
+
+        HashSet<TileObject> evicted = new HashSet<>();
+        Iterator<Chunk> iterator = this.chunks.values().iterator();
+        while (this.chunks.size() > this.capacity && iterator.hasNext()) {
+            Chunk chunk = iterator.next();
+            if (chunk.activeUpdate == this.updates || this.isBusy(chunk)) {
+                continue;
+            }
+            this.pageOut(chunk, evicted);
+            iterator.remove();
+        }
+
+        if (!evicted.isEmpty()) {
+            GameObjectCollection.tileObjects.removeAll(evicted);
+            for (TileObject obj : evicted) {
+                Pools.release(obj);
+            }
+        }
+    }
+
+    private boolean isBusy(Chunk chunk) {
+        int originX = chunk.index % this.chunksX * CHUNK_SIZE;
+        int originY = chunk.index / this.chunksX * CHUNK_SIZE;
+        for (int y = originY; y < Math.min(this.mapHeight, originY + CHUNK_SIZE); y++) {
+            for (int x = originX; x < Math.min(this.mapWidth, originX + CHUNK_SIZE); x++) {
+                for (TileObject obj = TileIndex.get(x, y); obj != null; obj = obj.nextInTile) {
+                    if (!(obj instanceof Powerup) || obj.explosionContact != null || obj.isDestroyed()) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Create live powerups for every stored tile in the chunk.
+     */
+    private void pageIn(Chunk chunk) {
+        int originX = chunk.index % this.chunksX * CHUNK_SIZE;
+        int originY = chunk.index / this.chunksX * CHUNK_SIZE;
+        for (int y = originY; y < Math.min(this.mapHeight, originY + CHUNK_SIZE); y++) {
+            for (int x = originX; x < Math.min(this.mapWidth, originX + CHUNK_SIZE); x++) {
+                byte stored = this.terrain.get(this.offset(x, y));
+                if (stored >= MapFile.POWER_BOMB && stored <= MapFile.POWER_TIMER) {
+                    Powerup powerup = Pools.powerup(new Point2D.Float(x * 32, y * 32), Powerup.Type.values()[stored - MapFile.POWER_BOMB]);
+                    GameObjectCollection.spawn(powerup);
+                    TileIndex.onPageIn(powerup);
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the current state of every tile in the chunk back to the file and release its objects.
+     */
+    private void pageOut(Chunk chunk, HashSet<TileObject> evicted) {
+        int originX = chunk.index % this.chunksX * CHUNK_SIZE;
+        int originY = chunk.index / this.chunksX * CHUNK_SIZE;
+        for (int y = originY; y < Math.min(this.mapHeight, originY + CHUNK_SIZE); y++) {
+            for (int x = originX; x < Math.min(this.mapWidth, originX + CHUNK_SIZE); x++) {
+                int offset = this.offset(x, y);
+                byte stored = this.terrain.get(offset);
+                byte current = MapFile.EMPTY;
+
+                TileObject obj = TileIndex.get(x, y);
+                while (obj != null) {
+                    TileObject next = obj.nextInTile;
+                    if (obj instanceof Powerup) {
+                        current = (byte) (MapFile.POWER_BOMB + ((Powerup) obj).getType().ordinal());
+                    }
+                    TileIndex.onPageOut(obj);
+                    evicted.add(obj);
+                    obj = next;
+                }
+
+                // Powerups collected while paged in and dropped by burnt walls are written back here
+                if (current != stored) {
+                    this.terrain.put(offset, current);
+                }
+            }
+        }
+    }
+
+    /**
+     * Chunk major offset so that every chunk is a contiguous block in the file.
+     */
+    private int offset(int x, int y) {
+        int chunk = (y / CHUNK_SIZE) * this.chunksX + (x / CHUNK_SIZE);
+        return chunk * CHUNK_BYTES + (y % CHUNK_SIZE) * CHUNK_SIZE + (x % CHUNK_SIZE);
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayDeque;
+
+/**
+ * Resolves chain reactions of bombs. When a bomb explodes, bombs inside its explosions are found with tile index
+ * lookups instead of waiting for the collision sweep, and a whole cascade costs one lookup for each tile covered by
+ * each explosion.
+ * The delay between links of a chain can be set in ticks with the system property bomberman.chain.delay. The default
+ * of 1 keeps the timing of chains spreading through collisions, one tick per link. 0 is opt-in and detonates the whole
+ * cascade in the tick the first bomb explodes.
+ */
+public class DetonationResolver {
+
+    public static final String DELAY_PROPERTY = "bomberman.chain.delay";
+
+    private static int chainDelay = Math.max(0, Integer.getInteger(DELAY_PROPERTY, 1));
+
+    // Bombs caught in a cascade that still have to explode
+    private static final ArrayDeque<Bomb> pending = new ArrayDeque<>();
+    private static boolean resolving = false;
+    private static boolean enabled = true;
+
+    public static int getChainDelay() {
+        return chainDelay;
+    }
+
+    /**
+     * Set the ticks between links of a chain reaction.
+     * @param ticks 0 to resolve a whole cascade in one tick
+     */
+    public static void setChainDelay(int ticks) {
+        chainDelay = Math.max(0, ticks);
+    }
+
+    /**
+     * Turn the resolver on or off. With the resolver off bombs are only set off by the explosions that collide with
+     * them, which is the reference the resolver is checked against with a chain delay of 1.
+     * @param on true to look up the bombs caught in each explosion
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Called by a bomb after it spawns its explosions. Sets off every bomb the explosions reach, and every bomb those
+     * reach in turn, before returning.
+     * @param bomb Bomb that exploded
+     * @param explosions Explosions spawned by the bomb
+     */
+    static void detonated(Bomb bomb, Explosion... explosions) {
+        if (!enabled) {
+            return;
+        }
+        int depth = bomb.getChainDepth() + 1;
+        for (Explosion explosion : explosions) {
+            Rectangle2D area = explosion.getCollider();
+            int firstX = (int) Math.floor(area.getMinX() / 32);
+            int firstY = (int) Math.floor(area.getMinY() / 32);
+            int lastX = (int) Math.floor((area.getMaxX() - 1) / 32);
+            int lastY = (int) Math.floor((area.getMaxY() - 1) / 32);
+            for (int y = firstY; y <= lastY; y++) {
+                for (int x = firstX; x <= lastX; x++) {
+                    for (TileObject obj = TileIndex.get(x, y); obj != null; obj = obj.getNextInTile()) {
+                        if (obj instanceof Bomb && obj != bomb && !obj.isDestroyed()) {
+                            chain((Bomb) obj, depth);
+                        }
+                    }
+                }
+            }
+        }
+
+        if (resolving) {
+            return;
+        }
+        resolving = true;
+        try {
+            while (!pending.isEmpty()) {
+                pending.poll().detonate();
+            }
+        } finally {
+            resolving = false;
+        }
+    }
+
+    private static void chain(Bomb bomb, int depth) {
+        if (chainDelay == 0) {
+            bomb.setChainDepth(depth);
+            bomb.destroy();
+            pending.add(bomb);
+        } else {
+            bomb.shortenFuse(depth, chainDelay);
+        }
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+/**
+ * Cache of how far explosions reach from each tile. For every tile and direction it keeps the distance to the nearest
+ * hard wall and to the nearest breakable tile object, so the extent of an explosion is a few array reads instead of a
+ * scan over every tile object. Entries are computed on first use and cleared along the row and column of any tile
+ * whose occupancy changes in the tile index.
+ * Powerups do not stop explosions, matching the ray casts this replaces.
+ */
+public class BlastRange {
+
+    // Directions
+    public static final int UP = 0;
+    public static final int DOWN = 1;
+    public static final int LEFT = 2;
+    public static final int RIGHT = 3;
+
+    // Distances are packed into 4 bits, 0 means not computed and NONE means nothing within MAX_REACH
+    private static final int MAX_REACH = 14;
+    private static final int NONE = MAX_REACH + 1;
+
+    // Tile occupancy
+    private static final byte UNKNOWN = 0;
+    private static final byte EMPTY = 1;
+    private static final byte BREAKABLE = 2;
+    private static final byte HARD = 3;
+
+    private static int mapWidth;
+    private static int mapHeight;
+    private static byte[] occupancy;
+    private static byte[][] distances;      // Nearest hard wall in the high 4 bits, nearest breakable in the low 4 bits
+    private static boolean computed;        // Whether any distance was computed since the map was generated
+    private static boolean enabled = true;
+
+    /**
+     * Turn caching on or off. With caching off every reach is walked from the terrain and the tile index, which is
+     * the reference the cache is checked against.
+     * @param on true to cache distances and occupancy
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Clear the cache for a newly generated map. Called by the tile index.
+     * @param width Map width in tiles
+     * @param height Map height in tiles
+     */
+    static void init(int width, int height) {
+        mapWidth = width;
+        mapHeight = height;
+        occupancy = new byte[width * height];
+        distances = new byte[4][width * height];
+        computed = false;
+    }
+
+    /**
+     * Clear cached distances that pass through a tile whose occupancy changed.
+     * @param tile Tile index
+     */
+    static void invalidate(int tile) {
+        if (occupancy == null) {
+            return;
+        }
+        occupancy[tile] = UNKNOWN;
+        if (!computed) {
+            return;
+        }
+
+        int x = tile % mapWidth;
+        int y = tile / mapWidth;
+        int rowStart = y * mapWidth;
+        for (int i = Math.max(0, x - MAX_REACH); i <= Math.min(mapWidth - 1, x + MAX_REACH); i++) {
+            distances[LEFT][rowStart + i] = 0;
+            distances[RIGHT][rowStart + i] = 0;
+        }
+        for (int j = Math.max(0, y - MAX_REACH); j <= Math.min(mapHeight - 1, y + MAX_REACH); j++) {
+            distances[UP][j * mapWidth + x] = 0;
+            distances[DOWN][j * mapWidth + x] = 0;
+        }
+    }
+
+    /**
+     * Get how many tiles an explosion reaches from a tile in one direction.
+     * Without pierce the explosion covers the first breakable tile object and stops. With pierce it passes through
+     * breakables. Either way it stops before a hard wall.
+     * @param tile Tile index of the origin of the explosion
+     * @param direction UP, DOWN, LEFT, or RIGHT
+     * @param firepower Maximum range of the explosion
+     * @param pierce Whether or not the explosion pierces soft walls
+     * @return Number of tiles covered past the origin
+     */
+    static int reach(int tile, int direction, int firepower, boolean pierce) {
+        if (occupancy == null || tile < 0) {
+            return 0;
+        }
+
+        int packed = enabled ? distances[direction][tile] : 0;
+        if (packed == 0) {
+            packed = compute(tile, direction);
+            distances[direction][tile] = (byte) packed;
+            computed = true;
+        }
+        int hard = (packed >> 4) & 0xF;
+        int breakable = packed & 0xF;
+
+        int reach = hard - 1;
+        if (!pierce && breakable < hard) {
+            reach = breakable;
+        }
+        return Math.min(firepower, reach);
+    }
+
+    /**
+     * Walk from a tile to find the nearest hard wall and breakable tile object in a direction.
+     */
+    private static int compute(int tile, int direction) {
+        int x = tile % mapWidth;
+        int y = tile / mapWidth;
+        int dx = direction == LEFT ? -1 : direction == RIGHT ? 1 : 0;
+        int dy = direction == UP ? -1 : direction == DOWN ? 1 : 0;
+
+        int hard = NONE;
+        int breakable = NONE;
+        for (int distance = 1; distance <= MAX_REACH; distance++) {
+            x += dx;
+            y += dy;
+            if (x < 0 || y < 0 || x >= mapWidth || y >= mapHeight) {
+                break;  // Nothing outside the map stops an explosion
+            }
+            byte tileOccupancy = occupancy(y * mapWidth + x, x, y);
+            if (tileOccupancy == HARD) {
+                hard = distance;
+                break;
+            }
+            if (tileOccupancy == BREAKABLE && breakable == NONE) {
+                breakable = distance;
+            }
+        }
+        return hard << 4 | breakable;
+    }
+
+    private static byte occupancy(int tile, int x, int y) {
+        if (occupancy[tile] == UNKNOWN || !enabled) {
+            byte value = Terrain.isHard(x, y) ? HARD : Terrain.isSoft(x, y) ? BREAKABLE : EMPTY;
+            for (TileObject obj = TileIndex.get(x, y); obj != null && value != HARD; obj = obj.getNextInTile()) {
+                if (!obj.isBreakable()) {
+                    value = HARD;
+                    break;
+                }
+                if (!(obj instanceof Powerup)) {
+                    value = BREAKABLE;
+                }
+            }
+            occupancy[tile] = value;
+        }
+        return occupancy[tile];
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import util.GameObjectCollection;
+
+import java.awt.geom.Rectangle2D;
+
+/**
+ * Swept collision along one axis against the tile grid. Instead of moving first and pushing objects out of overlaps
+ * afterwards, a move is shortened to the distance at which the moving box touches the first solid object ahead of it,
+ * so objects cannot pass through each other at any speed or tick rate.
+ * Objects the box already overlaps are ignored, which lets bombers walk off a bomb they are standing on. Of two
+ * obstacles at the same distance the one with the top left corner first in reading order stops the move, so the
+ * result does not depend on the order obstacles are looked up in.
+ */
+public class Sweep {
+
+    private static final float EPSILON = 0.01f;
+
+    // Bomb alignment passed to distance for objects that are stopped by any bomb in the way
+    static final float BOMBS_ALWAYS_SOLID = Float.POSITIVE_INFINITY;
+
+    // Object that stopped the last sweep, null if the move was not blocked or a wall stopped it, and the box of
+    // whatever stopped it. Only used on the game thread.
+    private static GameObject lastHit;
+    private static final Rectangle2D.Float lastHitBox = new Rectangle2D.Float();
+    private static boolean blocked;
+    private static final Rectangle2D.Float tileBox = new Rectangle2D.Float();
+    private static final Rectangle2D.Float sweptBox = new Rectangle2D.Float();
+    private static boolean indexed = true;
+
+    /**
+     * Look up the objects in the way of a move in the tiles around it, or check every tile object on the map as the
+     * reference engine does.
+     * @param on true to use the tile index
+     */
+    public static void setIndexed(boolean on) {
+        indexed = on;
+    }
+
+    /**
+     * Get how far a box can move along one axis before touching a wall or bomb.
+     * @param box Collider of the moving object
+     * @param dx Horizontal move, 0 when moving vertically
+     * @param dy Vertical move, 0 when moving horizontally
+     * @param bombAlignment Bombs only block the move when their center is within this distance of the center of the box
+     *                      across the move
+     * @param self Moving object, never blocks itself
+     * @return Distance the box can move, between 0 and the length of the move
+     */
+    static float distance(Rectangle2D.Float box, float dx, float dy, float bombAlignment, GameObject self) {
+        lastHit = null;
+        blocked = false;
+        float length = Math.abs(dx + dy);
+        if (length == 0) {
+            return 0;
+        }
+
+        // Tiles the box sweeps through, with a margin for objects that are between tiles such as kicked bombs
+        Rectangle2D.Float swept = sweptArea(box, dx, dy, length);
+        int firstX = (int) Math.floor(swept.x / 32) - 1;
+        int firstY = (int) Math.floor(swept.y / 32) - 1;
+        int lastX = (int) Math.floor((swept.x + swept.width) / 32) + 1;
+        int lastY = (int) Math.floor((swept.y + swept.height) / 32) + 1;
+
+        float allowed = length;
+        for (int y = firstY; y <= lastY; y++) {
+            for (int x = firstX; x <= lastX; x++) {
+                if (Terrain.isWall(x, y)) {
+                    tileBox.setRect(x * 32, y * 32, 32, 32);
+                    allowed = hit(box, tileBox, dx, dy, allowed, null);
+                }
+                for (TileObject obj = indexed ? TileIndex.get(x, y) : null; obj != null; obj = obj.getNextInTile()) {
+                    allowed = hitObject(box, obj, dx, dy, bombAlignment, self, allowed);
+                }
+            }
+        }
+        if (!indexed) {
+            for (int i = 0; i < GameObjectCollection.tileObjects.size(); i++) {
+                allowed = hitObject(box, GameObjectCollection.tileObjects.get(i), dx, dy, bombAlignment, self, allowed);
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Shorten the allowed distance if a tile object that blocks the move is closer than anything found so far.
+     */
+    private static float hitObject(Rectangle2D.Float box, TileObject obj, float dx, float dy, float bombAlignment, GameObject self, float allowed) {
+        if (obj == self || obj instanceof Powerup || (obj instanceof Bomb && misalignment(box, obj.collider, dx) > bombAlignment)) {
+            return allowed;
+        }
+        return hit(box, obj.collider, dx, dy, allowed, obj);
+    }
+
+    /**
+     * Shorten the allowed distance if an obstacle is closer than anything found so far.
+     */
+    private static float hit(Rectangle2D.Float box, Rectangle2D.Float obstacle, float dx, float dy, float allowed, GameObject obj) {
+        float gap = gap(box, obstacle, dx, dy);
+        boolean tied = blocked && gap == allowed
+                && (obstacle.y < lastHitBox.y || obstacle.y == lastHitBox.y && obstacle.x < lastHitBox.x);
+        if (gap >= 0 && (gap < allowed || tied)) {
+            lastHit = obj;
+            lastHitBox.setRect(obstacle);
+            blocked = true;
+            return gap;
+        }
+        return allowed;
+    }
+
+    /**
+     * Shorten a move further so that the box stops at the first living bomber ahead of it that covers its center line.
+     * @param box Collider of the moving object
+     * @param dx Horizontal move, 0 when moving vertically
+     * @param dy Vertical move, 0 when moving horizontally
+     * @param allowed Distance already allowed by the tile grid
+     * @return Distance the box can move
+     */
+    static float distanceToBombers(Rectangle2D.Float box, float dx, float dy, float allowed) {
+        for (int i = 0; i < GameObjectCollection.bomberObjects.size(); i++) {
+            Bomber bomber = GameObjectCollection.bomberObjects.get(i);
+            if (bomber.isDead()) {
+                continue;
+            }
+            Rectangle2D.Float other = bomber.collider;
+            boolean onCenterLine = dx != 0
+                    ? other.y <= box.getCenterY() && box.getCenterY() <= other.y + other.height
+                    : other.x <= box.getCenterX() && box.getCenterX() <= other.x + other.width;
+            if (onCenterLine) {
+                allowed = hit(box, other, dx, dy, allowed, bomber);
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * @return Object that stopped the last sweep, null if the move was not blocked or a wall stopped it
+     */
+    static GameObject getLastHit() {
+        return lastHit;
+    }
+
+    /**
+     * @return Box of the wall or object that stopped the last sweep, null if the move was not blocked. The box is
+     * reused by the next sweep.
+     */
+    static Rectangle2D.Float getLastHitBox() {
+        return blocked ? lastHitBox : null;
+    }
+
+    /**
+     * Distance between the centers of two boxes across a move.
+     * @param box Collider of the moving object
+     * @param other Collider of the other object
+     * @param dx Horizontal move, 0 when moving vertically
+     * @return Distance in pixels
+     */
+    static float misalignment(Rectangle2D.Float box, Rectangle2D.Float other, float dx) {
+        return (float) (dx != 0 ? Math.abs(box.getCenterY() - other.getCenterY()) : Math.abs(box.getCenterX() - other.getCenterX()));
+    }
+
+    /**
+     * Distance from the leading edge of the box to an obstacle ahead of it along the move.
+     * @return Gap in pixels, -1 if the obstacle is not ahead or does not overlap the box across the move
+     */
+    private static float gap(Rectangle2D.Float box, Rectangle2D.Float obstacle, float dx, float dy) {
+        if (dx != 0) {
+            if (obstacle.y >= box.y + box.height || obstacle.y + obstacle.height <= box.y) {
+                return -1;
+            }
+            float gap = dx > 0 ? obstacle.x - (box.x + box.width) : box.x - (obstacle.x + obstacle.width);
+            return gap >= -EPSILON ? Math.max(0, gap) : -1;
+        } else {
+            if (obstacle.x >= box.x + box.width || obstacle.x + obstacle.width <= box.x) {
+                return -1;
+            }
+            float gap = dy > 0 ? obstacle.y - (box.y + box.height) : box.y - (obstacle.y + obstacle.height);
+            return gap >= -EPSILON ? Math.max(0, gap) : -1;
+        }
+    }
+
+    /**
+     * Get the area a box sweeps through. The area is shared scratch space, valid until the next sweep.
+     */
+    private static Rectangle2D.Float sweptArea(Rectangle2D.Float box, float dx, float dy, float length) {
+        if (dx > 0) {
+            sweptBox.setRect(box.x + box.width, box.y, length, box.height);
+        } else if (dx < 0) {
+            sweptBox.setRect(box.x - length, box.y, length, box.height);
+        } else if (dy > 0) {
+            sweptBox.setRect(box.x, box.y + box.height, box.width, length);
+        } else {
+            sweptBox.setRect(box.x, box.y - length, box.width, length);
+        }
+        return sweptBox;
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import util.ObjectPool;
+
+import java.awt.geom.Point2D;
+
+/**
+ * Pools for the short lived game objects that are created and destroyed all game long: bombs, explosions, and
+ * powerups. Objects are released by the game loop once they are destroyed and removed from the game object collection.
+ */
+public class Pools {
+
+    private static final ObjectPool<Bomb> bombs = new ObjectPool<>("bomb", 64);
+    private static final ObjectPool<Explosion.Horizontal> horizontals = new ObjectPool<>("explosion_horizontal", 64);
+    private static final ObjectPool<Explosion.Vertical> verticals = new ObjectPool<>("explosion_vertical", 64);
+    private static final ObjectPool<Powerup> powerups = new ObjectPool<>("powerup", 128);
+
+    private static boolean enabled = true;
+
+    static Bomb bomb(Point2D.Float position, int firepower, boolean pierce, int timer, Bomber bomber) {
+        Bomb bomb = bombs.acquire();
+        if (bomb == null) {
+            return new Bomb(position, firepower, pierce, timer, bomber);
+        }
+        bomb.reuse(position, firepower, pierce, timer, bomber);
+        if (ObjectPool.isVerifying()) {
+            ObjectPool.verify(bomb, new Bomb(position, firepower, pierce, timer, bomber));
+        }
+        return bomb;
+    }
+
+    static Explosion horizontal(Point2D.Float position, int firepower, boolean pierce) {
+        Explosion.Horizontal explosion = horizontals.acquire();
+        if (explosion == null) {
+            return new Explosion.Horizontal(position, firepower, pierce);
+        }
+        explosion.reuse(position, firepower, pierce);
+        if (ObjectPool.isVerifying()) {
+            ObjectPool.verify(explosion, new Explosion.Horizontal(position, firepower, pierce));
+        }
+        return explosion;
+    }
+
+    static Explosion vertical(Point2D.Float position, int firepower, boolean pierce) {
+        Explosion.Vertical explosion = verticals.acquire();
+        if (explosion == null) {
+            return new Explosion.Vertical(position, firepower, pierce);
+        }
+        explosion.reuse(position, firepower, pierce);
+        if (ObjectPool.isVerifying()) {
+            ObjectPool.verify(explosion, new Explosion.Vertical(position, firepower, pierce));
+        }
+        return explosion;
+    }
+
+    static Powerup powerup(Point2D.Float position, Powerup.Type type) {
+        Powerup powerup = powerups.acquire();
+        if (powerup == null) {
+            return new Powerup(position, type);
+        }
+        powerup.reuse(position, type);
+        if (ObjectPool.isVerifying()) {
+            ObjectPool.verify(powerup, new Powerup(position, type));
+        }
+        return powerup;
+    }
+
+    /**
+     * Drop every pooled object and turn pooling on or off. With pooling off every object is newly constructed, which
+     * is the reference that pooling is checked against.
+     * @param on true to reuse released objects
+     */
+    public static void setEnabled(boolean on) {
+        bombs.clear();
+        horizontals.clear();
+        verticals.clear();
+        powerups.clear();
+        enabled = on;
+    }
+
+    /**
+     * Return a game object to its pool. Objects that are not pooled are ignored.
+     * @param obj Game object that is no longer in the game object collection or the tile index
+     */
+    public static void release(GameObject obj) {
+        if (!enabled) {
+            return;
+        }
+        if (obj instanceof Bomb) {
+            bombs.release((Bomb) obj);
+        } else if (obj instanceof Explosion.Horizontal) {
+            horizontals.release((Explosion.Horizontal) obj);
+        } else if (obj instanceof Explosion.Vertical) {
+            verticals.release((Explosion.Vertical) obj);
+        } else if (obj instanceof Powerup) {
+            powerups.release((Powerup) obj);
+        }
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+/**
+ * Hierarchical timer wheel counted in game ticks. Game objects schedule a timer instead of counting ticks down in
+ * every update, and GameObject.onTimer is called on the tick the timer runs out.
+ * Timers are linked into their slot through fields on the game object, so scheduling, rescheduling, and cancelling
+ * are constant time and allocate nothing. Each object has at most one timer.
+ *
+ * The first level has one slot per tick for the next 64 ticks. Each of the other levels has slots 64 times as long as
+ * the level below, and its timers are moved down a level when their slot comes up.
+ */
+public class TimerWheel {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 3;
+    private static final long MAX_DELAY = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private static final GameObject[] slots = new GameObject[LEVELS * SLOTS];
+    private static long now;
+    private static boolean enabled = true;
+
+    /**
+     * Cancel every timer and turn the wheel on or off. With the wheel off timers are not linked into slots, and every
+     * game object runs out its own timer when the game loop updates it, like the countdowns objects kept before the
+     * timer wheel. That is the reference the timer wheel is checked against.
+     * @param on true to run out timers from the wheel
+     */
+    public static void setEnabled(boolean on) {
+        clear();
+        enabled = on;
+    }
+
+    /**
+     * Move to the next tick and run out the timers due on it. Called by the game loop at the start of every tick.
+     */
+    public static void advance() {
+        now++;
+        if (!enabled) {
+            return;
+        }
+
+        // Move timers down from the coarser levels as their slot comes up
+        for (int level = 1; level < LEVELS; level++) {
+            if ((now & ((1L << (SLOT_BITS * level)) - 1)) != 0) {
+                break;
+            }
+            int slot = level * SLOTS + (int) ((now >> (SLOT_BITS * level)) & MASK);
+            GameObject obj;
+            while ((obj = slots[slot]) != null) {
+                unlink(obj);
+                insert(obj);
+            }
+        }
+
+        // Every timer in the current slot of the first level is due this tick
+        int slot = (int) (now & MASK);
+        GameObject obj;
+        while ((obj = slots[slot]) != null) {
+            unlink(obj);
+            obj.onTimer();
+        }
+    }
+
+    /**
+     * Run out the timer of a game object if it is due, when the wheel is off. Called by the game loop right before
+     * the object updates.
+     * @param obj Game object being updated
+     */
+    public static void runOut(GameObject obj) {
+        if (!enabled && obj.timerDeadline != 0 && obj.timerDeadline <= now) {
+            obj.timerDeadline = 0;
+            obj.onTimer();
+        }
+    }
+
+    /**
+     * Cancel every timer and start counting ticks from zero again. Called when a new map is generated, so the ticks
+     * game objects remember are the same whenever a round is played.
+     */
+    public static void clear() {
+        for (int slot = 0; slot < slots.length; slot++) {
+            GameObject obj;
+            while ((obj = slots[slot]) != null) {
+                unlink(obj);
+            }
+        }
+        now = 0;
+    }
+
+    /**
+     * Get the current tick.
+     * @return Ticks advanced so far
+     */
+    static long now() {
+        return now;
+    }
+
+    /**
+     * Schedule the timer of a game object, replacing the one it already has.
+     * @param obj Game object to call onTimer on
+     * @param ticks Ticks from now, at least 1
+     */
+    static void schedule(GameObject obj, int ticks) {
+        cancel(obj);
+        obj.timerDeadline = now + Math.max(1, ticks);
+        if (enabled) {
+            insert(obj);
+        }
+    }
+
+    /**
+     * Cancel the timer of a game object if it has one.
+     * @param obj Game object
+     */
+    static void cancel(GameObject obj) {
+        if (obj.timerSlot >= 0) {
+            unlink(obj);
+        }
+        obj.timerDeadline = 0;
+    }
+
+    /**
+     * Get the ticks left before the timer of a game object runs out.
+     * @param obj Game object with a scheduled timer
+     * @return Ticks left, 0 if the object has no timer
+     */
+    static long remaining(GameObject obj) {
+        return isScheduled(obj) ? obj.timerDeadline - now : 0;
+    }
+
+    /**
+     * Check if a game object has a timer that has not run out yet.
+     * @param obj Game object
+     * @return true if onTimer is still to be called
+     */
+    static boolean isScheduled(GameObject obj) {
+        return enabled ? obj.timerSlot >= 0 : obj.timerDeadline != 0;
+    }
+
+    private static void insert(GameObject obj) {
+        long delay = Math.min(Math.max(0, obj.timerDeadline - now), MAX_DELAY);
+        long deadline = now + delay;
+        int level = 0;
+        while (level < LEVELS - 1 && delay >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = level * SLOTS + (int) ((deadline >> (SLOT_BITS * level)) & MASK);
+
+        obj.timerSlot = slot;
+        obj.timerPrevious = null;
+        obj.timerNext = slots[slot];
+        if (obj.timerNext != null) {
+            obj.timerNext.timerPrevious = obj;
+        }
+        slots[slot] = obj;
+    }
+
+    private static void unlink(GameObject obj) {
+        if (obj.timerPrevious != null) {
+            obj.timerPrevious.timerNext = obj.timerNext;
+        } else {
+            slots[obj.timerSlot] = obj.timerNext;
+        }
+        if (obj.timerNext != null) {
+            obj.timerNext.timerPrevious = obj.timerPrevious;
+        }
+        obj.timerSlot = -1;
+        obj.timerNext = null;
+        obj.timerPrevious = null;
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import util.GameObjectCollection;
+import util.ResourceCollection;
+import util.SpriteCache;
+
+import java.awt.*;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Hard and soft walls of the map, packed into one bit per tile each. Standing walls have no game object: movement,
+ * explosion reach, bomb placement and rendering read the bits directly. A soft wall only becomes a Wall object when an
+ * explosion catches it, so that it burns and is destroyed when the explosion finishes like any other tile object.
+ * Hard walls never become objects.
+ */
+public class Terrain {
+
+    private static final int HARD_WALL_TILES = 16;
+
+    private static int mapWidth;
+    private static int mapHeight;
+    private static long[] hard;
+    private static long[] soft;
+
+    // Sprites looked up once per map instead of once per tile drawn
+    private static BufferedImage[] hardWallSprites;
+    private static BufferedImage softWallSprite;
+
+    /**
+     * Clear all walls for a newly generated map. Called by the tile index.
+     * @param width Map width in tiles
+     * @param height Map height in tiles
+     */
+    static void init(int width, int height) {
+        mapWidth = width;
+        mapHeight = height;
+        hard = new long[(width * height + 63) >>> 6];
+        soft = new long[(width * height + 63) >>> 6];
+        hardWallSprites = null;
+        softWallSprite = null;
+    }
+
+    /**
+     * Place a hard wall while generating the map.
+     * @param x Column
+     * @param y Row
+     */
+    public static void addHard(int x, int y) {
+        int tile = y * mapWidth + x;
+        hard[tile >>> 6] |= 1L << tile;
+        FlowField.addTile(tile, false, false);
+        BlastRange.invalidate(tile);
+    }
+
+    /**
+     * Place a soft wall while generating the map.
+     * @param x Column
+     * @param y Row
+     */
+    public static void addSoft(int x, int y) {
+        int tile = y * mapWidth + x;
+        soft[tile >>> 6] |= 1L << tile;
+        FlowField.addTile(tile, false, true);
+        BlastRange.invalidate(tile);
+    }
+
+    /**
+     * @param x Column
+     * @param y Row
+     * @return true if a hard wall stands on the tile, false for empty tiles and tiles outside the map
+     */
+    public static boolean isHard(int x, int y) {
+        return isSet(hard, x, y);
+    }
+
+    /**
+     * @param x Column
+     * @param y Row
+     * @return true if a soft wall that is not burning stands on the tile
+     */
+    public static boolean isSoft(int x, int y) {
+        return isSet(soft, x, y);
+    }
+
+    /**
+     * @param x Column
+     * @param y Row
+     * @return true if a hard or soft wall stands on the tile
+     */
+    static boolean isWall(int x, int y) {
+        if (hard == null || x < 0 || y < 0 || x >= mapWidth || y >= mapHeight) {
+            return false;
+        }
+        int tile = y * mapWidth + x;
+        return ((hard[tile >>> 6] | soft[tile >>> 6]) & (1L << tile)) != 0;
+    }
+
+    /**
+     * Add the walls to a hash of the game world.
+     * @param h Hash so far
+     * @return Hash including the walls
+     */
+    static long stateHash(long h) {
+        if (hard == null) {
+            return h;
+        }
+        for (int i = 0; i < hard.length; i++) {
+            h = WorldHash.mix(h, hard[i]);
+            h = WorldHash.mix(h, soft[i]);
+        }
+        return h;
+    }
+
+    private static boolean isSet(long[] bits, int x, int y) {
+        if (bits == null || x < 0 || y < 0 || x >= mapWidth || y >= mapHeight) {
+            return false;
+        }
+        int tile = y * mapWidth + x;
+        return (bits[tile >>> 6] & (1L << tile)) != 0;
+    }
+
+    /**
+     * Turn the soft walls an explosion covers into Wall objects that burn until the explosion finishes.
+     * Called when the explosion starts, before it looks for collisions.
+     * @param area Collider of the explosion
+     */
+    static void burn(Rectangle2D.Float area) {
+        int firstX = Math.max(0, (int) Math.floor(area.x / 32));
+        int firstY = Math.max(0, (int) Math.floor(area.y / 32));
+        int lastX = Math.min(mapWidth - 1, (int) Math.floor((area.x + area.width) / 32));
+        int lastY = Math.min(mapHeight - 1, (int) Math.floor((area.y + area.height) / 32));
+        for (int y = firstY; y <= lastY; y++) {
+            for (int x = firstX; x <= lastX; x++) {
+                if (isSoft(x, y) && area.intersects(x * 32, y * 32, 32, 32)) {
+                    int tile = y * mapWidth + x;
+                    soft[tile >>> 6] &= ~(1L << tile);
+
+                    // Pathfinding already knows the wall, it learns it is gone when the wall is destroyed
+                    Wall wall = new Wall(new Point2D.Float(x * 32, y * 32), getSoftWallSprite(), true);
+                    GameObjectCollection.spawn(wall);
+                    TileIndex.onPageIn(wall);
+                }
+            }
+        }
+    }
+
+    /**
+     * Code used to choose the hard wall sprite based on adjacent hard walls.
+     * @param x Column
+     * @param y Row
+     * @return Sum of 1 north, 2 east, 4 south, 8 west for each adjacent hard wall
+     */
+    static int autotile(int x, int y) {
+        int code = 0;
+        if (isHard(x, y - 1)) {
+            code += 1;  // North
+        }
+        if (isHard(x + 1, y)) {
+            code += 2;  // East
+        }
+        if (isHard(x, y + 1)) {
+            code += 4;  // South
+        }
+        if (isHard(x - 1, y)) {
+            code += 8;  // West
+        }
+        return code;
+    }
+
+    /**
+     * Draw the wall standing on a tile, if any.
+     * @param g2 Graphics of the world in world coordinates
+     * @param x Column
+     * @param y Row
+     */
+    public static void draw(Graphics2D g2, int x, int y) {
+        BufferedImage sprite = getSprite(x, y);
+        if (sprite != null) {
+            g2.drawImage(sprite, x * 32, y * 32, null);
+        }
+    }
+
+    /**
+     * @param x Column
+     * @param y Row
+     * @return Sprite of the wall standing on a tile, null if there is no wall
+     */
+    static BufferedImage getSprite(int x, int y) {
+        if (isHard(x, y)) {
+            if (hardWallSprites == null) {
+                hardWallSprites = new BufferedImage[HARD_WALL_TILES];
+                for (int code = 0; code < HARD_WALL_TILES; code++) {
+                    hardWallSprites[code] = SpriteCache.getHardWallTile(code);
+                }
+            }
+            return hardWallSprites[autotile(x, y)];
+        } else if (isSoft(x, y)) {
+            return getSoftWallSprite();
+        }
+        return null;
+    }
+
+    private static BufferedImage getSoftWallSprite() {
+        if (softWallSprite == null) {
+            softWallSprite = SpriteCache.getImage(ResourceCollection.Images.SOFT_WALL);
+        }
+        return softWallSprite;
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import util.GameObjectCollection;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Software renderer that draws the game world straight into the pixels of the world image. The frame is first turned
+ * into a draw list in painting order, then the image is split into horizontal bands that are rasterized in parallel,
+ * each band drawing the whole list clipped to its rows. Opaque runs of a sprite row are copied with System.arraycopy
+ * and translucent pixels are blended with the same arithmetic as the Java2D software loops, so each frame is pixel
+ * identical to drawing the sprites with Graphics2D. Only the unused top byte of the world pixels may differ.
+ *
+ * A draw list holds no references to game objects, so it can be collected on the game thread and drawn later on
+ * another one.
+ */
+public class BandRenderer {
+
+    public static final String PROPERTY = "bomberman.renderer.bands";
+    public static final String VERIFY_PROPERTY = "bomberman.renderer.verify";
+
+    private static final int BAND_HEIGHT = 32;
+
+    // How source pixels are drawn
+    private static final int OPAQUE = 0;
+    private static final int PREMULTIPLIED = 1;
+    private static final int STRAIGHT = 2;
+
+    // Java2D's rounded a * c / 255, indexed by a << 8 | c
+    private static final byte[] MUL8 = new byte[256 * 256];
+
+    static {
+        for (int a = 1; a < 256; a++) {
+            int increment = (a << 16) + (a << 8) + a;
+            int value = increment + (1 << 23);
+            for (int c = 1; c < 256; c++) {
+                MUL8[a << 8 | c] = (byte) (value >>> 24);
+                value += increment;
+            }
+        }
+    }
+
+    private final int width;
+    private final int height;
+    private final int[] pixels;
+    private final int offset;
+    private final int stride;
+    private final ForkJoinPool pool;
+    private final DrawAll drawAll;
+
+    // Pixels of sprites that are not stored as ints, converted once
+    private final Map<BufferedImage, int[]> converted = new WeakHashMap<>();
+
+    // Draw list of the frame, one entry per sprite in painting order
+    private int count;
+    private int[][] sources = new int[256][];
+    private int[] offsets = new int[256];
+    private int[] strides = new int[256];
+    private int[] widths = new int[256];
+    private int[] heights = new int[256];
+    private int[] modes = new int[256];
+    private int[] xs = new int[256];
+    private int[] ys = new int[256];
+
+    // Pixels of repainted sprites copied into the draw list
+    private int[] copies = new int[4096];
+    private int copied;
+
+    private int cameraX;
+    private int cameraY;
+
+    /**
+     * Construct a band renderer for the world image.
+     * @param world World image of type TYPE_INT_RGB that the renderer draws into, may be a subimage
+     * @param pool Pool that rasterizes the bands
+     */
+    public BandRenderer(BufferedImage world, ForkJoinPool pool) {
+        if (world.getType() != BufferedImage.TYPE_INT_RGB) {
+            throw new IllegalArgumentException("World image must be TYPE_INT_RGB");
+        }
+        WritableRaster raster = world.getRaster();
+        this.width = world.getWidth();
+        this.height = world.getHeight();
+        this.pixels = ((DataBufferInt) raster.getDataBuffer()).getData();
+        this.stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+        this.offset = raster.getDataBuffer().getOffset() - raster.getSampleModelTranslateX()
+                - raster.getSampleModelTranslateY() * this.stride;
+        this.pool = pool;
+        this.drawAll = new DrawAll((this.height + BAND_HEIGHT - 1) / BAND_HEIGHT);
+    }
+
+    /**
+     * Draw the background and the game objects in the viewport, in the same order and with the same culling as the
+     * Graphics2D path of the game panel.
+     * @param cameraX Left edge of the viewport in the game world
+     * @param cameraY Top edge of the viewport in the game world
+     * @param background Background tile repeated over the world
+     * @return false if nothing was drawn because a sprite cannot be drawn by this renderer
+     */
+    public boolean render(int cameraX, int cameraY, BufferedImage background) {
+        if (!this.collect(cameraX, cameraY, background)) {
+            return false;
+        }
+        this.draw();
+        return true;
+    }
+
+    /**
+     * Build the draw list of the frame without drawing it.
+     * @param cameraX Left edge of the viewport in the game world
+     * @param cameraY Top edge of the viewport in the game world
+     * @param background Background tile repeated over the world
+     * @return false if a sprite cannot be drawn by this renderer
+     */
+    public boolean collect(int cameraX, int cameraY, BufferedImage background) {
+        this.cameraX = cameraX;
+        this.cameraY = cameraY;
+        this.count = 0;
+        this.copied = 0;
+
+        // Background over the visible part of the world
+        int bgStartX = cameraX - cameraX % background.getWidth();
+        int bgStartY = cameraY - cameraY % background.getHeight();
+        for (int i = bgStartX; i < cameraX + this.width; i += background.getWidth()) {
+            for (int j = bgStartY; j < cameraY + this.height; j += background.getHeight()) {
+                this.add(background, i, j);
+            }
+        }
+
+        // Game objects that overlap the viewport, with a margin for sprites taller than their collider
+        Rectangle view = new Rectangle(cameraX - 32, cameraY - 32, this.width + 64, this.height + 64);
+        for (int i = 0; i < GameObjectCollection.gameObjects.size(); i++) {
+            if (GameObjectCollection.gameObjects.get(i) == GameObjectCollection.tileObjects) {
+                if (!this.addVisibleTiles()) {
+                    return false;
+                }
+                continue;
+            }
+            for (int j = 0; j < GameObjectCollection.gameObjects.get(i).size(); j++) {
+                GameObject obj = GameObjectCollection.gameObjects.get(i).get(j);
+                if (obj.getCollider().intersects(view) && !obj.rasterize(this)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Draw the collected draw list into the world image. Does not touch the game world.
+     */
+    public void draw() {
+        this.pool.invoke(this.drawAll.prepare());
+    }
+
+    /**
+     * @return Pixels of the image the world image belongs to
+     */
+    public int[] getPixels() {
+        return this.pixels;
+    }
+
+    /**
+     * Count the pixels that differ between two frames, ignoring the unused top byte.
+     * @param a Pixels of one frame
+     * @param b Pixels of the other frame
+     * @return Number of pixels that differ
+     */
+    public static int countMismatches(int[] a, int[] b) {
+        int mismatches = 0;
+        for (int i = 0; i < a.length; i++) {
+            if (((a[i] ^ b[i]) & 0xFFFFFF) != 0) {
+                mismatches++;
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * Add walls and tile objects on the tiles inside the viewport using the terrain and tile index.
+     * @return false if a tile object cannot be drawn by this renderer
+     */
+    private boolean addVisibleTiles() {
+        int firstX = this.cameraX / 32 - 1;
+        int firstY = this.cameraY / 32 - 1;
+        int lastX = (this.cameraX + this.width) / 32 + 1;
+        int lastY = (this.cameraY + this.height) / 32 + 1;
+        for (int y = firstY; y <= lastY; y++) {
+            for (int x = firstX; x <= lastX; x++) {
+                BufferedImage wall = Terrain.getSprite(x, y);
+                if (wall != null) {
+                    this.add(wall, x * 32, y * 32);
+                }
+                for (TileObject obj = TileIndex.get(x, y); obj != null; obj = obj.getNextInTile()) {
+                    if (!obj.rasterize(this)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Add a sprite to the draw list. Positions are rounded to pixels the way Java2D rounds an image translation.
+     * @param sprite Sprite to draw
+     * @param x Left edge in the game world
+     * @param y Top edge in the game world
+     */
+    void add(BufferedImage sprite, double x, double y) {
+        this.addEntry(sprite, x, y, false);
+    }
+
+    /**
+     * Add a sprite that is painted over when its object is reused, copying its pixels so the draw list stays valid
+     * until it is drawn.
+     * @param sprite Sprite to draw
+     * @param x Left edge in the game world
+     * @param y Top edge in the game world
+     */
+    void addRepainted(BufferedImage sprite, double x, double y) {
+        this.addEntry(sprite, x, y, true);
+    }
+
+    private void addEntry(BufferedImage sprite, double x, double y, boolean copy) {
+        if (this.count == this.sources.length) {
+            int capacity = this.count * 2;
+            this.sources = Arrays.copyOf(this.sources, capacity);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+            this.strides = Arrays.copyOf(this.strides, capacity);
+            this.widths = Arrays.copyOf(this.widths, capacity);
+            this.heights = Arrays.copyOf(this.heights, capacity);
+            this.modes = Arrays.copyOf(this.modes, capacity);
+            this.xs = Arrays.copyOf(this.xs, capacity);
+            this.ys = Arrays.copyOf(this.ys, capacity);
+        }
+        int i = this.count++;
+        this.widths[i] = sprite.getWidth();
+        this.heights[i] = sprite.getHeight();
+        this.xs[i] = (int) Math.floor(x - this.cameraX + 0.5);
+        this.ys[i] = (int) Math.floor(y - this.cameraY + 0.5);
+
+        // Int images are read in place rather than converted once, since explosions repaint their frames
+        WritableRaster raster = sprite.getRaster();
+        DataBuffer dataBuffer = raster.getDataBuffer();
+        int type = sprite.getType();
+        if (dataBuffer instanceof DataBufferInt && raster.getSampleModel() instanceof SinglePixelPackedSampleModel
+                && (type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_INT_ARGB_PRE
+                || type == BufferedImage.TYPE_INT_RGB)) {
+            int stride = ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride();
+            this.sources[i] = ((DataBufferInt) dataBuffer).getData();
+            this.strides[i] = stride;
+            this.offsets[i] = dataBuffer.getOffset() - raster.getSampleModelTranslateX()
+                    - raster.getSampleModelTranslateY() * stride;
+            this.modes[i] = type == BufferedImage.TYPE_INT_RGB ? OPAQUE
+                    : type == BufferedImage.TYPE_INT_ARGB_PRE ? PREMULTIPLIED : STRAIGHT;
+            if (copy) {
+                this.copyEntry(i);
+            }
+            return;
+        }
+
+        // Other images are loaded from resources and never change
+        int[] argb = this.converted.get(sprite);
+        if (argb == null) {
+            argb = sprite.getRGB(0, 0, this.widths[i], this.heights[i], null, 0, this.widths[i]);
+            this.converted.put(sprite, argb);
+        }
+        this.sources[i] = argb;
+        this.strides[i] = this.widths[i];
+        this.offsets[i] = 0;
+        this.modes[i] = STRAIGHT;
+    }
+
+    /**
+     * Replace the source pixels of an entry with a copy of them.
+     * @param i Entry index
+     */
+    private void copyEntry(int i) {
+        int size = this.widths[i] * this.heights[i];
+        if (this.copied + size > this.copies.length) {
+            // Entries already copied keep the old array
+            this.copies = new int[Math.max(this.copies.length * 2, size)];
+            this.copied = 0;
+        }
+        for (int row = 0; row < this.heights[i]; row++) {
+            System.arraycopy(this.sources[i], this.offsets[i] + row * this.strides[i], this.copies,
+                    this.copied + row * this.widths[i], this.widths[i]);
+        }
+        this.sources[i] = this.copies;
+        this.offsets[i] = this.copied;
+        this.strides[i] = this.widths[i];
+        this.copied += size;
+    }
+
+    /**
+     * Clear a band and draw the whole draw list clipped to it.
+     * @param top First row of the band
+     * @param bottom Row after the last row of the band
+     */
+    private void drawBand(int top, int bottom) {
+        int[] dst = this.pixels;
+        for (int row = top; row < bottom; row++) {
+            int start = this.offset + row * this.stride;
+            Arrays.fill(dst, start, start + this.width, 0);
+        }
+
+        for (int i = 0; i < this.count; i++) {
+            int x = this.xs[i];
+            int y = this.ys[i];
+            int firstRow = Math.max(y, top);
+            int lastRow = Math.min(y + this.heights[i], bottom);
+            int firstColumn = Math.max(x, 0);
+            int lastColumn = Math.min(x + this.widths[i], this.width);
+            if (firstRow >= lastRow || firstColumn >= lastColumn) {
+                continue;
+            }
+
+            int[] src = this.sources[i];
+            int columns = lastColumn - firstColumn;
+            int mode = this.modes[i];
+            for (int row = firstRow; row < lastRow; row++) {
+                int s = this.offsets[i] + (row - y) * this.strides[i] + (firstColumn - x);
+                int d = this.offset + row * this.stride + firstColumn;
+                if (mode == OPAQUE) {
+                    System.arraycopy(src, s, dst, d, columns);
+                } else {
+                    drawRow(src, s, dst, d, columns, mode == PREMULTIPLIED);
+                }
+            }
+        }
+    }
+
+    /**
+     * Draw one row of a translucent sprite, copying opaque runs and blending the pixels in between.
+     * @param src Sprite pixels
+     * @param s Index of the first sprite pixel
+     * @param dst World pixels
+     * @param d Index of the first world pixel
+     * @param columns Number of pixels in the row
+     * @param premultiplied true if the sprite colors are premultiplied by alpha
+     */
+    private static void drawRow(int[] src, int s, int[] dst, int d, int columns, boolean premultiplied) {
+        int runStart = -1;
+        for (int c = 0; c < columns; c++) {
+            int p = src[s + c];
+            int a = p >>> 24;
+            if (a == 255) {
+                if (runStart < 0) {
+                    runStart = c;
+                }
+                continue;
+            }
+            if (runStart >= 0) {
+                System.arraycopy(src, s + runStart, dst, d + runStart, c - runStart);
+                runStart = -1;
+            }
+            if (a == 0) {
+                continue;
+            }
+
+            int q = dst[d + c];
+            int inverse = (255 - a) << 8;
+            int r = (MUL8[inverse | (q >> 16 & 0xFF)] & 0xFF);
+            int g = (MUL8[inverse | (q >> 8 & 0xFF)] & 0xFF);
+            int b = (MUL8[inverse | (q & 0xFF)] & 0xFF);
+            if (premultiplied) {
+                r += p >> 16 & 0xFF;
+                g += p >> 8 & 0xFF;
+                b += p & 0xFF;
+            } else {
+                int alpha = a << 8;
+                r += MUL8[alpha | (p >> 16 & 0xFF)] & 0xFF;
+                g += MUL8[alpha | (p >> 8 & 0xFF)] & 0xFF;
+                b += MUL8[alpha | (p & 0xFF)] & 0xFF;
+            }
+            dst[d + c] = r << 16 | g << 8 | b;
+        }
+        if (runStart >= 0) {
+            System.arraycopy(src, s + runStart, dst, d + runStart, columns - runStart);
+        }
+    }
+
+    /**
+     * Root task that fans the bands out to the pool.
+     */
+    private class DrawAll extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Band[] bands;
+
+        DrawAll(int bandCount) {
+            this.bands = new Band[bandCount];
+            for (int i = 0; i < bandCount; i++) {
+                this.bands[i] = new Band(i * BAND_HEIGHT, Math.min(height, (i + 1) * BAND_HEIGHT));
+            }
+        }
+
+        DrawAll prepare() {
+            this.reinitialize();
+            return this;
+        }
+
+        @Override
+        protected void compute() {
+            for (Band band : this.bands) {
+                band.reinitialize();
+            }
+            invokeAll(this.bands);
+        }
+
+    }
+
+    private class Band extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int top;
+        private final int bottom;
+
+        Band(int top, int bottom) {
+            this.top = top;
+            this.bottom = bottom;
+        }
+
+        @Override
+        protected void compute() {
+            drawBand(this.top, this.bottom);
+        }
+
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import java.util.Random;
+
+/**
+ * Random numbers of the game world: soft walls left standing when a map is generated, powerups dropped by burning
+ * walls, and their types. Seeded at the start of every round, so a round played again from the same seed with the
+ * same key events on the same ticks turns out the same.
+ */
+public class MatchRandom {
+
+    private static final Random random = new Random();
+
+    /**
+     * Restart the sequence for a new round.
+     * @param seed Seed of the round
+     */
+    public static void seed(long seed) {
+        random.setSeed(seed);
+    }
+
+    /**
+     * @return Uniform value between 0 inclusive and 1 exclusive
+     */
+    public static double nextDouble() {
+        return random.nextDouble();
+    }
+
+    /**
+     * @param bound Number of possible values
+     * @return Uniform value between 0 inclusive and bound exclusive
+     */
+    static int nextInt(int bound) {
+        return random.nextInt(bound);
+    }
+
+}
+===============================================================================================
+package gameobjects;
+
+import util.GameObjectCollection;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hash of the whole game world: every bomber, bomb, explosion and tile object in update order, and the walls of the
+ * terrain. Two runs of the game that hash the same after every tick behaved the same, so optimized code paths can be
+ * checked against the plain ones by comparing hashes tick by tick.
+ */
+public class WorldHash {
+
+    private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+    /**
+     * @return Hash of the current state of the game world
+     */
+    public static long hash() {
+        long h = 1;
+        for (int i = 0; i < GameObjectCollection.gameObjects.size(); i++) {
+            h = mix(h, GameObjectCollection.gameObjects.get(i).size());
+            for (int j = 0; j < GameObjectCollection.gameObjects.get(i).size(); j++) {
+                h = GameObjectCollection.gameObjects.get(i).get(j).stateHash(h);
+            }
+        }
+        return Terrain.stateHash(h);
+    }
+
+    /**
+     * Describe every game object and its own hash, one line each, to find the objects two runs disagree on.
+     * @return Lines of list index, object index, class, position, and hash
+     */
+    public static List<String> describe() {
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < GameObjectCollection.gameObjects.size(); i++) {
+            for (int j = 0; j < GameObjectCollection.gameObjects.get(i).size(); j++) {
+                GameObject obj = GameObjectCollection.gameObjects.get(i).get(j);
+                lines.add(String.format("%d.%d %s (%s, %s) %016x", i, j, obj.getClass().getSimpleName(),
+                        obj.position.x, obj.position.y, obj.stateHash(1)));
+            }
+        }
+        lines.add(String.format("terrain %016x", Terrain.stateHash(1)));
+        return lines;
+    }
+
+    static long mix(long h, long value) {
+        h = (h ^ value) * MULTIPLIER;
+        return h ^ (h >>> 32);
+    }
+
+    static long mix(long h, float value) {
+        return mix(h, Float.floatToIntBits(value));
+    }
+
+}
+===============================================================================================
\ No newline at end of file
@@ -0,0 +1,3236 @@
+package util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Parsed map with one byte tile code per tile. Maps can be read from the comma separated text format or from a
+ * compiled binary format that also stores hard wall autotile codes, spawn points, and powerup placements so that
+ * loading is a single memory mapped read with no parsing.
+ */
+public class MapFile {
+
+    // Tile codes
+    public static final byte EMPTY = 0;
+    public static final byte HARD = 1;
+    public static final byte SOFT = 2;
+    public static final byte POWER_BOMB = 3;
+    public static final byte POWER_FIREUP = 4;
+    public static final byte POWER_FIREMAX = 5;
+    public static final byte POWER_SPEED = 6;
+    public static final byte POWER_PIERCE = 7;
+    public static final byte POWER_KICK = 8;
+    public static final byte POWER_TIMER = 9;
+    public static final byte PLAYER = 64;     // Player 1, followed by one code for each player
+    public static final int MAX_PLAYERS = 64;
+    private static final int AUTOTILES = 16;    // Hard wall tiles, one for each combination of adjacent hard walls
+
+    // Binary format
+    private static final int MAGIC = 0x424D4150;    // "BMAP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 6 * 4;
+
+    private final int width;
+    private final int height;
+    private final byte[] tiles;
+    private final byte[] autotiles;
+    private int[] spawns;       // Tile index of each player
+    private int[] powerups;     // Tile index of each powerup
+
+    private MapFile(int width, int height, byte[] tiles) {
+        this.width = width;
+        this.height = height;
+        this.tiles = tiles;
+        this.autotiles = new byte[tiles.length];
+    }
+
+    /**
+     * Load a map file. Compiled maps are memory mapped, text maps are read with one channel read and parsed.
+     * @param filename Path to a .csv or compiled map file
+     * @return Parsed map
+     * @throws IOException When the file cannot be read or is not a valid map
+     */
+    public static MapFile load(String filename) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= HEADER_SIZE) {
+                ByteBuffer magic = ByteBuffer.allocate(4);
+                channel.read(magic, 0);
+                if (magic.getInt(0) == MAGIC) {
+                    MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    return readCompiled(buffer);
+                }
+            }
+
+            ByteBuffer buffer = ByteBuffer.allocate((int) size);
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                // Keep reading until the whole file is in memory
+            }
+            buffer.flip();
+            return parseCsv(buffer);
+        }
+    }
+
+    /**
+     * Read a text map from a reader such as the default map resource.
+     * @param reader Source of comma separated map data
+     * @return Parsed map
+     * @throws IOException When the reader fails
+     */
+    public static MapFile read(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] chars = new char[8192];
+        int count;
+        while ((count = reader.read(chars)) >= 0) {
+            text.append(chars, 0, count);
+        }
+        reader.close();
+        return parseCsv(ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    /**
+     * Parse comma separated map data in a single pass over the bytes. Empty lines are skipped, unknown codes
+     * become empty tiles, and the width is taken from the first row.
+     * @param data Map file contents
+     * @return Parsed map
+     * @throws IOException When there is no map data
+     */
+    public static MapFile parseCsv(ByteBuffer data) throws IOException {
+        int width = -1;
+        int column = 0;
+        int rows = 0;
+        byte[] tiles = new byte[Math.max(16, data.remaining() / 2)];
+
+        int tokenStart = data.position();
+        int limit = data.limit();
+        for (int i = data.position(); i <= limit; i++) {
+            byte c = i < limit ? data.get(i) : (byte) '\n';
+            if (c != ',' && c != '\n') {
+                continue;
+            }
+
+            // A newline right after another newline is an empty line
+            boolean emptyLine = c == '\n' && column == 0 && isBlank(data, tokenStart, i);
+            if (!emptyLine) {
+                if (width < 0 || column < width) {
+                    int index = width < 0 ? column : rows * width + column;
+                    if (index >= tiles.length) {
+                        tiles = Arrays.copyOf(tiles, tiles.length * 2);
+                    }
+                    tiles[index] = tileCode(data, tokenStart, i);
+                }
+                column++;
+                if (c == '\n') {
+                    if (width < 0) {
+                        width = column;
+                    }
+                    rows++;
+                    column = 0;
+                }
+            }
+            tokenStart = i + 1;
+        }
+
+        if (width <= 0 || rows == 0) {
+            throw new IOException("Map file contains no map data");
+        }
+
+        MapFile map = new MapFile(width, rows, Arrays.copyOf(tiles, width * rows));
+        map.index();
+        return map;
+    }
+
+    /**
+     * Generate a classic arena: hard wall border and pillars, soft walls everywhere else except around the four
+     * corners, and a player in each corner. Used by benchmarks and tests that need a map without a file.
+     * @param width Map width in tiles
+     * @param height Map height in tiles
+     * @return Parsed map
+     * @throws IOException When the size leaves no map data
+     */
+    public static MapFile arena(int width, int height) throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                boolean border = x == 0 || y == 0 || x == width - 1 || y == height - 1;
+                boolean pillar = x % 2 == 0 && y % 2 == 0;
+                boolean cornerX = x <= 2 || x >= width - 3;
+                boolean cornerY = y <= 2 || y >= height - 3;
+                if (x > 0) {
+                    csv.append(',');
+                }
+                if (border || pillar) {
+                    csv.append('H');
+                } else if (x == 1 && y == 1) {
+                    csv.append('1');
+                } else if (x == width - 2 && y == 1) {
+                    csv.append('2');
+                } else if (x == 1 && y == height - 2) {
+                    csv.append('3');
+                } else if (x == width - 2 && y == height - 2) {
+                    csv.append('4');
+                } else if (!(cornerX && cornerY)) {
+                    csv.append('S');
+                }
+            }
+            csv.append('\n');
+        }
+        return parseCsv(ByteBuffer.wrap(csv.toString().getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    /**
+     * Write this map in the compiled binary format.
+     * @param filename Path of the compiled map
+     * @throws IOException When the file cannot be written
+     */
+    public void compile(String filename) throws IOException {
+        int size = HEADER_SIZE + this.tiles.length * 2 + (this.spawns.length + this.powerups.length) * 4;
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(this.width);
+        buffer.putInt(this.height);
+        buffer.putInt(this.spawns.length);
+        buffer.putInt(this.powerups.length);
+        buffer.put(this.tiles);
+        buffer.put(this.autotiles);
+        for (int spawn : this.spawns) {
+            buffer.putInt(spawn);
+        }
+        for (int powerup : this.powerups) {
+            buffer.putInt(powerup);
+        }
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    /**
+     * Read a compiled map, checking every size in the header against the file so that a truncated or corrupt file
+     * is reported like any other unreadable map.
+     * @param buffer Contents of the compiled map
+     * @return Map
+     * @throws IOException When the file is not a valid compiled map
+     */
+    private static MapFile readCompiled(ByteBuffer buffer) throws IOException {
+        requireBytes(buffer, HEADER_SIZE);
+        if (buffer.getInt() != MAGIC) {
+            throw new IOException("Not a compiled map");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported compiled map version " + version);
+        }
+        int width = buffer.getInt();
+        int height = buffer.getInt();
+        int players = buffer.getInt();
+        int powerups = buffer.getInt();
+        if (width <= 0 || height <= 0 || (long) width * height > Integer.MAX_VALUE) {
+            throw new IOException("Invalid compiled map size " + width + "x" + height);
+        }
+        int tileCount = width * height;
+        if (players < 0 || players > MAX_PLAYERS) {
+            throw new IOException("Invalid compiled map player count " + players);
+        }
+        if (powerups < 0 || powerups > tileCount) {
+            throw new IOException("Invalid compiled map powerup count " + powerups);
+        }
+
+        requireBytes(buffer, tileCount);
+        byte[] tiles = new byte[tileCount];
+        buffer.get(tiles);
+        MapFile map = new MapFile(width, height, tiles);
+        requireBytes(buffer, tileCount);
+        buffer.get(map.autotiles);
+        for (int tile = 0; tile < tileCount; tile++) {
+            byte code = tiles[tile];
+            if (code < EMPTY || (code > POWER_TIMER && code < PLAYER) || (code >= PLAYER && code - PLAYER >= players)) {
+                throw new IOException("Invalid compiled map tile code " + code + " at tile " + tile);
+            }
+            if (map.autotiles[tile] < 0 || map.autotiles[tile] >= AUTOTILES) {
+                throw new IOException("Invalid compiled map autotile " + map.autotiles[tile] + " at tile " + tile);
+            }
+        }
+
+        // Players without a spawn point are -1
+        requireBytes(buffer, (long) players * 4);
+        map.spawns = new int[players];
+        for (int i = 0; i < players; i++) {
+            map.spawns[i] = buffer.getInt();
+            if (map.spawns[i] < -1 || map.spawns[i] >= tileCount) {
+                throw new IOException("Invalid compiled map spawn tile " + map.spawns[i]);
+            }
+        }
+        requireBytes(buffer, (long) powerups * 4);
+        map.powerups = new int[powerups];
+        for (int i = 0; i < powerups; i++) {
+            map.powerups[i] = buffer.getInt();
+            if (map.powerups[i] < 0 || map.powerups[i] >= tileCount) {
+                throw new IOException("Invalid compiled map powerup tile " + map.powerups[i]);
+            }
+        }
+        return map;
+    }
+
+    private static void requireBytes(ByteBuffer buffer, long bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            throw new IOException("Compiled map is truncated");
+        }
+    }
+
+    /**
+     * Precompute hard wall autotile codes, spawn points, and powerup placements.
+     */
+    private void index() {
+        int[] spawnTiles = new int[MAX_PLAYERS];
+        Arrays.fill(spawnTiles, -1);
+        int players = 0;
+        int powerupCount = 0;
+
+        for (int y = 0; y < this.height; y++) {
+            for (int x = 0; x < this.width; x++) {
+                int tile = y * this.width + x;
+                byte code = this.tiles[tile];
+                if (code == HARD) {
+                    // Code used to choose tile based on adjacent tiles
+                    int autotile = 0;
+                    if (y > 0 && this.tiles[tile - this.width] == HARD) {
+                        autotile += 1;  // North
+                    }
+                    if (y < this.height - 1 && this.tiles[tile + this.width] == HARD) {
+                        autotile += 4;  // South
+                    }
+                    if (x > 0 && this.tiles[tile - 1] == HARD) {
+                        autotile += 8;  // West
+                    }
+                    if (x < this.width - 1 && this.tiles[tile + 1] == HARD) {
+                        autotile += 2;  // East
+                    }
+                    this.autotiles[tile] = (byte) autotile;
+                } else if (code >= PLAYER) {
+                    spawnTiles[code - PLAYER] = tile;
+                    players = Math.max(players, code - PLAYER + 1);
+                } else if (code >= POWER_BOMB && code <= POWER_TIMER) {
+                    powerupCount++;
+                }
+            }
+        }
+
+        this.spawns = Arrays.copyOf(spawnTiles, players);
+        this.powerups = new int[powerupCount];
+        int next = 0;
+        for (int tile = 0; tile < this.tiles.length; tile++) {
+            if (this.tiles[tile] >= POWER_BOMB && this.tiles[tile] <= POWER_TIMER) {
+                this.powerups[next++] = tile;
+            }
+        }
+    }
+
+    private static boolean isBlank(ByteBuffer data, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte c = data.get(i);
+            if (c != '\r' && c != ' ' && c != '\t') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Convert the text code between start and end into a tile code without creating a string.
+     */
+    private static byte tileCode(ByteBuffer data, int start, int end) {
+        // Trim whitespace and carriage returns
+        while (start < end && data.get(start) <= ' ') {
+            start++;
+        }
+        while (end > start && data.get(end - 1) <= ' ') {
+            end--;
+        }
+
+        int length = end - start;
+        if (length == 1) {
+            byte c = data.get(start);
+            if (c == 'S') {
+                return SOFT;
+            }
+            if (c == 'H') {
+                return HARD;
+            }
+        }
+        if (length == 2 && data.get(start) == 'P') {
+            switch (data.get(start + 1)) {
+                case 'B':
+                    return POWER_BOMB;
+                case 'U':
+                    return POWER_FIREUP;
+                case 'M':
+                    return POWER_FIREMAX;
+                case 'S':
+                    return POWER_SPEED;
+                case 'P':
+                    return POWER_PIERCE;
+                case 'K':
+                    return POWER_KICK;
+                case 'T':
+                    return POWER_TIMER;
+                default:
+                    return EMPTY;
+            }
+        }
+        if (length >= 1 && length <= 2) {
+            // Player number
+            int number = 0;
+            for (int i = start; i < end; i++) {
+                byte c = data.get(i);
+                if (c < '0' || c > '9') {
+                    return EMPTY;
+                }
+                number = number * 10 + (c - '0');
+            }
+            if (number >= 1 && number <= MAX_PLAYERS) {
+                return (byte) (PLAYER + number - 1);
+            }
+        }
+        return EMPTY;
+    }
+
+    public int getWidth() {
+        return this.width;
+    }
+
+    public int getHeight() {
+        return this.height;
+    }
+
+    /**
+     * Get the tile code at a tile position.
+     * @param x Column
+     * @param y Row
+     * @return Tile code
+     */
+    public byte getTile(int x, int y) {
+        return this.tiles[y * this.width + x];
+    }
+
+    /**
+     * Get the precomputed code used to choose a hard wall tile based on adjacent hard walls.
+     * @param x Column
+     * @param y Row
+     * @return Autotile code, 0 for tiles that are not hard walls
+     */
+    public int getAutotile(int x, int y) {
+        return this.autotiles[y * this.width + x];
+    }
+
+    /**
+     * Number of players is the highest player number on the map.
+     * @return Player count
+     */
+    public int getPlayers() {
+        return this.spawns.length;
+    }
+
+    /**
+     * Get the tile index a player spawns on.
+     * @param player Player index starting at 0
+     * @return Tile index, -1 if the map has no spawn for this player
+     */
+    public int getSpawn(int player) {
+        return this.spawns[player];
+    }
+
+    /**
+     * Get the tile indices of powerups placed on the map.
+     * @return Copy of the powerup tile indices
+     */
+    public int[] getPowerups() {
+        return this.powerups.clone();
+    }
+
+    /**
+     * Compile a text map into the binary format.
+     * Usage: java util.MapFile map.csv map.bmap
+     */
+    public static void main(String[] args) throws IOException {
+        long start = System.nanoTime();
+        MapFile map = MapFile.load(args[0]);
+        long parsed = System.nanoTime();
+        map.compile(args[1]);
+        System.out.println("Parsed " + map.width + "x" + map.height + " map in " + (parsed - start) / 1000000 + " ms, compiled to " + args[1]);
+    }
+
+}
+=======================================================================================================
+package util;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Preprocessed sprite cache for fast startup. Every image, every sliced sprite of every spritemap, and every hard
+ * wall tile variant is stored as raw premultiplied ARGB pixels in one memory mapped file. Sprites are turned back into
+ * images lazily on first use while the rest are materialized in parallel in the background, so launching the game does
+ * not have to decode and slice the resource files on the main thread.
+ * When there is no cache, sprites come from ResourceCollection as before and the cache is built for the next launch.
+ */
+public class SpriteCache {
+
+    public static final String DEFAULT_PATH = "sprites.cache";
+
+    private static final int MAGIC = 0x53505243;    // "SPRC"
+    private static final int VERSION = 1;
+    private static final int HARD_WALL_TILES = 16;
+
+    // Sprite locations in the cache file by key
+    private static HashMap<String, Entry> entries;
+    private static IntBuffer pixels;
+
+    // Sprites that were already turned into images, either a BufferedImage or a BufferedImage[][]
+    private static final ConcurrentHashMap<String, Object> loaded = new ConcurrentHashMap<>();
+
+    private static volatile boolean resourcesRead = false;
+
+    private static class Entry {
+        final String key;
+        final int rows;
+        final int columns;
+        final int[] widths;
+        final int[] heights;
+        final int[] offsets;    // Offset of each sprite into the pixel section in ints
+
+        Entry(String key, int rows, int columns) {
+            this.key = key;
+            this.rows = rows;
+            this.columns = columns;
+            this.widths = new int[rows * columns];
+            this.heights = new int[rows * columns];
+            this.offsets = new int[rows * columns];
+        }
+    }
+
+    /**
+     * Map the cache file and start materializing sprites in the background.
+     * @param path Path of the cache file
+     * @return true if the cache was loaded, false if it is missing or invalid
+     */
+    public static boolean load(String path) {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return false;
+            }
+            int pixelStart = buffer.getInt();
+            int count = buffer.getInt();
+
+            HashMap<String, Entry> table = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                byte[] key = new byte[buffer.getShort()];
+                buffer.get(key);
+                Entry entry = new Entry(new String(key, StandardCharsets.UTF_8), buffer.getInt(), buffer.getInt());
+                for (int j = 0; j < entry.offsets.length; j++) {
+                    entry.widths[j] = buffer.getInt();
+                    entry.heights[j] = buffer.getInt();
+                    entry.offsets[j] = buffer.getInt();
+                }
+                table.put(entry.key, entry);
+            }
+
+            buffer.position(pixelStart);
+            pixels = buffer.slice().asIntBuffer();
+            entries = table;
+        } catch (IOException | RuntimeException e) {
+            Log.warn("Cannot load sprite cache").field("file", path).field("error", e).publish();
+            entries = null;
+            return false;
+        }
+
+        // Materialize everything in parallel so later lookups are already done
+        ForkJoinPool.commonPool().execute(() -> entries.values().parallelStream().forEach(entry -> materialize(entry.key)));
+        return true;
+    }
+
+    /**
+     * Read and slice the original resource files once. Used when there is no cache or the cache cannot serve a request.
+     */
+    public static synchronized void readResources() {
+        if (!resourcesRead) {
+            ResourceCollection.readFiles();
+            ResourceCollection.init();
+            resourcesRead = true;
+        }
+    }
+
+    /**
+     * Write every image, sliced sprite, and hard wall tile to a cache file. Reads the resource files if needed.
+     * @param path Path of the cache file
+     * @throws IOException When the cache file cannot be written
+     */
+    public static void build(String path) throws IOException {
+        readResources();
+
+        // Collect every sprite with its key
+        ArrayList<String> keys = new ArrayList<>();
+        ArrayList<BufferedImage[][]> sprites = new ArrayList<>();
+        for (ResourceCollection.Images image : ResourceCollection.Images.values()) {
+            keys.add(key(image));
+            sprites.add(new BufferedImage[][] {{ image.getImage() }});
+        }
+        for (ResourceCollection.SpriteMaps spriteMap : ResourceCollection.SpriteMaps.values()) {
+            keys.add(key(spriteMap));
+            sprites.add(spriteMap.getSprites());
+        }
+        for (int code = 0; code < HARD_WALL_TILES; code++) {
+            keys.add(hardWallKey(code));
+            sprites.add(new BufferedImage[][] {{ ResourceCollection.getHardWallTile(code) }});
+        }
+
+        // Header and table of contents, pixel offsets are in ints from the start of the pixel section
+        ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(0);     // Start of the pixel section, filled in below
+        header.writeInt(keys.size());
+        int offset = 0;
+        for (int i = 0; i < keys.size(); i++) {
+            BufferedImage[][] spriteMap = sprites.get(i);
+            int columns = 0;
+            for (BufferedImage[] row : spriteMap) {
+                columns = Math.max(columns, row.length);
+            }
+            byte[] key = keys.get(i).getBytes(StandardCharsets.UTF_8);
+            header.writeShort(key.length);
+            header.write(key);
+            header.writeInt(spriteMap.length);
+            header.writeInt(columns);
+            for (BufferedImage[] row : spriteMap) {
+                for (int column = 0; column < columns; column++) {
+                    BufferedImage sprite = column < row.length ? row[column] : null;
+                    int width = sprite == null ? 0 : sprite.getWidth();
+                    int height = sprite == null ? 0 : sprite.getHeight();
+                    header.writeInt(width);
+                    header.writeInt(height);
+                    header.writeInt(offset);
+                    offset += width * height;
+                }
+            }
+        }
+        header.flush();
+        int pixelStart = (headerBytes.size() + 3) & ~3;
+
+        ByteBuffer out = ByteBuffer.allocate(pixelStart + offset * 4);
+        out.put(headerBytes.toByteArray());
+        out.putInt(8, pixelStart);
+        out.position(pixelStart);
+        IntBuffer outPixels = out.asIntBuffer();
+        for (BufferedImage[][] spriteMap : sprites) {
+            for (BufferedImage[] row : spriteMap) {
+                for (BufferedImage sprite : row) {
+                    if (sprite != null) {
+                        outPixels.put(premultiplied(sprite));
+                    }
+                }
+            }
+        }
+        out.rewind();
+
+        try (RandomAccessFile file = new RandomAccessFile(path, "rw")) {
+            file.setLength(0);
+            FileChannel channel = file.getChannel();
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+        }
+    }
+
+    /**
+     * Get a whole image such as the background or a powerup.
+     * @param image Image to get
+     * @return The image
+     */
+    public static BufferedImage getImage(ResourceCollection.Images image) {
+        Object sprite = materialize(key(image));
+        if (sprite != null) {
+            return ((BufferedImage[][]) sprite)[0][0];
+        }
+        readResources();
+        return image.getImage();
+    }
+
+    /**
+     * Get the sliced sprites of a spritemap.
+     * @param spriteMap Spritemap to get
+     * @return Sprites indexed by row and column
+     */
+    public static BufferedImage[][] getSprites(ResourceCollection.SpriteMaps spriteMap) {
+        Object sprites = materialize(key(spriteMap));
+        if (sprites != null) {
+            return (BufferedImage[][]) sprites;
+        }
+        readResources();
+        return spriteMap.getSprites();
+    }
+
+    /**
+     * Get the hard wall tile variant for the code of adjacent hard walls.
+     * @param code Sum of 1 north, 2 east, 4 south, 8 west for each adjacent hard wall
+     * @return Hard wall tile
+     */
+    public static BufferedImage getHardWallTile(int code) {
+        Object sprite = materialize(hardWallKey(code));
+        if (sprite != null) {
+            return ((BufferedImage[][]) sprite)[0][0];
+        }
+        readResources();
+        return ResourceCollection.getHardWallTile(code);
+    }
+
+    /**
+     * Check if sprites are served from the cache.
+     * @return true if a cache file is loaded
+     */
+    public static boolean isLoaded() {
+        return entries != null;
+    }
+
+    /**
+     * Turn the pixels of an entry into images once, no matter how many threads ask for it at the same time.
+     * @return BufferedImage[][] of the entry, null if the entry is not in the cache
+     */
+    private static Object materialize(String key) {
+        if (entries == null) {
+            return null;
+        }
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        return loaded.computeIfAbsent(key, k -> {
+            BufferedImage[][] sprites = new BufferedImage[entry.rows][entry.columns];
+            for (int row = 0; row < entry.rows; row++) {
+                for (int column = 0; column < entry.columns; column++) {
+                    int i = row * entry.columns + column;
+                    if (entry.widths[i] == 0) {
+                        continue;
+                    }
+                    BufferedImage sprite = new BufferedImage(entry.widths[i], entry.heights[i], BufferedImage.TYPE_INT_ARGB_PRE);
+                    int[] data = ((DataBufferInt) sprite.getRaster().getDataBuffer()).getData();
+                    // Absolute bulk read so threads never share the buffer position
+                    pixels.duplicate().position(entry.offsets[i]).get(data);
+                    sprites[row][column] = sprite;
+                }
+            }
+            return sprites;
+        });
+    }
+
+    private static int[] premultiplied(BufferedImage sprite) {
+        BufferedImage copy = new BufferedImage(sprite.getWidth(), sprite.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2 = copy.createGraphics();
+        g2.drawImage(sprite, 0, 0, null);
+        g2.dispose();
+        return ((DataBufferInt) copy.getRaster().getDataBuffer()).getData();
+    }
+
+    private static String key(ResourceCollection.Images image) {
+        return "Images." + image.name();
+    }
+
+    private static String key(ResourceCollection.SpriteMaps spriteMap) {
+        return "SpriteMaps." + spriteMap.name();
+    }
+
+    private static String hardWallKey(int code) {
+        return "HardWall." + code;
+    }
+
+    /**
+     * Build the sprite cache ahead of time.
+     * Usage: java util.SpriteCache [path]
+     */
+    public static void main(String[] args) throws IOException {
+        String path = args.length > 0 ? args[0] : DEFAULT_PATH;
+        long start = System.nanoTime();
+        build(path);
+        System.out.println("Built sprite cache " + path + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+}
+===============================================================================================
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Log-linear histogram in the style of HdrHistogram. Values are counted in buckets that double in size, each split
+ * into 32 linear sub-buckets, so every recorded value is kept within about 3% of its true value with a fixed amount
+ * of memory and no allocation when recording.
+ * Recording is safe from any thread. Snapshots drain the histogram so each snapshot covers one interval.
+ */
+public class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (63 - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a value.
+     * @param value Non-negative value such as a duration in nanoseconds
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        this.counts.incrementAndGet(index(value));
+        long current = this.max.get();
+        while (value > current && !this.max.compareAndSet(current, value)) {
+            current = this.max.get();
+        }
+    }
+
+    /**
+     * Take every value recorded since the last snapshot and reset the histogram.
+     * @return Summary of the values recorded in this interval
+     */
+    public Snapshot snapshot() {
+        long[] drained = new long[BUCKETS];
+        long count = 0;
+        long sum = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            drained[i] = this.counts.getAndSet(i, 0);
+            count += drained[i];
+            sum += drained[i] * midpoint(i);
+        }
+        long intervalMax = this.max.getAndSet(0);
+        return new Snapshot(count, count == 0 ? 0 : sum / count,
+                percentile(drained, count, 0.50, intervalMax),
+                percentile(drained, count, 0.99, intervalMax),
+                intervalMax);
+    }
+
+    private static long percentile(long[] counts, long total, double percentile, long max) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highest(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Values below 32 get their own bucket, larger values keep their 6 most significant bits.
+     */
+    private static int index(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (msb - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    private static long lowest(int index) {
+        int bucket = index / SUB_BUCKETS;
+        int subBucket = index % SUB_BUCKETS;
+        return bucket == 0 ? subBucket : (long) (SUB_BUCKETS + subBucket) << (bucket - 1);
+    }
+
+    private static long highest(int index) {
+        int bucket = index / SUB_BUCKETS;
+        return bucket == 0 ? lowest(index) : lowest(index) + (1L << (bucket - 1)) - 1;
+    }
+
+    private static long midpoint(int index) {
+        return (lowest(index) + highest(index)) / 2;
+    }
+
+    /**
+     * Immutable summary of one interval of a histogram.
+     */
+    public static class Snapshot {
+
+        public static final Snapshot EMPTY = new Snapshot(0, 0, 0, 0, 0);
+
+        private final long count;
+        private final long mean;
+        private final long p50;
+        private final long p99;
+        private final long max;
+
+        Snapshot(long count, long mean, long p50, long p99, long max) {
+            this.count = count;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return this.count;
+        }
+
+        public long getMean() {
+            return this.mean;
+        }
+
+        public long getP50() {
+            return this.p50;
+        }
+
+        public long getP99() {
+            return this.p99;
+        }
+
+        public long getMax() {
+            return this.max;
+        }
+
+    }
+
+}
+===============================================================================================
+package util;
+
+import com.sun.net.httpserver.HttpServer;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Always on instrumentation of the game loop. Each phase of a tick is timed into a histogram, along with the number
+ * of entities updated, collision pairs tested, bytes allocated per tick, and the delay from key events to ticks. Once a second the histograms are drained
+ * into snapshots that are served through a platform MBean and optionally a local plain text endpoint.
+ * The text endpoint is enabled by setting the system property bomberman.metrics.port.
+ */
+public class TickMetrics {
+
+    public enum Phase {
+        UPDATE,     // Game object updates
+        COLLISION,  // Collision tests and handling
+        REMOVAL,    // Destroying and removing game objects
+        SCORING,    // Score and round reset checks
+        RENDER,     // Drawing a frame
+        TICK        // Whole tick from start to finish
+    }
+
+    public static final String OBJECT_NAME = "bomberman:type=TickMetrics";
+    public static final String PORT_PROPERTY = "bomberman.metrics.port";
+
+    private static final Phase[] PHASES = Phase.values();
+    private static final Histogram[] phaseHistograms = new Histogram[PHASES.length];
+    private static final Histogram entities = new Histogram();
+    private static final Histogram collisionPairs = new Histogram();
+    private static final Histogram allocatedBytes = new Histogram();
+    private static final Histogram inputLatency = new Histogram();
+
+    // Latest values, replaced as a whole once a second
+    private static volatile Map<String, Long> values;
+    static {
+        for (int i = 0; i < PHASES.length; i++) {
+            phaseHistograms[i] = new Histogram();
+        }
+        roll(0, 0);
+    }
+
+    private static final com.sun.management.ThreadMXBean allocationCounter = allocationCounter();
+    private static HttpServer endpoint;
+
+    /**
+     * Record the time spent in a phase during one tick or frame.
+     * @param phase Phase of the tick
+     * @param nanos Time spent in nanoseconds
+     */
+    public static void record(Phase phase, long nanos) {
+        phaseHistograms[phase.ordinal()].record(nanos);
+    }
+
+    /**
+     * Record the counters of one tick.
+     * @param entityCount Game objects updated
+     * @param pairCount Collision pairs tested
+     * @param bytes Bytes allocated by the game thread, negative when not supported
+     */
+    public static void recordCounts(int entityCount, long pairCount, long bytes) {
+        entities.record(entityCount);
+        collisionPairs.record(pairCount);
+        if (bytes >= 0) {
+            allocatedBytes.record(bytes);
+        }
+    }
+
+    /**
+     * Record the time from a key event to the tick that applied it.
+     * @param nanos Input latency in nanoseconds
+     */
+    public static void recordInputLatency(long nanos) {
+        inputLatency.record(nanos);
+    }
+
+    /**
+     * Bytes allocated by the current thread so far. Take the difference of two calls to measure allocation.
+     * @return Allocated bytes, -1 when the JVM does not support allocation counting
+     */
+    public static long threadAllocatedBytes() {
+        return allocationCounter == null ? -1 : allocationCounter.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Drain every histogram into the values served by the MBean and endpoint. Called once a second.
+     * @param fps Frames drawn in the last second
+     * @param ticks Ticks run in the last second
+     */
+    public static void roll(int fps, int ticks) {
+        Map<String, Long> latest = new LinkedHashMap<>();
+        latest.put("fps", (long) fps);
+        latest.put("ticks", (long) ticks);
+        for (int i = 0; i < PHASES.length; i++) {
+            put(latest, PHASES[i].name().toLowerCase() + "_ns", phaseHistograms[i].snapshot());
+        }
+        put(latest, "entities", entities.snapshot());
+        put(latest, "collision_pairs", collisionPairs.snapshot());
+        put(latest, "allocated_bytes", allocatedBytes.snapshot());
+        put(latest, "input_latency_ns", inputLatency.snapshot());
+        InputLatency.roll(latest);
+        ObjectPool.roll(latest);
+        values = latest;
+    }
+
+    private static void put(Map<String, Long> latest, String name, Histogram.Snapshot snapshot) {
+        latest.put(name + "_p50", snapshot.getP50());
+        latest.put(name + "_p99", snapshot.getP99());
+        latest.put(name + "_max", snapshot.getMax());
+        latest.put(name + "_mean", snapshot.getMean());
+    }
+
+    /**
+     * Get the values of the last completed second.
+     * @return Metric names mapped to values
+     */
+    public static Map<String, Long> getValues() {
+        return values;
+    }
+
+    /**
+     * Format the values of the last completed second as one "name value" line each.
+     * @return Plain text report
+     */
+    public static String report() {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Long> value : values.entrySet()) {
+            text.append("bomberman_").append(value.getKey()).append(' ').append(value.getValue()).append('\n');
+        }
+        return text.toString();
+    }
+
+    /**
+     * Register the MBean and start the text endpoint if a port is configured. Failures are reported and ignored so
+     * that instrumentation never stops the game from starting.
+     */
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new MetricsBean(), new ObjectName(OBJECT_NAME));
+        } catch (Exception e) {
+            Log.warn("Cannot register metrics MBean").field("error", e).publish();
+        }
+
+        Integer port = Integer.getInteger(PORT_PROPERTY);
+        if (port != null && endpoint == null) {
+            try {
+                endpoint = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+                endpoint.createContext("/metrics", exchange -> {
+                    byte[] body = report().getBytes(StandardCharsets.UTF_8);
+                    exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                    exchange.sendResponseHeaders(200, body.length);
+                    try (OutputStream out = exchange.getResponseBody()) {
+                        out.write(body);
+                    }
+                });
+                endpoint.start();
+            } catch (IOException e) {
+                Log.warn("Cannot start metrics endpoint").field("port", port).field("error", e).publish();
+                endpoint = null;
+            }
+        }
+    }
+
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean counter = (com.sun.management.ThreadMXBean) threads;
+            if (counter.isThreadAllocatedMemorySupported()) {
+                counter.setThreadAllocatedMemoryEnabled(true);
+                return counter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Read only MBean with one long attribute for each metric.
+     */
+    private static class MetricsBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) {
+            return values.get(attribute);
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> latest = values;
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (latest.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, latest.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("Metrics have no operations");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            Map<String, Long> latest = values;
+            MBeanAttributeInfo[] attributes = new MBeanAttributeInfo[latest.size()];
+            int i = 0;
+            for (String name : latest.keySet()) {
+                attributes[i++] = new MBeanAttributeInfo(name, "long", name, true, false, false);
+            }
+            return new MBeanInfo(TickMetrics.class.getName(), "Game loop tick metrics", attributes, null, null, null);
+        }
+
+    }
+
+}
+===============================================================================================
+package util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Custom Java Flight Recorder events for game activity. A recording with these events enabled lines up ticks, frames,
+ * detonations, and map loads with GC pauses and CPU samples, showing which gameplay moments cause frame drops.
+ * Events cost next to nothing when no recording is running.
+ */
+public class GameEvents {
+
+    private static final String CATEGORY = "Bomberman";
+
+    @Name("bomberman.Tick")
+    @Label("Game Tick")
+    @Description("One update of every game object")
+    @Category({ CATEGORY, "Game Loop" })
+    @StackTrace(false)
+    public static class Tick extends Event {
+        @Label("Entities")
+        public int entities;
+
+        @Label("Collision Pairs")
+        public long collisionPairs;
+    }
+
+    @Name("bomberman.Paint")
+    @Label("Paint")
+    @Description("Drawing one frame of the game")
+    @Category({ CATEGORY, "Game Loop" })
+    @StackTrace(false)
+    public static class Paint extends Event {
+    }
+
+    @Name("bomberman.BombDetonation")
+    @Label("Bomb Detonation")
+    @Description("A bomb exploding, either from its timer or from another explosion")
+    @Category({ CATEGORY, "Gameplay" })
+    @StackTrace(false)
+    public static class BombDetonation extends Event {
+        @Label("Firepower")
+        public int firepower;
+
+        @Label("Pierce")
+        public boolean pierce;
+
+        @Label("Chain Depth")
+        @Description("0 when the bomb timer ran out, otherwise the number of bombs that set this one off in a chain")
+        public int chainDepth;
+    }
+
+    @Name("bomberman.ExplosionConstruction")
+    @Label("Explosion Construction")
+    @Description("Finding the range of an explosion and drawing its sprites")
+    @Category({ CATEGORY, "Gameplay" })
+    @StackTrace(false)
+    public static class ExplosionConstruction extends Event {
+        @Label("Horizontal")
+        public boolean horizontal;
+
+        @Label("Tiles")
+        public int tiles;
+    }
+
+    @Name("bomberman.RoundReset")
+    @Label("Round Reset")
+    @Description("Clearing and generating the map for the next round")
+    @Category({ CATEGORY, "Game Loop" })
+    @StackTrace(false)
+    public static class RoundReset extends Event {
+        @Label("Tile Objects")
+        public int tileObjects;
+    }
+
+    @Name("bomberman.MapLoad")
+    @Label("Map Load")
+    @Description("Loading and parsing a map file")
+    @Category({ CATEGORY, "Loading" })
+    @StackTrace(false)
+    public static class MapLoad extends Event {
+        @Label("File")
+        public String file;
+
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+
+        @Label("Default Map")
+        @Description("Whether the map file could not be loaded and the default map was used instead")
+        public boolean fallback;
+    }
+
+}
+===============================================================================================
+package util;
+
+import java.io.PrintStream;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous logger so that game code never blocks on console output. Messages are written into a preallocated
+ * ring buffer of entries without locks, and a background thread formats and prints them. When the buffer is full the
+ * message is dropped and counted instead of making the game wait.
+ * The level is set with the system property bomberman.log.level, INFO by default.
+ *
+ * Usage: Log.info("Powerup collected").field("stat", "firepower").field("to", 3).publish();
+ */
+public class Log {
+
+    public enum Level {
+        DEBUG,
+        INFO,
+        WARN,
+        ERROR
+    }
+
+    public static final String LEVEL_PROPERTY = "bomberman.log.level";
+
+    private static final int CAPACITY = 4096;   // Must be a power of two
+    private static final int MAX_FIELDS = 6;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long SHUTDOWN_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final Level threshold = level(System.getProperty(LEVEL_PROPERTY, Level.INFO.name()));
+    private static final Entry[] ring = new Entry[CAPACITY];
+    private static final Entry discarded = new Entry(-1);
+
+    // Next sequence to claim by producers and next sequence to print by the writer thread
+    private static final AtomicLong head = new AtomicLong();
+    private static final AtomicLong tail = new AtomicLong();
+    private static final AtomicLong dropped = new AtomicLong();
+
+    static {
+        for (int i = 0; i < CAPACITY; i++) {
+            ring[i] = new Entry(i - CAPACITY);
+        }
+
+        Thread writer = new Thread(Log::drain, "Log writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "Log flush"));
+    }
+
+    /**
+     * One message in the ring buffer. Fields are stored in preallocated arrays so logging numbers does not allocate.
+     */
+    public static class Entry {
+
+        private static final byte LONG = 0;
+        private static final byte DOUBLE = 1;
+        private static final byte BOOLEAN = 2;
+        private static final byte OBJECT = 3;
+
+        private volatile long published;    // Sequence of the message in this entry once it is ready to print
+        private long sequence;
+        private Level level;
+        private long time;
+        private String message;
+        private int fieldCount;
+        private final String[] keys = new String[MAX_FIELDS];
+        private final byte[] types = new byte[MAX_FIELDS];
+        private final long[] values = new long[MAX_FIELDS];
+        private final Object[] objects = new Object[MAX_FIELDS];
+
+        private Entry(long published) {
+            this.published = published;
+        }
+
+        public Entry field(String key, long value) {
+            return this.add(key, LONG, value, null);
+        }
+
+        public Entry field(String key, double value) {
+            return this.add(key, DOUBLE, Double.doubleToRawLongBits(value), null);
+        }
+
+        public Entry field(String key, boolean value) {
+            return this.add(key, BOOLEAN, value ? 1 : 0, null);
+        }
+
+        /**
+         * Add a field whose value is printed with toString by the writer thread. Only pass immutable values.
+         * @param key Field name
+         * @param value Field value such as a string or exception
+         * @return This entry
+         */
+        public Entry field(String key, Object value) {
+            return this.add(key, OBJECT, 0, value);
+        }
+
+        private Entry add(String key, byte type, long value, Object object) {
+            if (this == discarded || this.fieldCount == MAX_FIELDS) {
+                return this;
+            }
+            this.keys[this.fieldCount] = key;
+            this.types[this.fieldCount] = type;
+            this.values[this.fieldCount] = value;
+            this.objects[this.fieldCount] = object;
+            this.fieldCount++;
+            return this;
+        }
+
+        /**
+         * Hand this message to the writer thread. Every claimed entry must be published, and must not be used after.
+         */
+        public void publish() {
+            if (this != discarded) {
+                this.published = this.sequence;
+            }
+        }
+
+        private void format(StringBuilder text) {
+            long millisOfDay = Math.floorMod(this.time + TimeZone.getDefault().getOffset(this.time), 86400000L);
+            text.append('[');
+            pad(text, millisOfDay / 3600000, 2).append(':');
+            pad(text, millisOfDay / 60000 % 60, 2).append(':');
+            pad(text, millisOfDay / 1000 % 60, 2).append('.');
+            pad(text, millisOfDay % 1000, 3).append("] ");
+            text.append(this.level.name());
+            for (int i = this.level.name().length(); i < 6; i++) {
+                text.append(' ');
+            }
+            text.append(this.message);
+            for (int i = 0; i < this.fieldCount; i++) {
+                text.append(' ').append(this.keys[i]).append('=');
+                switch (this.types[i]) {
+                    case LONG:
+                        text.append(this.values[i]);
+                        break;
+                    case DOUBLE:
+                        text.append(Double.longBitsToDouble(this.values[i]));
+                        break;
+                    case BOOLEAN:
+                        text.append(this.values[i] != 0);
+                        break;
+                    default:
+                        text.append(this.objects[i]);
+                        break;
+                }
+            }
+        }
+
+        private static StringBuilder pad(StringBuilder text, long value, int digits) {
+            for (long limit = 10; digits > 1; digits--, limit *= 10) {
+                if (value < limit) {
+                    text.append('0');
+                }
+            }
+            return text.append(value);
+        }
+
+    }
+
+    public static Entry debug(String message) {
+        return claim(Level.DEBUG, message);
+    }
+
+    public static Entry info(String message) {
+        return claim(Level.INFO, message);
+    }
+
+    public static Entry warn(String message) {
+        return claim(Level.WARN, message);
+    }
+
+    public static Entry error(String message) {
+        return claim(Level.ERROR, message);
+    }
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(threshold) >= 0;
+    }
+
+    /**
+     * Number of messages dropped because the ring buffer was full.
+     * @return Dropped message count
+     */
+    public static long getDropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Claim the next free entry in the ring buffer without blocking.
+     * @return Entry to fill in and publish, or an entry that ignores everything when the level is disabled or the
+     * buffer is full
+     */
+    private static Entry claim(Level level, String message) {
+        if (!isEnabled(level)) {
+            return discarded;
+        }
+
+        long sequence;
+        do {
+            sequence = head.get();
+            if (sequence - tail.get() >= CAPACITY) {
+                dropped.incrementAndGet();
+                return discarded;
+            }
+        } while (!head.compareAndSet(sequence, sequence + 1));
+
+        Entry entry = ring[(int) sequence & (CAPACITY - 1)];
+        entry.sequence = sequence;
+        entry.level = level;
+        entry.time = System.currentTimeMillis();
+        entry.message = message;
+        entry.fieldCount = 0;
+        return entry;
+    }
+
+    /**
+     * Writer thread loop. Prints published entries in order and sleeps briefly when there is nothing to print.
+     */
+    private static void drain() {
+        StringBuilder text = new StringBuilder(256);
+        long reportedDrops = 0;
+        while (true) {
+            long sequence = tail.get();
+            Entry entry = ring[(int) sequence & (CAPACITY - 1)];
+            if (entry.published != sequence) {
+                long drops = dropped.get();
+                if (drops != reportedDrops) {
+                    System.err.println("Log dropped " + (drops - reportedDrops) + " messages");
+                    reportedDrops = drops;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            text.setLength(0);
+            entry.format(text);
+            PrintStream out = entry.level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+            out.println(text);
+            if (entry.level == Level.ERROR) {
+                for (int i = 0; i < entry.fieldCount; i++) {
+                    if (entry.objects[i] instanceof Throwable) {
+                        ((Throwable) entry.objects[i]).printStackTrace();
+                    }
+                }
+            }
+            for (int i = 0; i < entry.fieldCount; i++) {
+                entry.objects[i] = null;
+            }
+            tail.lazySet(sequence + 1);
+        }
+    }
+
+    /**
+     * Wait for the writer thread to print every message claimed so far, for up to one second.
+     */
+    public static void flush() {
+        long target = head.get();
+        long deadline = System.nanoTime() + SHUTDOWN_TIMEOUT_NANOS;
+        while (tail.get() < target && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(IDLE_PARK_NANOS);
+        }
+    }
+
+    private static Level level(String name) {
+        try {
+            return Level.valueOf(name.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e + ": Unknown log level " + name + ", using INFO");
+            return Level.INFO;
+        }
+    }
+
+}
+===============================================================================================
+package util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock free single producer, single consumer queue of timestamped key events. The event dispatch thread offers key
+ * presses and releases as they happen and the game thread drains them at the start of each tick, so player input is
+ * only ever changed on the game thread. Key events made on the game thread itself, by bots and replays, go through a
+ * queue of their own so that no queue has two producers. Events are packed into preallocated arrays and never allocate.
+ */
+public class InputQueue {
+
+    /**
+     * Receives drained key events on the game thread.
+     */
+    public interface Handler {
+        /**
+         * @param player Player index
+         * @param key Action of the key
+         * @param pressed true for a key press, false for a release
+         * @param time System.nanoTime when the event was offered
+         */
+        void onInput(int player, Key key, boolean pressed, long time);
+    }
+
+    private static final Key[] KEYS = Key.values();
+
+    private final int mask;
+    private final long[] times;
+    private final int[] events;     // Player index, key ordinal, and pressed packed into one int
+
+    // Next slot to write, written only by the producer, and next slot to read, written only by the consumer
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param capacity Number of events that can wait between two ticks, rounded up to a power of two
+     */
+    public InputQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.times = new long[size];
+        this.events = new int[size];
+    }
+
+    /**
+     * Add a key event. Only called from one thread.
+     * @param player Player index
+     * @param key Action of the key
+     * @param pressed true for a key press, false for a release
+     * @param time System.nanoTime of the event
+     * @return false if the queue was full and the event was dropped
+     */
+    public boolean offer(int player, Key key, boolean pressed, long time) {
+        long sequence = this.head.get();
+        if (sequence - this.tail.get() > this.mask) {
+            this.dropped.incrementAndGet();
+            return false;
+        }
+        int slot = (int) sequence & this.mask;
+        this.times[slot] = time;
+        this.events[slot] = player << 8 | key.ordinal() << 1 | (pressed ? 1 : 0);
+        this.head.lazySet(sequence + 1);
+        return true;
+    }
+
+    /**
+     * Hand every waiting event to the handler in the order they were offered. Only called from one thread.
+     * @param handler Receives each event
+     * @return Number of events drained
+     */
+    public int drain(Handler handler) {
+        long sequence = this.tail.get();
+        long end = this.head.get();
+        for (long i = sequence; i < end; i++) {
+            int slot = (int) i & this.mask;
+            int event = this.events[slot];
+            handler.onInput(event >>> 8, KEYS[(event >>> 1) & 0x7F], (event & 1) != 0, this.times[slot]);
+        }
+        this.tail.lazySet(end);
+        return (int) (end - sequence);
+    }
+
+    /**
+     * Number of events dropped because the game thread fell too far behind.
+     * @return Dropped event count
+     */
+    public long getDropped() {
+        return this.dropped.get();
+    }
+
+}
+===============================================================================================
+package util;
+
+import java.awt.event.KeyEvent;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * Key bindings stored in a table indexed by key code, so looking up a key event is one array read with no boxing.
+ * Bindings can be loaded from a properties file with one line for each player action, for example:
+ *
+ *     player1.up = UP
+ *     player1.action = SLASH
+ *     player2.left = A, NUMPAD4
+ *
+ * Key names are KeyEvent VK_ names without the prefix, or numeric key codes. Actions that are not in the file keep
+ * their default keys.
+ */
+public class KeyBindings {
+
+    public static final String DEFAULT_PATH = "controls.properties";
+    public static final String PATH_PROPERTY = "bomberman.controls";
+
+    private static final int KEY_CODES = 1 << 16;
+    private static final Key[] KEYS = Key.values();
+
+    // Player index and key ordinal plus one for each key code, 0 when the key is not bound
+    private final short[] table = new short[KEY_CODES];
+
+    /**
+     * Bind a key code to a player action. A key code can only be bound to one action.
+     * @param keyCode KeyEvent key code
+     * @param player Player index
+     * @param key Action
+     */
+    public void bind(int keyCode, int player, Key key) {
+        if (keyCode >= 0 && keyCode < KEY_CODES) {
+            this.table[keyCode] = (short) ((player << 3 | key.ordinal()) + 1);
+        }
+    }
+
+    /**
+     * Remove every key bound to a player action.
+     * @param player Player index
+     * @param key Action
+     */
+    public void unbind(int player, Key key) {
+        short entry = (short) ((player << 3 | key.ordinal()) + 1);
+        for (int i = 0; i < KEY_CODES; i++) {
+            if (this.table[i] == entry) {
+                this.table[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * Get the player a key controls.
+     * @param keyCode KeyEvent key code
+     * @return Player index, -1 when the key is not bound
+     */
+    public int getPlayer(int keyCode) {
+        if (keyCode < 0 || keyCode >= KEY_CODES) {
+            return -1;
+        }
+        return ((this.table[keyCode] & 0xFFFF) - 1) >> 3;
+    }
+
+    /**
+     * Get the action a key is bound to.
+     * @param keyCode KeyEvent key code
+     * @return Action, null when the key is not bound
+     */
+    public Key getKey(int keyCode) {
+        if (keyCode < 0 || keyCode >= KEY_CODES || this.table[keyCode] == 0) {
+            return null;
+        }
+        return KEYS[((this.table[keyCode] & 0xFFFF) - 1) & 7];
+    }
+
+    /**
+     * Default controls for four players.
+     * @return New bindings
+     */
+    public static KeyBindings defaults() {
+        KeyBindings bindings = new KeyBindings();
+
+        // Set Player 1 controls
+        bindings.bind(KeyEvent.VK_UP, 0, Key.up);
+        bindings.bind(KeyEvent.VK_DOWN, 0, Key.down);
+        bindings.bind(KeyEvent.VK_LEFT, 0, Key.left);
+        bindings.bind(KeyEvent.VK_RIGHT, 0, Key.right);
+        bindings.bind(KeyEvent.VK_SLASH, 0, Key.action);
+
+        // Set Player 2 controls
+        bindings.bind(KeyEvent.VK_W, 1, Key.up);
+        bindings.bind(KeyEvent.VK_S, 1, Key.down);
+        bindings.bind(KeyEvent.VK_A, 1, Key.left);
+        bindings.bind(KeyEvent.VK_D, 1, Key.right);
+        bindings.bind(KeyEvent.VK_E, 1, Key.action);
+
+        // Set Player 3 controls
+        bindings.bind(KeyEvent.VK_T, 2, Key.up);
+        bindings.bind(KeyEvent.VK_G, 2, Key.down);
+        bindings.bind(KeyEvent.VK_F, 2, Key.left);
+        bindings.bind(KeyEvent.VK_H, 2, Key.right);
+        bindings.bind(KeyEvent.VK_Y, 2, Key.action);
+
+        // Set Player 4 controls
+        bindings.bind(KeyEvent.VK_I, 3, Key.up);
+        bindings.bind(KeyEvent.VK_K, 3, Key.down);
+        bindings.bind(KeyEvent.VK_J, 3, Key.left);
+        bindings.bind(KeyEvent.VK_L, 3, Key.right);
+        bindings.bind(KeyEvent.VK_O, 3, Key.action);
+
+        return bindings;
+    }
+
+    /**
+     * Load default controls overridden by a properties file.
+     * @param path Path of the properties file
+     * @return New bindings
+     * @throws IOException When the file cannot be read
+     */
+    public static KeyBindings load(String path) throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(Paths.get(path), StandardCharsets.ISO_8859_1)) {
+            properties.load(reader);
+        }
+
+        KeyBindings bindings = defaults();
+        for (String name : properties.stringPropertyNames()) {
+            // Property names look like player1.up
+            int dot = name.indexOf('.');
+            int player = -1;
+            Key key = null;
+            if (name.startsWith("player") && dot > 0) {
+                try {
+                    player = Integer.parseInt(name.substring("player".length(), dot)) - 1;
+                    key = Key.valueOf(name.substring(dot + 1));
+                } catch (IllegalArgumentException ignored) {
+                }
+            }
+            if (key == null || player < 0 || player >= MapFile.MAX_PLAYERS) {
+                Log.warn("Unknown control").field("name", name).publish();
+                continue;
+            }
+
+            // Replace the default keys only when at least one of the new keys is valid
+            String[] keyNames = properties.getProperty(name).split(",");
+            int[] keyCodes = new int[keyNames.length];
+            boolean valid = false;
+            for (int i = 0; i < keyNames.length; i++) {
+                keyCodes[i] = keyCode(keyNames[i].trim());
+                if (keyCodes[i] < 0) {
+                    Log.warn("Unknown key").field("control", name).field("key", keyNames[i].trim()).publish();
+                } else {
+                    valid = true;
+                }
+            }
+            if (valid) {
+                bindings.unbind(player, key);
+                for (int keyCode : keyCodes) {
+                    if (keyCode >= 0) {
+                        bindings.bind(keyCode, player, key);
+                    }
+                }
+            }
+        }
+        return bindings;
+    }
+
+    /**
+     * Load controls from the file named by the bomberman.controls property or the default path. Falls back to
+     * default controls when there is no such file.
+     * @return New bindings
+     */
+    public static KeyBindings loadConfigured() {
+        String path = System.getProperty(PATH_PROPERTY, DEFAULT_PATH);
+        if (!Files.exists(Paths.get(path))) {
+            return defaults();
+        }
+        try {
+            return load(path);
+        } catch (IOException e) {
+            Log.warn("Cannot load controls, using default controls").field("file", path).field("error", e).publish();
+            return defaults();
+        }
+    }
+
+    private static int keyCode(String name) {
+        try {
+            return Integer.parseInt(name);
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            return KeyEvent.class.getField("VK_" + name.toUpperCase()).getInt(null);
+        } catch (ReflectiveOperationException e) {
+            return -1;
+        }
+    }
+
+}
+===============================================================================================
+package util;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Toolkit;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * End to end input latency, from a key event entering PlayerController to the flushed frame that shows its effect.
+ * The key event time is carried through the tick that acts on it, handed to the render thread once that tick is done,
+ * and recorded after the next frame is drawn and flushed to the screen.
+ * Percentiles for each player are shown in a debug overlay and exported with the tick metrics.
+ * The overlay is toggled with F3 or turned on at launch with the system property bomberman.latency.
+ */
+public class InputLatency {
+
+    public static final String PROPERTY = "bomberman.latency";
+
+    private static final long NO_INPUT = Long.MIN_VALUE;
+    private static final Font FONT = new Font("Monospaced", Font.PLAIN, 12);
+    private static final Color BACKGROUND = new Color(0, 0, 0, 160);
+
+    private static volatile boolean enabled = Boolean.getBoolean(PROPERTY);
+
+    // Key event times acted on by finished ticks, waiting to be drawn
+    private static final AtomicLongArray consumed = new AtomicLongArray(MapFile.MAX_PLAYERS);
+
+    // Key event times that are in the frame being drawn, only used by the render thread
+    private static final long[] drawing = new long[MapFile.MAX_PLAYERS];
+
+    private static final Histogram[] histograms = new Histogram[MapFile.MAX_PLAYERS];
+    private static volatile Histogram.Snapshot[] snapshots = new Histogram.Snapshot[MapFile.MAX_PLAYERS];
+    static {
+        for (int i = 0; i < MapFile.MAX_PLAYERS; i++) {
+            consumed.set(i, NO_INPUT);
+            histograms[i] = new Histogram();
+            snapshots[i] = Histogram.Snapshot.EMPTY;
+        }
+        Arrays.fill(drawing, NO_INPUT);
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn latency measurement and the overlay on or off.
+     */
+    public static void toggle() {
+        enabled = !enabled;
+        Log.info("Input latency overlay").field("enabled", enabled).publish();
+    }
+
+    /**
+     * Called by the game thread after a tick for each player that acted on key events during the tick.
+     * @param player Player index
+     * @param time System.nanoTime of the earliest key event acted on
+     */
+    public static void consumed(int player, long time) {
+        if (player < MapFile.MAX_PLAYERS && time != NO_INPUT) {
+            consumed.compareAndSet(player, NO_INPUT, time);
+        }
+    }
+
+    /**
+     * Called by the render thread before drawing a frame. Input acted on by ticks finished before now is in this frame.
+     */
+    public static void frameBegin() {
+        for (int i = 0; i < MapFile.MAX_PLAYERS; i++) {
+            long time = consumed.getAndSet(i, NO_INPUT);
+            if (time != NO_INPUT && drawing[i] == NO_INPUT) {
+                drawing[i] = time;
+            }
+        }
+    }
+
+    /**
+     * Called by the render thread after a frame is drawn. Flushes the frame to the screen and records the latency of
+     * the input it shows.
+     */
+    public static void frameDrawn() {
+        if (!enabled) {
+            Arrays.fill(drawing, NO_INPUT);
+            return;
+        }
+        Toolkit.getDefaultToolkit().sync();
+        long now = System.nanoTime();
+        for (int i = 0; i < MapFile.MAX_PLAYERS; i++) {
+            if (drawing[i] != NO_INPUT) {
+                histograms[i].record(now - drawing[i]);
+                drawing[i] = NO_INPUT;
+            }
+        }
+    }
+
+    /**
+     * Drain the histograms of the last second into the overlay and exported metrics. Called once a second.
+     * @param values Metrics to add the latency of each player that had input to
+     */
+    static void roll(Map<String, Long> values) {
+        Histogram.Snapshot[] latest = new Histogram.Snapshot[MapFile.MAX_PLAYERS];
+        for (int i = 0; i < MapFile.MAX_PLAYERS; i++) {
+            latest[i] = histograms[i].snapshot();
+            if (latest[i].getCount() > 0) {
+                String name = "player" + (i + 1) + "_input_to_frame_ns";
+                values.put(name + "_p50", latest[i].getP50());
+                values.put(name + "_p99", latest[i].getP99());
+                values.put(name + "_max", latest[i].getMax());
+            }
+        }
+        snapshots = latest;
+    }
+
+    /**
+     * Draw the latency of the last second for each player with input.
+     * @param g2 Graphics to draw the overlay with
+     * @param x Left edge of the overlay
+     * @param y Top edge of the overlay
+     */
+    public static void drawOverlay(Graphics2D g2, int x, int y) {
+        if (!enabled) {
+            return;
+        }
+        Histogram.Snapshot[] latest = snapshots;
+        int lines = 1;
+        for (Histogram.Snapshot snapshot : latest) {
+            if (snapshot.getCount() > 0) {
+                lines++;
+            }
+        }
+
+        g2.setFont(FONT);
+        g2.setColor(BACKGROUND);
+        g2.fillRect(x, y, 300, lines * 14 + 6);
+        g2.setColor(Color.WHITE);
+        g2.drawString("Input to frame      p50     p99     max", x + 4, y + 14);
+        int line = 2;
+        for (int i = 0; i < latest.length; i++) {
+            if (latest[i].getCount() > 0) {
+                g2.drawString(String.format("P%-2d %4d inputs %6.1f  %6.1f  %6.1f ms", i + 1, latest[i].getCount(),
+                        latest[i].getP50() / 1e6, latest[i].getP99() / 1e6, latest[i].getMax() / 1e6), x + 4, y + line++ * 14);
+            }
+        }
+    }
+
+}
+===============================================================================================
+package util;
+
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Free list of reusable objects for short lived game objects. Acquiring from an empty pool is a miss and the caller
+ * constructs a new object, which later joins the pool when it is released. Hits and misses are exported with the
+ * tick metrics. Only used on the game thread.
+ *
+ * With -Dbomberman.pool.verify=true every reused object is compared field by field with a freshly constructed one,
+ * so that state left over from the previous use is caught as soon as the object is reused. Transient fields are
+ * skipped, they are for bookkeeping that is meant to survive reuse.
+ * @param <T> Type of pooled object
+ */
+public class ObjectPool<T> {
+
+    public static final String VERIFY_PROPERTY = "bomberman.pool.verify";
+
+    private static final boolean verifying = Boolean.getBoolean(VERIFY_PROPERTY);
+    private static final List<ObjectPool<?>> pools = new CopyOnWriteArrayList<>();
+
+    private final String name;
+    private final Object[] free;
+    private int size;
+
+    // Counted since the last roll
+    private long hits;
+    private long misses;
+
+    /**
+     * Create a pool and add it to the tick metrics.
+     * @param name Name used in metric names
+     * @param capacity Maximum number of free objects kept, objects released to a full pool are left to the garbage collector
+     */
+    public ObjectPool(String name, int capacity) {
+        this.name = name;
+        this.free = new Object[capacity];
+        pools.add(this);
+    }
+
+    /**
+     * Take a free object from the pool. The object still has the state of its last use and must be reset.
+     * @return Free object, null when the pool is empty
+     */
+    @SuppressWarnings("unchecked")
+    public T acquire() {
+        if (this.size == 0) {
+            this.misses++;
+            return null;
+        }
+        this.hits++;
+        T obj = (T) this.free[--this.size];
+        this.free[this.size] = null;
+        return obj;
+    }
+
+    /**
+     * Return an object that is no longer referenced by the game.
+     * @param obj Object to reuse later
+     */
+    public void release(T obj) {
+        if (verifying) {
+            for (int i = 0; i < this.size; i++) {
+                if (this.free[i] == obj) {
+                    throw new IllegalStateException("Released twice to pool " + this.name + ": " + obj);
+                }
+            }
+        }
+        if (this.size < this.free.length) {
+            this.free[this.size++] = obj;
+        }
+    }
+
+    /**
+     * Get the number of free objects.
+     * @return Objects waiting to be reused
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Drop every free object.
+     */
+    public void clear() {
+        Arrays.fill(this.free, 0, this.size, null);
+        this.size = 0;
+    }
+
+    /**
+     * Check if reused objects should be verified against fresh ones.
+     * @return true when -Dbomberman.pool.verify=true
+     */
+    public static boolean isVerifying() {
+        return verifying;
+    }
+
+    /**
+     * Compare every field of a reused object with a freshly constructed one and fail if any differ.
+     * @param reused Object taken from a pool and reset
+     * @param fresh Object constructed with the same arguments
+     * @throws IllegalStateException When the reused object has state left over from its last use
+     */
+    public static void verify(Object reused, Object fresh) {
+        List<String> stale = new ArrayList<>();
+        for (Class<?> type = reused.getClass(); type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) {
+                    continue;
+                }
+                try {
+                    field.setAccessible(true);
+                    if (!same(field.get(reused), field.get(fresh))) {
+                        stale.add(type.getSimpleName() + "." + field.getName());
+                    }
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    stale.add(type.getSimpleName() + "." + field.getName() + " (" + e + ")");
+                }
+            }
+        }
+        if (!stale.isEmpty()) {
+            throw new IllegalStateException("Stale state in reused " + reused.getClass().getSimpleName() + ": " + stale);
+        }
+    }
+
+    /**
+     * Values are the same if they are equal, images with the same pixels, or arrays and collections of the same
+     * values. Other objects such as game objects are compared by identity.
+     */
+    private static boolean same(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null || a.getClass() != b.getClass()) {
+            return false;
+        }
+        if (a instanceof BufferedImage) {
+            BufferedImage imageA = (BufferedImage) a;
+            BufferedImage imageB = (BufferedImage) b;
+            int width = imageA.getWidth();
+            int height = imageA.getHeight();
+            return width == imageB.getWidth() && height == imageB.getHeight()
+                    && Arrays.equals(imageA.getRGB(0, 0, width, height, null, 0, width),
+                                     imageB.getRGB(0, 0, width, height, null, 0, width));
+        }
+        if (a.getClass().isArray()) {
+            int length = Array.getLength(a);
+            if (length != Array.getLength(b)) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (!same(Array.get(a, i), Array.get(b, i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof Number || a instanceof Boolean || a instanceof Character || a instanceof Enum
+                || a instanceof String || a instanceof Point2D || a instanceof Rectangle2D || a instanceof Collection) {
+            return Objects.equals(a, b);
+        }
+        return false;
+    }
+
+    /**
+     * Add the hits, misses, hit percentage and free objects of every pool since the last roll. Called by tick metrics.
+     * @param values Metric names mapped to values
+     */
+    static void roll(Map<String, Long> values) {
+        for (ObjectPool<?> pool : pools) {
+            long total = pool.hits + pool.misses;
+            values.put("pool_" + pool.name + "_hits", pool.hits);
+            values.put("pool_" + pool.name + "_misses", pool.misses);
+            values.put("pool_" + pool.name + "_hit_percent", total == 0 ? 0 : pool.hits * 100 / total);
+            values.put("pool_" + pool.name + "_free", (long) pool.size);
+            pool.hits = 0;
+            pool.misses = 0;
+        }
+    }
+
+}
+===============================================================================================
+package util;
+
+/**
+ * Round scoring shared by the game HUD and the training environment, so that agents are rewarded by the same rule
+ * that scores players. A round is set once one or no player is left alive, and the last player standing scores.
+ */
+public class Scoring {
+
+    public static final int PLAYING = -2;   // Two or more players are alive, the round goes on
+    public static final int DRAW = -1;      // The last players died together, nobody scores
+
+    /**
+     * Decide a round from the players still alive.
+     * @param alive Whether each player is alive, players missing from the map are not
+     * @param count Number of players to look at
+     * @return Index of the player that wins the round, DRAW, or PLAYING
+     */
+    public static int winner(boolean[] alive, int count) {
+        int lastAlive = DRAW;
+        for (int i = 0; i < count; i++) {
+            if (alive[i]) {
+                if (lastAlive != DRAW) {
+                    return PLAYING;
+                }
+                lastAlive = i;
+            }
+        }
+        return lastAlive;
+    }
+
+}
+===============================================================================================
+package util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only binary journal of round results. Rounds are encoded into a buffer in memory and written by a daemon
+ * thread in batches, with the file forced to disk about once a second and on exit, so recording a round never waits
+ * on the disk. Reading memory maps the file and walks the records without copying them.
+ *
+ * File layout: magic, version, then one record per round. Each record is its payload length and a CRC32 of the
+ * payload followed by the payload, so a record torn by a crash is detected and reading stops before it.
+ * Payload: time (epoch millis), duration in ticks, duration in millis, winner (-1 for a draw), player count,
+ * then kills and powerups collected of every player.
+ */
+public class MatchJournal {
+
+    public static final String PATH_PROPERTY = "bomberman.journal";
+    public static final String DEFAULT_PATH = "matches.journal";
+
+    private static final int MAGIC = 0x424D4A4C;    // "BMJL"
+    private static final int VERSION = 1;
+    static final int HEADER_SIZE = 2 * 4;
+    private static final int RECORD_HEADER_SIZE = 2 * 4;
+    private static final int FIXED_PAYLOAD_SIZE = 8 + 4 + 4 + 1 + 1;
+    private static final long FLUSH_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long FORCE_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long MAX_WINDOW = 1 << 30;
+
+    /**
+     * Result of one round.
+     */
+    public static class Round {
+
+        private long time;
+        private int durationTicks;
+        private int durationMillis;
+        private int winner;
+        private int players;
+        private final short[] kills = new short[MapFile.MAX_PLAYERS];
+        private final short[] powerups = new short[MapFile.MAX_PLAYERS];
+
+        public long getTime() {
+            return this.time;
+        }
+
+        public int getDurationTicks() {
+            return this.durationTicks;
+        }
+
+        public int getDurationMillis() {
+            return this.durationMillis;
+        }
+
+        /**
+         * @return Index of the winning player, -1 when the last players died at the same time
+         */
+        public int getWinner() {
+            return this.winner;
+        }
+
+        public int getPlayers() {
+            return this.players;
+        }
+
+        public int getKills(int player) {
+            return this.kills[player];
+        }
+
+        public int getPowerups(int player) {
+            return this.powerups[player];
+        }
+
+    }
+
+    /**
+     * Called for every round read from a journal. The round object is reused, copy anything that is kept.
+     */
+    public interface Visitor {
+        void onRound(Round round);
+    }
+
+    private static FileChannel channel;
+    private static ByteBuffer pending = ByteBuffer.allocate(64 * 1024);
+    private static ByteBuffer writing = ByteBuffer.allocate(64 * 1024);
+    private static final CRC32 crc = new CRC32();
+    private static final Object writeLock = new Object();
+    private static Thread writer;
+
+    /**
+     * Open a journal for appending, creating it if it does not exist, and start the writer thread.
+     * @param path Journal file
+     * @throws IOException When the file cannot be opened or is not a journal
+     */
+    public static synchronized void open(String path) throws IOException {
+        if (channel != null) {
+            return;
+        }
+        FileChannel file = FileChannel.open(Paths.get(path), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (file.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION);
+                header.flip();
+                file.write(header, 0);
+            } else {
+                checkHeader(file);
+            }
+            // Drop a record torn by a crash so new records follow the last complete one
+            file.truncate(read(file, HEADER_SIZE, round -> { }));
+            file.position(file.size());
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        channel = file;
+
+        writer = new Thread(MatchJournal::drain, "Match journal writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(MatchJournal::close, "Match journal close"));
+    }
+
+    /**
+     * Record the result of a round. Does nothing if no journal is open.
+     * @param time End of the round in epoch millis
+     * @param durationTicks Length of the round in ticks
+     * @param durationMillis Length of the round in millis
+     * @param winner Index of the winning player, -1 for a draw
+     * @param kills Players killed by each player
+     * @param powerups Powerups collected by each player
+     */
+    public static synchronized void append(long time, int durationTicks, int durationMillis, int winner, int[] kills, int[] powerups) {
+        if (channel == null) {
+            return;
+        }
+        int players = Math.min(kills.length, MapFile.MAX_PLAYERS);
+        int payloadSize = FIXED_PAYLOAD_SIZE + players * 4;
+        if (pending.remaining() < RECORD_HEADER_SIZE + payloadSize) {
+            // Rounds ended faster than the writer keeps up, grow rather than lose them
+            ByteBuffer grown = ByteBuffer.allocate(pending.capacity() * 2);
+            pending.flip();
+            pending = grown.put(pending);
+        }
+
+        int start = pending.position();
+        pending.position(start + RECORD_HEADER_SIZE);
+        pending.putLong(time).putInt(durationTicks).putInt(durationMillis).put((byte) winner).put((byte) players);
+        for (int i = 0; i < players; i++) {
+            pending.putShort((short) kills[i]).putShort((short) powerups[i]);
+        }
+        crc.reset();
+        crc.update(pending.array(), start + RECORD_HEADER_SIZE, payloadSize);
+        pending.putInt(start, payloadSize).putInt(start + 4, (int) crc.getValue());
+    }
+
+    /**
+     * Write buffered rounds and force the file to disk.
+     */
+    public static void close() {
+        FileChannel file;
+        synchronized (MatchJournal.class) {
+            file = channel;
+        }
+        if (file == null) {
+            return;
+        }
+        try {
+            write(file);
+            file.force(false);
+        } catch (IOException e) {
+            Log.warn("Cannot write match journal").field("error", e).publish();
+        }
+    }
+
+    /**
+     * Writer thread. Writes buffered rounds every 100 ms and forces them to disk about once a second.
+     */
+    private static void drain() {
+        long lastForce = System.nanoTime();
+        boolean unforced = false;
+        while (true) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(FLUSH_NANOS);
+                unforced |= write(channel);
+                if (unforced && System.nanoTime() - lastForce >= FORCE_NANOS) {
+                    channel.force(false);
+                    lastForce = System.nanoTime();
+                    unforced = false;
+                }
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                Log.warn("Cannot write match journal").field("error", e).publish();
+            }
+        }
+    }
+
+    /**
+     * Swap the buffers and append everything that was pending.
+     * @return true if anything was written
+     */
+    private static boolean write(FileChannel file) throws IOException {
+        // Only one thread writes at a time, appends go to the other buffer meanwhile
+        synchronized (writeLock) {
+            synchronized (MatchJournal.class) {
+                ByteBuffer swap = writing;
+                writing = pending;
+                pending = swap;
+            }
+            ByteBuffer batch = writing;
+            batch.flip();
+            boolean wrote = batch.hasRemaining();
+            while (batch.hasRemaining()) {
+                file.write(batch);
+            }
+            batch.clear();
+            return wrote;
+        }
+    }
+
+    /**
+     * Read every round in a journal after an offset.
+     * @param path Journal file
+     * @param offset Offset to start at, 0 for the first round
+     * @param visitor Called for every complete round
+     * @return Offset after the last complete round, used to continue reading later
+     * @throws IOException When the file cannot be read or is not a journal
+     */
+    public static long read(String path, long offset, Visitor visitor) throws IOException {
+        try (FileChannel file = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            checkHeader(file);
+            return read(file, Math.max(offset, HEADER_SIZE), visitor);
+        }
+    }
+
+    private static void checkHeader(FileChannel file) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (file.read(header, 0) != HEADER_SIZE || header.getInt(0) != MAGIC) {
+            throw new IOException("Not a match journal");
+        }
+        if (header.getInt(4) != VERSION) {
+            throw new IOException("Unsupported match journal version " + header.getInt(4));
+        }
+    }
+
+    /**
+     * Walk the records of a journal one memory mapped window at a time.
+     */
+    private static long read(FileChannel file, long offset, Visitor visitor) throws IOException {
+        Round round = new Round();
+        CRC32 check = new CRC32();
+        long size = file.size();
+        while (offset < size) {
+            MappedByteBuffer window = file.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(size - offset, MAX_WINDOW));
+            int position = 0;
+            while (window.limit() - position >= RECORD_HEADER_SIZE) {
+                int payloadSize = window.getInt(position);
+                int players = (payloadSize - FIXED_PAYLOAD_SIZE) / 4;
+                if (payloadSize < FIXED_PAYLOAD_SIZE || players > MapFile.MAX_PLAYERS || (payloadSize - FIXED_PAYLOAD_SIZE) % 4 != 0) {
+                    return offset + position;   // Torn or corrupt
+                }
+                if (window.limit() - position < RECORD_HEADER_SIZE + payloadSize) {
+                    break;  // Continues in the next window, or torn at the end of the file
+                }
+
+                int payload = position + RECORD_HEADER_SIZE;
+                check.reset();
+                check.update(window.slice(payload, payloadSize));
+                if ((int) check.getValue() != window.getInt(position + 4)) {
+                    return offset + position;
+                }
+
+                round.time = window.getLong(payload);
+                round.durationTicks = window.getInt(payload + 8);
+                round.durationMillis = window.getInt(payload + 12);
+                round.winner = window.get(payload + 16);
+                round.players = window.get(payload + 17);
+                for (int i = 0; i < round.players; i++) {
+                    round.kills[i] = window.getShort(payload + FIXED_PAYLOAD_SIZE + i * 4);
+                    round.powerups[i] = window.getShort(payload + FIXED_PAYLOAD_SIZE + i * 4 + 2);
+                }
+                visitor.onRound(round);
+                position = payload + payloadSize;
+            }
+
+            if (position == 0) {
+                return offset;  // Record does not fit in what is left of the file
+            }
+            offset += position;
+        }
+        return offset;
+    }
+
+}
+===============================================================================================
+package util;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Standings recomputed from the match journal: rounds played, wins, draws, kills, powerups and an Elo rating for
+ * every player slot. A round counts as the winner beating every other player, a draw as every player drawing with
+ * every other. Standings are saved to a small snapshot together with the journal offset they cover, so the next
+ * run only reads rounds appended since.
+ *
+ * Usage: MatchLadder [journal] [snapshot]
+ */
+public class MatchLadder implements MatchJournal.Visitor {
+
+    public static final String DEFAULT_SNAPSHOT = "matches.ladder";
+
+    private static final int MAGIC = 0x424D4C44;    // "BMLD"
+    private static final int VERSION = 1;
+    private static final double INITIAL_RATING = 1500;
+    private static final double K = 32;
+
+    private long offset;
+    private long rounds;
+    private final long[] played = new long[MapFile.MAX_PLAYERS];
+    private final long[] wins = new long[MapFile.MAX_PLAYERS];
+    private final long[] draws = new long[MapFile.MAX_PLAYERS];
+    private final long[] kills = new long[MapFile.MAX_PLAYERS];
+    private final long[] powerups = new long[MapFile.MAX_PLAYERS];
+    private final double[] rating = new double[MapFile.MAX_PLAYERS];
+    private final double[] delta = new double[MapFile.MAX_PLAYERS];
+
+    public MatchLadder() {
+        Arrays.fill(this.rating, INITIAL_RATING);
+    }
+
+    @Override
+    public void onRound(MatchJournal.Round round) {
+        int players = round.getPlayers();
+        int winner = round.getWinner();
+        this.rounds++;
+
+        // Pairwise Elo between players with a result, scaled so a round moves a rating at most K
+        double k = K / Math.max(1, players - 1);
+        Arrays.fill(this.delta, 0, players, 0);
+        for (int i = 0; i < players; i++) {
+            for (int j = i + 1; j < players; j++) {
+                if (winner >= 0 && winner != i && winner != j) {
+                    continue;   // Both lost to the winner, no result between them
+                }
+                double expected = 1 / (1 + Math.pow(10, (this.rating[j] - this.rating[i]) / 400));
+                double score = (winner == i) ? 1 : (winner == j) ? 0 : 0.5;
+                this.delta[i] += k * (score - expected);
+                this.delta[j] -= k * (score - expected);
+            }
+        }
+
+        for (int i = 0; i < players; i++) {
+            this.rating[i] += this.delta[i];
+            this.played[i]++;
+            this.kills[i] += round.getKills(i);
+            this.powerups[i] += round.getPowerups(i);
+        }
+        if (winner >= 0) {
+            this.wins[winner]++;
+        } else {
+            for (int i = 0; i < players; i++) {
+                this.draws[i]++;
+            }
+        }
+    }
+
+    /**
+     * Read rounds appended to the journal since the last update.
+     * @param journal Journal file
+     * @return Number of rounds read
+     * @throws IOException When the journal cannot be read
+     */
+    public long update(String journal) throws IOException {
+        long before = this.rounds;
+        this.offset = MatchJournal.read(journal, this.offset, this);
+        return this.rounds - before;
+    }
+
+    /**
+     * Load standings from a snapshot, leaving them empty if the snapshot does not exist.
+     * @param snapshot Snapshot file
+     * @throws IOException When the snapshot cannot be read
+     */
+    public void load(String snapshot) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(Paths.get(snapshot)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a ladder snapshot");
+            }
+            this.offset = in.readLong();
+            this.rounds = in.readLong();
+            int players = in.readInt();
+            for (int i = 0; i < players; i++) {
+                this.played[i] = in.readLong();
+                this.wins[i] = in.readLong();
+                this.draws[i] = in.readLong();
+                this.kills[i] = in.readLong();
+                this.powerups[i] = in.readLong();
+                this.rating[i] = in.readDouble();
+            }
+        } catch (NoSuchFileException e) {
+            // First run, start from the beginning of the journal
+        }
+    }
+
+    /**
+     * Save standings to a snapshot. The snapshot is replaced atomically so a crash leaves the previous one.
+     * @param snapshot Snapshot file
+     * @throws IOException When the snapshot cannot be written
+     */
+    public void save(String snapshot) throws IOException {
+        Path target = Paths.get(snapshot).toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        int players = this.getPlayers();
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(this.offset);
+            out.writeLong(this.rounds);
+            out.writeInt(players);
+            for (int i = 0; i < players; i++) {
+                out.writeLong(this.played[i]);
+                out.writeLong(this.wins[i]);
+                out.writeLong(this.draws[i]);
+                out.writeLong(this.kills[i]);
+                out.writeLong(this.powerups[i]);
+                out.writeDouble(this.rating[i]);
+            }
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return Number of player slots that have played at least one round
+     */
+    public int getPlayers() {
+        int players = 0;
+        for (int i = 0; i < MapFile.MAX_PLAYERS; i++) {
+            if (this.played[i] > 0) {
+                players = i + 1;
+            }
+        }
+        return players;
+    }
+
+    public long getRounds() {
+        return this.rounds;
+    }
+
+    public long getWins(int player) {
+        return this.wins[player];
+    }
+
+    public double getRating(int player) {
+        return this.rating[player];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder table = new StringBuilder();
+        table.append(String.format("%-8s %8s %8s %8s %8s %8s %8s%n", "player", "rating", "rounds", "wins", "draws", "kills", "powerups"));
+        for (int i = 0; i < this.getPlayers(); i++) {
+            table.append(String.format("%-8d %8.1f %8d %8d %8d %8d %8d%n", i + 1, this.rating[i], this.played[i], this.wins[i], this.draws[i], this.kills[i], this.powerups[i]));
+        }
+        return table.toString();
+    }
+
+    public static void main(String[] args) throws IOException {
+        String journal = (args.length > 0) ? args[0] : System.getProperty(MatchJournal.PATH_PROPERTY, MatchJournal.DEFAULT_PATH);
+        String snapshot = (args.length > 1) ? args[1] : DEFAULT_SNAPSHOT;
+
+        MatchLadder ladder = new MatchLadder();
+        ladder.load(snapshot);
+        long start = System.nanoTime();
+        long read = ladder.update(journal);
+        long elapsed = System.nanoTime() - start;
+        ladder.save(snapshot);
+
+        System.out.print(ladder);
+        System.out.printf("%d rounds, %d new in %.1f ms%n", ladder.getRounds(), read, elapsed / 1e6);
+    }
+
+}
+===============================================================================================
+package util;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Sprites and HUD colors of every player. The first four players use their own spritemaps. Every other player gets a
+ * palette swap of one base spritemap, generated the first time that player spawns and kept for later rounds, so
+ * arenas with up to 64 bombers need no extra resource files.
+ *
+ * The swap only recolors the body: pixels close to the dominant saturated hue of the base spritemap are rotated to the
+ * player's hue and darkened for some players, keeping their shading. Outlines, skin and highlights are left alone.
+ */
+public class PlayerSprites {
+
+    private static final ResourceCollection.SpriteMaps[] SPRITEMAPS = {
+            ResourceCollection.SpriteMaps.PLAYER_1,
+            ResourceCollection.SpriteMaps.PLAYER_2,
+            ResourceCollection.SpriteMaps.PLAYER_3,
+            ResourceCollection.SpriteMaps.PLAYER_4 };
+    private static final Color[] COLORS = { Color.WHITE, Color.GRAY, Color.RED, Color.BLUE };
+    private static final ResourceCollection.SpriteMaps BASE = ResourceCollection.SpriteMaps.PLAYER_3;  // Red body
+
+    private static final float GOLDEN_RATIO = 0.618034f;    // Spreads hues of consecutive players evenly
+    private static final float MIN_SATURATION = 0.5f;     // Skin and highlights are less saturated
+    private static final float HUE_WINDOW = 1 / 24f;        // Body pixels are within 15 degrees of the body hue
+    private static final int SHADES = 3;
+
+    private static final BufferedImage[][][] variants = new BufferedImage[MapFile.MAX_PLAYERS][][];
+    private static int[] palette;       // Distinct colors of the base spritemap, sorted
+    private static float bodyHue;
+
+    /**
+     * Get the sprites of a player, generating the palette swap on first use.
+     * @param player Player index starting at 0
+     * @return Sprites indexed by row and column, laid out like the base spritemap
+     */
+    public static synchronized BufferedImage[][] getSprites(int player) {
+        if (player < SPRITEMAPS.length) {
+            return SpriteCache.getSprites(SPRITEMAPS[player]);
+        }
+        if (variants[player] == null) {
+            variants[player] = swap(SpriteCache.getSprites(BASE), player);
+        }
+        return variants[player];
+    }
+
+    /**
+     * Get the color that stands for a player in the HUD.
+     * @param player Player index starting at 0
+     * @return Body color of the player
+     */
+    public static Color getColor(int player) {
+        if (player < COLORS.length) {
+            return COLORS[player];
+        }
+        return Color.getHSBColor(hue(player), 0.8f, shade(player));
+    }
+
+    private static float hue(int player) {
+        float hue = (player - COLORS.length + 1) * GOLDEN_RATIO;
+        return hue - (float) Math.floor(hue);
+    }
+
+    private static float shade(int player) {
+        return 1 - ((player - COLORS.length) % SHADES) * 0.25f;
+    }
+
+    /**
+     * Recolor every sprite of the base spritemap through a palette built for one player.
+     */
+    private static BufferedImage[][] swap(BufferedImage[][] base, int player) {
+        if (palette == null) {
+            readPalette(base);
+        }
+
+        // Map the palette once, then every pixel is a lookup
+        int[] mapped = new int[palette.length];
+        float[] hsb = new float[3];
+        float hueShift = hue(player) - bodyHue;
+        for (int i = 0; i < palette.length; i++) {
+            int argb = palette[i];
+            Color.RGBtoHSB((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF, hsb);
+            if (!isBody(hsb)) {
+                mapped[i] = argb;
+                continue;
+            }
+            int rgb = Color.HSBtoRGB(hsb[0] + hueShift, hsb[1], hsb[2] * shade(player));
+            mapped[i] = (argb & 0xFF000000) | (rgb & 0x00FFFFFF);
+        }
+
+        BufferedImage[][] sprites = new BufferedImage[base.length][];
+        for (int row = 0; row < base.length; row++) {
+            sprites[row] = new BufferedImage[base[row].length];
+            for (int column = 0; column < base[row].length; column++) {
+                BufferedImage sprite = base[row][column];
+                if (sprite == null) {
+                    continue;
+                }
+                int width = sprite.getWidth();
+                int height = sprite.getHeight();
+                int[] pixels = sprite.getRGB(0, 0, width, height, null, 0, width);
+                for (int i = 0; i < pixels.length; i++) {
+                    pixels[i] = mapped[Arrays.binarySearch(palette, pixels[i])];
+                }
+                BufferedImage swapped = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB_PRE);
+                swapped.setRGB(0, 0, width, height, pixels, 0, width);
+                sprites[row][column] = swapped;
+            }
+        }
+        return sprites;
+    }
+
+    /**
+     * Collect the distinct colors of the base spritemap and find the hue of its body, the hue most saturated pixels have.
+     */
+    private static void readPalette(BufferedImage[][] base) {
+        int[] colors = new int[256];
+        int count = 0;
+        int[] hueCounts = new int[36];
+        float[] hsb = new float[3];
+        for (BufferedImage[] row : base) {
+            for (BufferedImage sprite : row) {
+                if (sprite == null) {
+                    continue;
+                }
+                int[] pixels = sprite.getRGB(0, 0, sprite.getWidth(), sprite.getHeight(), null, 0, sprite.getWidth());
+                for (int argb : pixels) {
+                    if ((argb >>> 24) != 0) {
+                        Color.RGBtoHSB((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF, hsb);
+                        if (hsb[1] >= MIN_SATURATION) {
+                            hueCounts[Math.min((int) (hsb[0] * hueCounts.length), hueCounts.length - 1)]++;
+                        }
+                    }
+                    if (count == colors.length) {
+                        colors = distinct(colors, count);
+                        count = colors.length;
+                        colors = Arrays.copyOf(colors, Math.max(256, count * 2));
+                    }
+                    colors[count++] = argb;
+                }
+            }
+        }
+        palette = distinct(colors, count);
+
+        int peak = 0;
+        for (int i = 1; i < hueCounts.length; i++) {
+            if (hueCounts[i] > hueCounts[peak]) {
+                peak = i;
+            }
+        }
+        bodyHue = (peak + 0.5f) / hueCounts.length;
+    }
+
+    private static boolean isBody(float[] hsb) {
+        float distance = Math.abs(hsb[0] - bodyHue);
+        return hsb[1] >= MIN_SATURATION && Math.min(distance, 1 - distance) <= HUE_WINDOW;
+    }
+
+    private static int[] distinct(int[] colors, int count) {
+        int[] sorted = Arrays.copyOf(colors, count);
+        Arrays.sort(sorted);
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, unique);
+    }
+
+}
+===============================================================================================
+package util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Recording of a match that is enough to play it again tick for tick. The game world only depends on the seed of
+ * each round and on the key events applied on each tick, so that is all a replay stores.
+ *
+ * File layout: magic, version, map file name, then records that start with a type byte. ROUND holds the tick the
+ * round starts on and its seed, INPUT holds the tick, player, key and whether it was pressed, END holds the number of
+ * ticks played. A replay cut short by a crash ends after its last complete record.
+ */
+public class ReplayFile {
+
+    public static final String DIRECTORY_PROPERTY = "bomberman.replays";
+
+    private static final int MAGIC = 0x424D5250;    // "BMRP"
+    private static final int VERSION = 1;
+    private static final byte ROUND = 1;
+    private static final byte INPUT = 2;
+    private static final byte END = 3;
+
+    private static final Key[] KEYS = Key.values();
+
+    private final String map;
+    private int ticks;
+
+    private int rounds;
+    private int[] roundTicks = new int[16];
+    private long[] seeds = new long[16];
+
+    private int inputs;
+    private int[] inputTicks = new int[1024];
+    private int[] inputEvents = new int[1024];     // Player, key ordinal, and pressed packed into one int
+
+    /**
+     * Start an empty replay to fill in, for matches that are generated rather than played.
+     * @param map Name of the map file, empty for the default map
+     */
+    public ReplayFile(String map) {
+        this.map = map;
+    }
+
+    /**
+     * Read a whole replay into memory.
+     * @param path Replay file
+     * @return Replay
+     * @throws IOException When the file cannot be read or is not a replay
+     */
+    public static ReplayFile read(String path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(path)))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a replay: " + path);
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported replay version " + version + ": " + path);
+            }
+            ReplayFile replay = new ReplayFile(in.readUTF());
+            try {
+                while (true) {
+                    byte type = in.readByte();
+                    int tick = in.readInt();
+                    if (type == ROUND) {
+                        replay.addRound(tick, in.readLong());
+                    } else if (type == INPUT) {
+                        int player = in.readUnsignedByte();
+                        int key = in.readUnsignedByte();
+                        boolean pressed = in.readBoolean();
+                        replay.addEvent(tick, player << 8 | key << 1 | (pressed ? 1 : 0));
+                        tick++;     // Played at least through the tick of the event
+                    } else if (type == END) {
+                        replay.ticks = tick;
+                        break;
+                    } else {
+                        throw new IOException("Corrupt replay record " + type + ": " + path);
+                    }
+                    replay.ticks = Math.max(replay.ticks, tick);
+                }
+            } catch (EOFException e) {
+                // Recording was cut short, keep what was complete
+            }
+            return replay;
+        }
+    }
+
+    /**
+     * Write the replay to a file.
+     * @param path Replay file
+     * @throws IOException When the file cannot be written
+     */
+    public void write(String path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)))) {
+            writeHeader(out, this.map);
+            for (int i = 0; i < this.rounds; i++) {
+                writeRound(out, this.roundTicks[i], this.seeds[i]);
+            }
+            for (int i = 0; i < this.inputs; i++) {
+                writeInput(out, this.inputTicks[i], this.getPlayer(i), this.getKey(i), this.isPressed(i));
+            }
+            writeEnd(out, this.ticks);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out, String map) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(map == null ? "" : map);
+    }
+
+    private static void writeRound(DataOutputStream out, int tick, long seed) throws IOException {
+        out.writeByte(ROUND);
+        out.writeInt(tick);
+        out.writeLong(seed);
+    }
+
+    private static void writeInput(DataOutputStream out, int tick, int player, Key key, boolean pressed) throws IOException {
+        out.writeByte(INPUT);
+        out.writeInt(tick);
+        out.writeByte(player);
+        out.writeByte(key.ordinal());
+        out.writeBoolean(pressed);
+    }
+
+    private static void writeEnd(DataOutputStream out, int ticks) throws IOException {
+        out.writeByte(END);
+        out.writeInt(ticks);
+    }
+
+    /**
+     * Add the start of a round. Rounds are played in the order they are added.
+     * @param tick Tick the round starts on
+     * @param seed Seed of the round
+     */
+    public void addRound(int tick, long seed) {
+        if (this.rounds == this.seeds.length) {
+            this.roundTicks = Arrays.copyOf(this.roundTicks, this.rounds * 2);
+            this.seeds = Arrays.copyOf(this.seeds, this.rounds * 2);
+        }
+        this.roundTicks[this.rounds] = tick;
+        this.seeds[this.rounds] = seed;
+        this.rounds++;
+    }
+
+    /**
+     * Add a key event. Key events are applied in the order they are added.
+     * @param tick Tick the key event is applied on
+     * @param player Player index
+     * @param key Action of the key
+     * @param pressed true for a key press, false for a release
+     */
+    public void addInput(int tick, int player, Key key, boolean pressed) {
+        this.addEvent(tick, player << 8 | key.ordinal() << 1 | (pressed ? 1 : 0));
+        this.ticks = Math.max(this.ticks, tick + 1);
+    }
+
+    private void addEvent(int tick, int event) {
+        if (this.inputs == this.inputEvents.length) {
+            this.inputTicks = Arrays.copyOf(this.inputTicks, this.inputs * 2);
+            this.inputEvents = Arrays.copyOf(this.inputEvents, this.inputs * 2);
+        }
+        this.inputTicks[this.inputs] = tick;
+        this.inputEvents[this.inputs] = event;
+        this.inputs++;
+    }
+
+    /**
+     * @return Name of the map file the match was played on, empty for the default map
+     */
+    public String getMap() {
+        return this.map;
+    }
+
+    /**
+     * @return Number of ticks played
+     */
+    public int getTicks() {
+        return this.ticks;
+    }
+
+    /**
+     * @param ticks Number of ticks to play
+     */
+    public void setTicks(int ticks) {
+        this.ticks = ticks;
+    }
+
+    public int getRounds() {
+        return this.rounds;
+    }
+
+    /**
+     * @param round Round index
+     * @return Tick the round starts on
+     */
+    public int getRoundTick(int round) {
+        return this.roundTicks[round];
+    }
+
+    /**
+     * @param round Round index
+     * @return Seed of the round
+     */
+    public long getSeed(int round) {
+        return this.seeds[round];
+    }
+
+    public int getInputs() {
+        return this.inputs;
+    }
+
+    /**
+     * @param input Input index
+     * @return Tick the key event is applied on
+     */
+    public int getInputTick(int input) {
+        return this.inputTicks[input];
+    }
+
+    public int getPlayer(int input) {
+        return this.inputEvents[input] >>> 8;
+    }
+
+    public Key getKey(int input) {
+        return KEYS[(this.inputEvents[input] >>> 1) & 0x7F];
+    }
+
+    public boolean isPressed(int input) {
+        return (this.inputEvents[input] & 1) != 0;
+    }
+
+    /**
+     * Writes a replay while the match is played. Records are buffered and written about once a second of game time,
+     * on every new round, and when the recorder is closed. When the file cannot be written, recording stops with a
+     * warning and the game goes on.
+     */
+    public static class Recorder {
+
+        private static final int FLUSH_TICKS = 60;
+
+        private final String path;
+        private DataOutputStream out;
+        private int ticks;
+        private int flushed;
+
+        /**
+         * Create a replay file and write its header.
+         * @param path Replay file
+         * @param map Name of the map file the match is played on, null for the default map
+         * @throws IOException When the file cannot be created
+         */
+        public Recorder(String path, String map) throws IOException {
+            this.path = path;
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path)));
+            try {
+                writeHeader(this.out, map);
+            } catch (IOException e) {
+                this.out.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Record the start of a round.
+         * @param tick Tick the round starts on
+         * @param seed Seed of the round
+         */
+        public void round(int tick, long seed) {
+            if (this.out == null) {
+                return;
+            }
+            try {
+                writeRound(this.out, tick, seed);
+                this.out.flush();
+                this.flushed = tick;
+            } catch (IOException e) {
+                this.fail(e);
+            }
+            this.ticks = Math.max(this.ticks, tick);
+        }
+
+        /**
+         * Record a key event applied to a player.
+         * @param tick Tick the key event is applied on
+         * @param player Player index
+         * @param key Action of the key
+         * @param pressed true for a key press, false for a release
+         */
+        public void input(int tick, int player, Key key, boolean pressed) {
+            if (this.out == null) {
+                return;
+            }
+            try {
+                writeInput(this.out, tick, player, key, pressed);
+                if (tick - this.flushed >= FLUSH_TICKS) {
+                    this.out.flush();
+                    this.flushed = tick;
+                }
+            } catch (IOException e) {
+                this.fail(e);
+            }
+            this.ticks = Math.max(this.ticks, tick + 1);
+        }
+
+        /**
+         * Record the end of the match and close the file.
+         * @param ticks Number of ticks played
+         */
+        public void close(int ticks) {
+            if (this.out == null) {
+                return;
+            }
+            try {
+                writeEnd(this.out, Math.max(this.ticks, ticks));
+                this.out.close();
+            } catch (IOException e) {
+                this.fail(e);
+            }
+            this.out = null;
+        }
+
+        private void fail(IOException e) {
+            Log.warn("Cannot write replay, recording stopped").field("file", this.path).field("error", e).publish();
+            try {
+                this.out.close();
+            } catch (IOException ignored) {
+            }
+            this.out = null;
+        }
+
+    }
+
+}
+===============================================================================================
\ No newline at end of file